@@ -0,0 +1,63 @@
+package com.liupc.aiagent.benchmark;
+
+import java.util.Random;
+
+/**
+ * 基准测试用的确定性文本（固定随机种子，多次运行输入一致）
+ */
+final class BenchmarkTexts {
+
+    private static final String[] CHINESE_SENTENCES = {
+            "HashMap 在 JDK 8 之后由数组、链表和红黑树组成，链表长度超过阈值时转换为红黑树。",
+            "线程池的核心参数包括核心线程数、最大线程数、存活时间、任务队列和拒绝策略。",
+            "向量数据库通过近似最近邻索引在高维空间中快速查找与查询向量最相似的文档片段。",
+            "检索增强生成先检索相关文档，再把文档作为上下文交给大模型生成回答。",
+            "PostgreSQL 的 MVCC 机制让读操作不阻塞写操作，旧版本元组由 VACUUM 回收。",
+            "虚拟线程在阻塞时从载体线程上卸载，适合大量等待网络和数据库的请求。",
+    };
+
+    private static final String[] ENGLISH_SENTENCES = {
+            "A HashMap stores entries in buckets and converts long chains into balanced trees.",
+            "The thread pool keeps core workers alive and queues tasks until the maximum size is reached.",
+            "Approximate nearest neighbour indexes trade a little recall for orders of magnitude less work.",
+            "Retrieval augmented generation grounds the model answer in documents found for the question.",
+            "PostgreSQL uses multi-version concurrency control so that readers never block writers.",
+            "Virtual threads unmount from their carrier while blocked on sockets or locks.",
+    };
+
+    private BenchmarkTexts() {
+    }
+
+    /**
+     * 生成约 chars 个字符的文本，每 3~8 句一个段落
+     * @param language zh / en
+     */
+    static String generate(String language, int chars, long seed) {
+        String[] sentences = "zh".equals(language) ? CHINESE_SENTENCES : ENGLISH_SENTENCES;
+        String separator = "zh".equals(language) ? "" : " ";
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(chars + 256);
+        int sentencesInParagraph = 0;
+        int paragraphLength = 3 + random.nextInt(6);
+        while (text.length() < chars) {
+            text.append(sentences[random.nextInt(sentences.length)]).append(separator);
+            if (++sentencesInParagraph >= paragraphLength) {
+                text.append("\n\n");
+                sentencesInParagraph = 0;
+                paragraphLength = 3 + random.nextInt(6);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * 生成 count 段长度约为 chars 的片段
+     */
+    static String[] segments(String language, int count, int chars, long seed) {
+        String[] segments = new String[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = generate(language, chars, seed + i).trim();
+        }
+        return segments;
+    }
+}
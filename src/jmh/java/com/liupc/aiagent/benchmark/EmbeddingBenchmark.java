@@ -0,0 +1,86 @@
+package com.liupc.aiagent.benchmark;
+
+import com.liupc.aiagent.service.impl.EmbeddingServiceImpl;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MiniLM 向量化：单条问题、逐条处理一批片段、模型批量接口、嵌入服务（会话池并行）批量接口
+ * 批量相关的基准每次调用处理 batchSize 个片段，比较时按片段数折算
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    @Param({"32"})
+    public int batchSize;
+
+    private AllMiniLmL6V2EmbeddingModel model;
+
+    private EmbeddingServiceImpl embeddingService;
+
+    private String question;
+
+    private List<TextSegment> segments;
+
+    @Setup
+    public void setUp() {
+        model = new AllMiniLmL6V2EmbeddingModel();
+        // 会话池大小按 CPU 核数（0），批大小与入库默认值一致
+        embeddingService = new EmbeddingServiceImpl(0, 32);
+        question = "线程池的拒绝策略有哪些？";
+        segments = new ArrayList<>(batchSize);
+        for (String text : BenchmarkTexts.segments("zh", batchSize, 500, 7)) {
+            segments.add(TextSegment.from(text));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        embeddingService.shutdown();
+    }
+
+    @Benchmark
+    public Embedding embedQuestion() {
+        return model.embed(question).content();
+    }
+
+    @Benchmark
+    public void embedSegmentsOneByOne(Blackhole blackhole) {
+        for (TextSegment segment : segments) {
+            blackhole.consume(model.embed(segment).content());
+        }
+    }
+
+    @Benchmark
+    public List<Embedding> embedSegmentsBatched() {
+        return model.embedAll(segments).content();
+    }
+
+    @Benchmark
+    public List<Embedding> embedSegmentsWithService() {
+        return embeddingService.embedAll(segments);
+    }
+}
@@ -0,0 +1,115 @@
+package com.liupc.aiagent.benchmark;
+
+import com.liupc.aiagent.util.FileTextExtractor;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PDF / DOCX 文本提取：整篇返回字符串与流式按页（段落块）输出
+ * 样例文件在 Setup 中按固定内容生成（PDF 使用标准 Type1 字体，只含英文；DOCX 为中文段落）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileExtractionBenchmark {
+
+    private static final int LINES_PER_PAGE = 45;
+
+    private static final int CHARS_PER_LINE = 90;
+
+    @Param({"pdf", "docx"})
+    public String format;
+
+    @Param({"50"})
+    public int pages;
+
+    private Path fixture;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = Files.createTempFile("jmh-fixture-", "." + format);
+        if ("pdf".equals(format)) {
+            writePdf(fixture);
+        } else {
+            writeDocx(fixture);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(fixture);
+    }
+
+    @Benchmark
+    public String extractWhole() throws IOException {
+        return FileTextExtractor.extractText(fixture.toString());
+    }
+
+    @Benchmark
+    public long extractStreaming() throws IOException, InterruptedException {
+        AtomicLong chars = new AtomicLong();
+        FileTextExtractor.extractText(fixture.toString(), piece -> chars.addAndGet(piece.length()));
+        return chars.get();
+    }
+
+    private void writePdf(Path path) throws IOException {
+        String text = BenchmarkTexts.generate("en", pages * LINES_PER_PAGE * CHARS_PER_LINE, 11)
+                .replace("\n", " ");
+        try (PDDocument document = new PDDocument()) {
+            int offset = 0;
+            for (int page = 0; page < pages; page++) {
+                PDPage pdPage = new PDPage();
+                document.addPage(pdPage);
+                try (PDPageContentStream content = new PDPageContentStream(document, pdPage)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 9);
+                    content.setLeading(14);
+                    content.newLineAtOffset(40, 750);
+                    for (int line = 0; line < LINES_PER_PAGE && offset < text.length(); line++) {
+                        int end = Math.min(text.length(), offset + CHARS_PER_LINE);
+                        content.showText(text.substring(offset, end));
+                        content.newLine();
+                        offset = end;
+                    }
+                    content.endText();
+                }
+            }
+            document.save(path.toFile());
+        }
+    }
+
+    private void writeDocx(Path path) throws IOException {
+        String text = BenchmarkTexts.generate("zh", pages * LINES_PER_PAGE * CHARS_PER_LINE / 2, 11);
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(path)) {
+            for (String paragraph : text.split("\n\n")) {
+                document.createParagraph().createRun().setText(paragraph);
+            }
+            document.write(out);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.liupc.aiagent.benchmark;
+
+import com.liupc.aiagent.util.TextSplitter;
+import dev.langchain4j.data.segment.TextSegment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文本分割（DocumentSplitters.recursive，500 字符 / 重叠 100）：整篇分割与入库流水线中的增量分割
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextSplitterBenchmark {
+
+    // 入库流水线中提取阶段每块文本的长度
+    private static final int PIECE_CHARS = 4000;
+
+    @Param({"zh", "en"})
+    public String language;
+
+    @Param({"100000", "1000000"})
+    public int chars;
+
+    private String text;
+
+    private List<String> pieces;
+
+    @Setup
+    public void setUp() {
+        text = BenchmarkTexts.generate(language, chars, 42);
+        pieces = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += PIECE_CHARS) {
+            pieces.add(text.substring(start, Math.min(text.length(), start + PIECE_CHARS)));
+        }
+    }
+
+    @Benchmark
+    public List<TextSegment> splitWhole() {
+        return TextSplitter.splitText(text, 500, 100);
+    }
+
+    @Benchmark
+    public void splitStreaming(Blackhole blackhole) {
+        TextSplitter.StreamingSplitter splitter = new TextSplitter.StreamingSplitter(500, 100);
+        for (String piece : pieces) {
+            blackhole.consume(splitter.append(piece));
+        }
+        blackhole.consume(splitter.finish());
+    }
+}
@@ -0,0 +1,90 @@
+package com.liupc.aiagent.benchmark;
+
+import com.liupc.aiagent.vector.PgvectorCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 向量序列化格式：pgvector 文本格式（toLiteral / parse）、二进制格式（pgjdbc 二进制协议），
+ * 以及改为 float[] 之前基于 List&lt;Float&gt; 拼接字符串的写法（作为基线）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorCodecBenchmark {
+
+    @Param({"384", "1536"})
+    public int dimensions;
+
+    private float[] vector;
+
+    private List<Float> boxedVector;
+
+    private String literal;
+
+    private byte[] binary;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        vector = new float[dimensions];
+        boxedVector = new ArrayList<>(dimensions);
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = random.nextFloat() * 2 - 1;
+            boxedVector.add(vector[i]);
+        }
+        literal = PgvectorCodec.toLiteral(vector);
+        PgvectorCodec.VectorValue value = new PgvectorCodec.VectorValue(vector);
+        binary = new byte[value.lengthInBytes()];
+        value.toBytes(binary, 0);
+    }
+
+    @Benchmark
+    public String textEncode() {
+        return PgvectorCodec.toLiteral(vector);
+    }
+
+    @Benchmark
+    public float[] textDecode() {
+        return PgvectorCodec.parse(literal);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        PgvectorCodec.VectorValue value = new PgvectorCodec.VectorValue(vector);
+        byte[] bytes = new byte[value.lengthInBytes()];
+        value.toBytes(bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public float[] binaryDecode() throws SQLException {
+        PgvectorCodec.VectorValue value = new PgvectorCodec.VectorValue();
+        value.setByteValue(binary, 0);
+        return value.toArray();
+    }
+
+    @Benchmark
+    public String boxedListEncode() {
+        return boxedVector.stream().map(String::valueOf).collect(Collectors.joining(",", "[", "]"));
+    }
+}
@@ -0,0 +1,235 @@
+package com.liupc.aiagent.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内的 OpenAI 兼容大模型替身：响应 POST .../chat/completions（普通 JSON 与 SSE 流式两种）
+ * 可配置首个 token 延迟、生成速度（token/秒）、回答长度和失败注入比例，Qwen / Ollama 客户端的 baseUrl 指向它即可
+ */
+@Slf4j
+public class FakeOpenAiServer implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String[] WORDS = {
+            "根据", "参考", "文档", "，", "线程池", "的", "核心", "参数", "包括", "队列", "和", "拒绝策略", "。",
+            "向量", "检索", "会", "返回", "最", "相似", "的", "片段", "。"
+    };
+
+    private final String name;
+    private final Options options;
+    private final HttpServer server;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong streamRequests = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+
+    /**
+     * 替身的行为参数
+     */
+    public static class Options {
+        // 收到请求到返回首个 token（非流式为返回完整响应前的额外等待）的延迟
+        long firstTokenDelayMillis = 300;
+        // 首个 token 之后的生成速度
+        double tokensPerSecond = 50;
+        // 每个回答的 token 数
+        int answerTokens = 60;
+        // 失败注入比例（0~1），命中时返回 failureStatus
+        double failureRate = 0;
+        int failureStatus = 503;
+
+        static Options from(Map<String, String> args, String prefix) {
+            Options options = new Options();
+            options.firstTokenDelayMillis = Long.parseLong(args.getOrDefault(prefix + ".first-token-ms", "300"));
+            options.tokensPerSecond = Double.parseDouble(args.getOrDefault(prefix + ".tokens-per-second", "50"));
+            options.answerTokens = Integer.parseInt(args.getOrDefault(prefix + ".answer-tokens", "60"));
+            options.failureRate = Double.parseDouble(args.getOrDefault(prefix + ".failure-rate", "0"));
+            options.failureStatus = Integer.parseInt(args.getOrDefault(prefix + ".failure-status", "503"));
+            return options;
+        }
+
+        @Override
+        public String toString() {
+            return "firstTokenMs=" + firstTokenDelayMillis + ", tokensPerSecond=" + tokensPerSecond
+                    + ", answerTokens=" + answerTokens + ", failureRate=" + failureRate + ", failureStatus=" + failureStatus;
+        }
+    }
+
+    public FakeOpenAiServer(String name, Options options) throws IOException {
+        this.name = name;
+        this.options = options;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // 每个请求一个虚拟线程，延迟和逐 token 输出用 sleep 模拟
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        log.info("大模型替身 {} 已启动 - {}, {}", name, baseUrl(), options);
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requests.get());
+        stats.put("streamRequests", streamRequests.get());
+        stats.put("injectedFailures", injectedFailures.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod()) || !exchange.getRequestURI().getPath().endsWith("/chat/completions")) {
+                sendJson(exchange, 404, error("not found"));
+                return;
+            }
+            requests.incrementAndGet();
+            JsonNode request = MAPPER.readTree(exchange.getRequestBody());
+            boolean stream = request.path("stream").asBoolean(false);
+            String model = request.path("model").asText(name);
+
+            if (ThreadLocalRandom.current().nextDouble() < options.failureRate) {
+                injectedFailures.incrementAndGet();
+                sleep(options.firstTokenDelayMillis);
+                sendJson(exchange, options.failureStatus, error("injected failure"));
+                return;
+            }
+            int promptTokens = estimateTokens(request);
+            if (stream) {
+                streamRequests.incrementAndGet();
+                streamCompletion(exchange, model, promptTokens, request.path("stream_options").path("include_usage").asBoolean(false));
+            } else {
+                completion(exchange, model, promptTokens);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端取消（对冲落败、流式断开）时写响应失败
+            log.debug("大模型替身 {} 响应中断: {}", name, e.getMessage());
+        }
+    }
+
+    private void completion(HttpExchange exchange, String model, int promptTokens) throws IOException, InterruptedException {
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < options.answerTokens; i++) {
+            answer.append(WORDS[i % WORDS.length]);
+        }
+        sleep(options.firstTokenDelayMillis + (long) (options.answerTokens * 1000 / options.tokensPerSecond));
+
+        ObjectNode body = envelope("chat.completion", model);
+        ObjectNode choice = ((ArrayNode) body.get("choices")).addObject();
+        choice.put("index", 0);
+        choice.put("finish_reason", "stop");
+        ObjectNode message = choice.putObject("message");
+        message.put("role", "assistant");
+        message.put("content", answer.toString());
+        body.set("usage", usage(promptTokens, options.answerTokens));
+        sendJson(exchange, 200, body);
+    }
+
+    private void streamCompletion(HttpExchange exchange, String model, int promptTokens, boolean includeUsage)
+            throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        sleep(options.firstTokenDelayMillis);
+        long interval = (long) (1000 / options.tokensPerSecond);
+        for (int i = 0; i < options.answerTokens; i++) {
+            if (i > 0) {
+                sleep(interval);
+            }
+            ObjectNode chunk = envelope("chat.completion.chunk", model);
+            ObjectNode choice = ((ArrayNode) chunk.get("choices")).addObject();
+            choice.put("index", 0);
+            choice.putObject("delta").put("content", WORDS[i % WORDS.length]);
+            if (i == options.answerTokens - 1) {
+                choice.put("finish_reason", "stop");
+            } else {
+                choice.putNull("finish_reason");
+            }
+            writeEvent(out, chunk.toString());
+        }
+        if (includeUsage) {
+            ObjectNode chunk = envelope("chat.completion.chunk", model);
+            chunk.set("usage", usage(promptTokens, options.answerTokens));
+            writeEvent(out, chunk.toString());
+        }
+        writeEvent(out, "[DONE]");
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static ObjectNode envelope(String object, String model) {
+        ObjectNode body = MAPPER.createObjectNode();
+        body.put("id", "chatcmpl-" + UUID.randomUUID());
+        body.put("object", object);
+        body.put("created", System.currentTimeMillis() / 1000);
+        body.put("model", model);
+        body.putArray("choices");
+        return body;
+    }
+
+    private static ObjectNode usage(int promptTokens, int completionTokens) {
+        ObjectNode usage = MAPPER.createObjectNode();
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", completionTokens);
+        usage.put("total_tokens", promptTokens + completionTokens);
+        return usage;
+    }
+
+    private static ObjectNode error(String message) {
+        ObjectNode body = MAPPER.createObjectNode();
+        ObjectNode error = body.putObject("error");
+        error.put("message", message);
+        error.put("type", "server_error");
+        return body;
+    }
+
+    // 粗略估算：中文约 1 字 1 token
+    private static int estimateTokens(JsonNode request) {
+        int chars = 0;
+        for (JsonNode message : request.path("messages")) {
+            chars += message.path("content").asText("").length();
+        }
+        return chars;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+}
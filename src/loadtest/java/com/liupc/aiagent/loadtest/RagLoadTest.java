@@ -0,0 +1,430 @@
+package com.liupc.aiagent.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.liupc.aiagent.AiAgentApplication;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * RAG 端到端压测：在进程内启动应用，大模型指向 FakeOpenAiServer（不调用 DashScope / Ollama），
+ * 数据库使用 Testcontainers 启动的 pgvector（或 db=external 指向已有实例）；
+ * 先上传种子文档，再并发发起问答和上传，输出各阶段的吞吐量、p50/p99 延迟和错误率
+ * 客户端阶段：chat / chat.first-token（流式）/ upload.submit / upload.ingest（提交到入库完成）；
+ * 服务端阶段：应用内 rag.* / llm.* 计时指标（问题向量化、检索、大模型调用、入库各阶段）
+ * 参数为 key=value（可写在一个参数里以空格分隔），见 defaults()
+ */
+@Slf4j
+public class RagLoadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final String[] TOPICS = {
+            "线程池", "HashMap", "虚拟线程", "向量索引", "MVCC", "垃圾回收", "类加载", "事务隔离级别",
+            "Redis 持久化", "消息队列", "分布式锁", "HTTP/2", "JVM 内存模型", "索引下推", "零拷贝", "限流算法"
+    };
+
+    private static final String[] QUESTION_TEMPLATES = {
+            "%s 的核心原理是什么？", "%s 有哪些常见问题？", "如何优化 %s 的性能？", "%s 的关键参数有哪些？",
+            "%s 在生产环境中需要注意什么？", "请比较 %s 的不同实现方式。"
+    };
+
+    private final Map<String, String> options;
+    private final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private final AtomicInteger uploadIndex = new AtomicInteger();
+
+    private String baseUrl;
+
+    private RagLoadTest(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = defaults();
+        for (String arg : args) {
+            for (String token : arg.trim().split("\\s+")) {
+                if (token.isEmpty()) {
+                    continue;
+                }
+                String pair = token.startsWith("--") ? token.substring(2) : token;
+                int eq = pair.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("参数格式应为 key=value：" + token);
+                }
+                options.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        new RagLoadTest(options).run();
+        System.exit(0);
+    }
+
+    private static Map<String, String> defaults() {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("duration-seconds", "60");
+        options.put("chat-concurrency", "16");
+        // post（POST /api/rag/chat）/ stream（POST /api/rag/chat/stream，额外统计首个 token 延迟）
+        options.put("chat-mode", "post");
+        options.put("upload-concurrency", "2");
+        options.put("seed-documents", "20");
+        options.put("document-chars", "20000");
+        // 问答时是否启用语义答案缓存（默认关闭，测的是完整链路）
+        options.put("answer-cache", "false");
+        // testcontainers（需要 Docker）/ external（使用 db.url 等参数）
+        options.put("db", "testcontainers");
+        options.put("db.image", "pgvector/pgvector:pg16");
+        options.put("db.url", "jdbc:postgresql://localhost:5432/rag_db");
+        options.put("db.user", "postgres");
+        options.put("db.password", "postgres");
+        options.put("report", "target/loadtest-report.json");
+        // 大模型替身参数：qwen.* / ollama.*（first-token-ms、tokens-per-second、answer-tokens、failure-rate、failure-status）
+        options.put("ollama.first-token-ms", "800");
+        options.put("ollama.tokens-per-second", "20");
+        // app.<属性>=值 直接传给应用，如 app.rag.retriever.backend=hnsw
+        return options;
+    }
+
+    private void run() throws Exception {
+        try (FakeOpenAiServer qwen = new FakeOpenAiServer("qwen", FakeOpenAiServer.Options.from(options, "qwen"));
+             FakeOpenAiServer ollama = new FakeOpenAiServer("ollama", FakeOpenAiServer.Options.from(options, "ollama"));
+             PostgreSQLContainer<?> postgres = startDatabase()) {
+
+            ConfigurableApplicationContext context = startApplication(qwen, ollama);
+            try {
+                baseUrl = "http://127.0.0.1:" + ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+                seed();
+                // 种子阶段的指标不计入结果
+                MeterRegistry registry = context.getBean(MeterRegistry.class);
+                registry.clear();
+
+                Map<String, StageStats> stages = new LinkedHashMap<>();
+                for (String stage : List.of("chat", "chat.first-token", "upload.submit", "upload.ingest")) {
+                    stages.put(stage, new StageStats(stage));
+                }
+                double elapsedSeconds = drive(stages);
+
+                Map<String, Object> report = new LinkedHashMap<>();
+                report.put("options", options);
+                report.put("elapsedSeconds", elapsedSeconds);
+                Map<String, Object> client = new LinkedHashMap<>();
+                stages.values().forEach(stage -> client.put(stage.name(), stage.summary(elapsedSeconds)));
+                report.put("client", client);
+                report.put("server", serverStages(registry));
+                report.put("fakeModels", Map.of("qwen", qwen.stats(), "ollama", ollama.stats()));
+                writeReport(report);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private PostgreSQLContainer<?> startDatabase() {
+        if (!"testcontainers".equals(options.get("db"))) {
+            return null;
+        }
+        PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(
+                DockerImageName.parse(options.get("db.image")).asCompatibleSubstituteFor("postgres"))
+                .withDatabaseName("rag_db")
+                .withUsername("postgres")
+                .withPassword("postgres");
+        postgres.start();
+        options.put("db.url", postgres.getJdbcUrl());
+        options.put("db.user", postgres.getUsername());
+        options.put("db.password", postgres.getPassword());
+        log.info("pgvector 容器已启动 - {}", postgres.getJdbcUrl());
+        return postgres;
+    }
+
+    private ConfigurableApplicationContext startApplication(FakeOpenAiServer qwen, FakeOpenAiServer ollama) {
+        // 以命令行参数传入，优先级高于 application.properties
+        List<String> args = new ArrayList<>();
+        args.add("--server.port=0");
+        args.add("--spring.datasource.url=" + options.get("db.url"));
+        args.add("--spring.datasource.username=" + options.get("db.user"));
+        args.add("--spring.datasource.password=" + options.get("db.password"));
+        args.add("--langchain4j.community.dashscope.chat-model.qwen.base-url=" + qwen.baseUrl());
+        args.add("--langchain4j.community.dashscope.chat-model.api-key=loadtest");
+        args.add("--DASHSCOPE_API_KEY=loadtest");
+        args.add("--spring.ai.ollama.base-url=" + ollama.baseUrl());
+        args.add("--rag.answer-cache.enabled=" + options.get("answer-cache"));
+        // 服务端计时指标额外计算 p50 / p99，供报告直接读取
+        args.add("--management.metrics.distribution.percentiles.rag=0.5,0.99");
+        args.add("--management.metrics.distribution.percentiles.llm=0.5,0.99");
+        options.forEach((key, value) -> {
+            if (key.startsWith("app.")) {
+                args.add("--" + key.substring(4) + "=" + value);
+            }
+        });
+        return new SpringApplicationBuilder(AiAgentApplication.class).run(args.toArray(new String[0]));
+    }
+
+    // 上传种子文档并等待全部入库完成
+    private void seed() throws Exception {
+        int documents = Integer.parseInt(options.get("seed-documents"));
+        log.info("上传 {} 个种子文档", documents);
+        List<String> jobIds = new ArrayList<>();
+        for (int i = 0; i < documents; i++) {
+            jobIds.add(submitUpload());
+        }
+        for (String jobId : jobIds) {
+            String state = awaitJob(jobId);
+            if (!"SUCCEEDED".equals(state)) {
+                throw new IllegalStateException("种子文档入库失败 - jobId: " + jobId + ", state: " + state);
+            }
+        }
+    }
+
+    private double drive(Map<String, StageStats> stages) throws InterruptedException {
+        int durationSeconds = Integer.parseInt(options.get("duration-seconds"));
+        int chatConcurrency = Integer.parseInt(options.get("chat-concurrency"));
+        int uploadConcurrency = Integer.parseInt(options.get("upload-concurrency"));
+        boolean stream = "stream".equals(options.get("chat-mode"));
+        log.info("开始压测 - 时长: {} s, 问答并发: {}（{}）, 上传并发: {}",
+                durationSeconds, chatConcurrency, options.get("chat-mode"), uploadConcurrency);
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < chatConcurrency; i++) {
+            workers.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    chatOnce(stream, stages.get("chat"), stages.get("chat.first-token"));
+                }
+            });
+        }
+        for (int i = 0; i < uploadConcurrency; i++) {
+            workers.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    uploadOnce(stages.get("upload.submit"), stages.get("upload.ingest"));
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(durationSeconds + 300L, TimeUnit.SECONDS);
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private void chatOnce(boolean stream, StageStats chat, StageStats firstToken) {
+        String body = "{\"question\":" + quote(randomQuestion()) + "}";
+        long start = System.nanoTime();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + (stream ? "/api/rag/chat/stream" : "/api/rag/chat")))
+                    .timeout(Duration.ofMinutes(3))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            if (!stream) {
+                HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+                JsonNode result = MAPPER.readTree(response.body());
+                if (response.statusCode() == 200 && result.path("success").asBoolean(false)) {
+                    chat.success(elapsedMillis(start));
+                } else {
+                    chat.failure();
+                }
+                return;
+            }
+            HttpResponse<Stream<String>> response = http.send(request, HttpResponse.BodyHandlers.ofLines());
+            boolean[] firstSeen = {false};
+            String outcome = response.body()
+                    .filter(line -> line.startsWith("event:"))
+                    .map(line -> line.substring("event:".length()).trim())
+                    .peek(event -> {
+                        if ("token".equals(event) && !firstSeen[0]) {
+                            firstSeen[0] = true;
+                            firstToken.success(elapsedMillis(start));
+                        }
+                    })
+                    .filter(event -> "done".equals(event) || "error".equals(event))
+                    .findFirst()
+                    .orElse("error");
+            if (response.statusCode() == 200 && "done".equals(outcome)) {
+                chat.success(elapsedMillis(start));
+            } else {
+                chat.failure();
+            }
+        } catch (IOException e) {
+            chat.failure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void uploadOnce(StageStats submit, StageStats ingest) {
+        long start = System.nanoTime();
+        try {
+            String jobId = submitUpload();
+            submit.success(elapsedMillis(start));
+            if ("SUCCEEDED".equals(awaitJob(jobId))) {
+                ingest.success(elapsedMillis(start));
+            } else {
+                ingest.failure();
+            }
+        } catch (IOException | IllegalStateException e) {
+            submit.failure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 上传一个新生成的文本文件，返回入库任务ID
+    private String submitUpload() throws IOException, InterruptedException {
+        int index = uploadIndex.incrementAndGet();
+        String content = generateDocument(Integer.parseInt(options.get("document-chars")), index);
+        String boundary = "----loadtest" + UUID.randomUUID().toString().replace("-", "");
+        String multipart = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"collection\"\r\n\r\nloadtest\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"loadtest-" + index + ".txt\"\r\n"
+                + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                + content + "\r\n"
+                + "--" + boundary + "--\r\n";
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/file/upload"))
+                .timeout(Duration.ofMinutes(1))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofString(multipart, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        JsonNode result = MAPPER.readTree(response.body());
+        if (response.statusCode() != 202 || !result.hasNonNull("jobId")) {
+            throw new IllegalStateException("上传失败：" + result.path("message").asText());
+        }
+        return result.get("jobId").asText();
+    }
+
+    // 轮询入库任务直到结束，返回最终状态
+    private String awaitJob(String jobId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/file/jobs/" + jobId)).GET().build();
+        while (true) {
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return "MISSING";
+            }
+            String state = MAPPER.readTree(response.body()).path("state").asText();
+            if ("SUCCEEDED".equals(state) || "FAILED".equals(state)) {
+                return state;
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    // 服务端各阶段：按指标名 + 标签汇总调用次数、平均值和 p50 / p99
+    private static Map<String, Object> serverStages(MeterRegistry registry) {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        registry.getMeters().stream()
+                .filter(meter -> meter instanceof Timer)
+                .filter(meter -> meter.getId().getName().startsWith("rag.") || meter.getId().getName().startsWith("llm."))
+                .sorted((a, b) -> stageName(a).compareTo(stageName(b)))
+                .forEach(meter -> {
+                    HistogramSnapshot snapshot = ((Timer) meter).takeSnapshot();
+                    Map<String, Object> stage = new LinkedHashMap<>();
+                    stage.put("count", snapshot.count());
+                    stage.put("meanMillis", snapshot.mean(TimeUnit.MILLISECONDS));
+                    for (ValueAtPercentile value : snapshot.percentileValues()) {
+                        stage.put("p" + Math.round(value.percentile() * 100) + "Millis", value.value(TimeUnit.MILLISECONDS));
+                    }
+                    stage.put("maxMillis", snapshot.max(TimeUnit.MILLISECONDS));
+                    stages.put(stageName(meter), stage);
+                });
+        return stages;
+    }
+
+    private static String stageName(Meter meter) {
+        List<Tag> tags = meter.getId().getTags();
+        return meter.getId().getName() + (tags.isEmpty() ? "" : tags.stream()
+                .filter(tag -> !"application".equals(tag.getKey()))
+                .map(tag -> tag.getKey() + "=" + tag.getValue())
+                .collect(Collectors.joining(",", "{", "}")));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeReport(Map<String, Object> report) throws IOException {
+        System.out.println();
+        System.out.printf("%-60s %10s %8s %10s %10s %10s%n", "stage", "requests", "errors", "rps", "p50(ms)", "p99(ms)");
+        ((Map<String, Map<String, Object>>) report.get("client")).forEach((name, stage) ->
+                System.out.printf("%-60s %10d %7.2f%% %10.2f %10d %10d%n", "client " + name,
+                        (long) stage.get("requests"), (double) stage.get("errorRate") * 100,
+                        (double) stage.get("throughputPerSecond"), (long) stage.get("p50Millis"), (long) stage.get("p99Millis")));
+        ((Map<String, Map<String, Object>>) report.get("server")).forEach((name, stage) ->
+                System.out.printf("%-60s %10d %8s %10s %10.1f %10.1f%n", "server " + name,
+                        (long) stage.get("count"), "", "",
+                        (double) stage.getOrDefault("p50Millis", -1.0), (double) stage.getOrDefault("p99Millis", -1.0)));
+
+        Path path = Path.of(options.get("report"));
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        MAPPER.writeValue(path.toFile(), report);
+        System.out.println("\n压测报告已写入 " + path.toAbsolutePath());
+    }
+
+    private static String randomQuestion() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format(QUESTION_TEMPLATES[random.nextInt(QUESTION_TEMPLATES.length)], TOPICS[random.nextInt(TOPICS.length)])
+                + " #" + random.nextInt(1000);
+    }
+
+    // 每个文件内容不同（种子不同），保证不会因为内容哈希相同被跳过
+    private static String generateDocument(int chars, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(chars + 128);
+        text.append("文档 ").append(seed).append("\n\n");
+        while (text.length() < chars) {
+            String topic = TOPICS[random.nextInt(TOPICS.length)];
+            text.append(topic).append(" 是后端开发中的常见主题，")
+                    .append(String.format(QUESTION_TEMPLATES[random.nextInt(QUESTION_TEMPLATES.length)], topic))
+                    .append(" 这一段落编号为 ").append(random.nextInt(100000)).append("。");
+            if (random.nextInt(5) == 0) {
+                text.append("\n\n");
+            }
+        }
+        return text.toString();
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static String quote(String value) {
+        try {
+            return MAPPER.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.liupc.aiagent.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客户端视角的单个阶段统计：记录每次请求的耗时（毫秒）和失败数，结束后计算吞吐量与分位数
+ */
+class StageStats {
+
+    private final String name;
+
+    private long[] samples = new long[1024];
+    private int count;
+
+    private final AtomicLong errors = new AtomicLong();
+
+    StageStats(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    synchronized void success(long millis) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = millis;
+    }
+
+    void failure() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * @param elapsedSeconds 压测阶段时长，用于计算吞吐量
+     */
+    synchronized Map<String, Object> summary(double elapsedSeconds) {
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long failed = errors.get();
+        long total = count + failed;
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", total);
+        summary.put("errors", failed);
+        summary.put("errorRate", total == 0 ? 0.0 : (double) failed / total);
+        summary.put("throughputPerSecond", elapsedSeconds > 0 ? count / elapsedSeconds : 0.0);
+        summary.put("p50Millis", percentile(sorted, 0.50));
+        summary.put("p99Millis", percentile(sorted, 0.99));
+        summary.put("maxMillis", sorted.length == 0 ? -1 : sorted[sorted.length - 1]);
+        return summary;
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
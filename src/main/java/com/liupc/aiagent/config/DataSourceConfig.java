@@ -0,0 +1,103 @@
+package com.liupc.aiagent.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据库连接池配置：写入和查询使用各自独立、分别设定大小的连接池，大文件入库占满写入池时不影响对话检索
+ * 写入池（默认数据源，spring.datasource.*）：文档入库、建表建索引、来源记录等
+ * 查询池（readDataSource，rag.datasource.read.*）：交互检索；可配置一个或多个只读副本，按健康状况轮询
+ */
+@Configuration
+@Slf4j
+public class DataSourceConfig {
+
+    @Value("${rag.datasource.read.maximum-pool-size:16}")
+    private int readMaximumPoolSize;
+
+    @Value("${rag.datasource.read.minimum-idle:4}")
+    private int readMinimumIdle;
+
+    @Value("${rag.datasource.read.connection-timeout:5000}")
+    private long readConnectionTimeout;
+
+    // 只读副本的 JDBC URL，逗号分隔；为空时查询池连接主库
+    @Value("${rag.datasource.read.replicas:}")
+    private String replicaUrls;
+
+    @Value("${rag.datasource.read.username:${spring.datasource.username:}}")
+    private String replicaUsername;
+
+    @Value("${rag.datasource.read.password:${spring.datasource.password:}}")
+    private String replicaPassword;
+
+    @Value("${rag.datasource.read.fallback-to-primary:true}")
+    private boolean fallbackToPrimary;
+
+    @Value("${rag.datasource.read.max-lag-seconds:30}")
+    private long maxLagSeconds;
+
+    @Value("${rag.datasource.read.health-check-ms:5000}")
+    private long healthCheckMillis;
+
+    /**
+     * 写入池：即 Spring Boot 默认数据源，连接参数和池配置来自 spring.datasource.*
+     */
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * 查询池：主库只读池 + 各只读副本的连接池，驱动参数（预编译阈值等）与写入池一致
+     */
+    @Bean
+    public ReplicaRoutingDataSource readDataSource(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+        HikariDataSource primary = readPool("rag-read", dataSource.getJdbcUrl(), dataSource.getUsername(),
+                dataSource.getPassword(), dataSource, meterRegistry);
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls.split(",")) {
+            if (!url.isBlank()) {
+                HikariDataSource replica = readPool("rag-read-replica-" + (replicas.size() + 1), url.trim(),
+                        replicaUsername, replicaPassword, dataSource, meterRegistry);
+                // 副本不可用时不阻止启动，由健康检查摘除
+                replica.setInitializationFailTimeout(-1);
+                replicas.add(replica);
+            }
+        }
+        log.info("查询连接池 - 最大连接数: {}, 只读副本: {}, 写入连接池最大连接数: {}",
+                readMaximumPoolSize, replicas.size(), dataSource.getMaximumPoolSize());
+        return new ReplicaRoutingDataSource(primary, replicas, fallbackToPrimary, maxLagSeconds, healthCheckMillis);
+    }
+
+    // 连接池在首次取连接时启动（与 Spring Boot 默认数据源一致）
+    private HikariDataSource readPool(String name, String url, String username, String password,
+                                      HikariDataSource template, MeterRegistry meterRegistry) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setPoolName(name);
+        pool.setJdbcUrl(url);
+        pool.setUsername(username);
+        pool.setPassword(password);
+        pool.setDriverClassName(template.getDriverClassName());
+        pool.setDataSourceProperties(template.getDataSourceProperties());
+        pool.setMaximumPoolSize(readMaximumPoolSize);
+        pool.setMinimumIdle(readMinimumIdle);
+        pool.setConnectionTimeout(readConnectionTimeout);
+        pool.setReadOnly(true);
+        // 不是容器中的 Bean，需自行注册连接池指标（含取连接等待时间）
+        pool.setMetricRegistry(meterRegistry);
+        return pool;
+    }
+}
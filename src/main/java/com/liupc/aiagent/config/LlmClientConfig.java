@@ -0,0 +1,84 @@
+package com.liupc.aiagent.config;
+
+import com.openai.client.OpenAIClient;
+import com.openai.client.OpenAIClientImpl;
+import com.openai.core.ClientOptions;
+import com.openai.core.Timeout;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 大模型客户端配置：每个模型提供方一个单例客户端，应用关闭时释放连接池
+ * 请求复用连接池中的长连接，避免每次请求重新建立 TCP/TLS 连接
+ */
+@Configuration
+@Slf4j
+public class LlmClientConfig {
+
+    @Value("${llm.http.connect-timeout-seconds:5}")
+    private long connectTimeoutSeconds;
+
+    @Value("${llm.http.keep-alive-seconds:300}")
+    private long keepAliveSeconds;
+
+    @Value("${llm.http.max-idle-connections:10}")
+    private int maxIdleConnections;
+
+    // 并发请求数已满时等待许可的时间，超时后请求失败
+    @Value("${llm.http.acquire-timeout-seconds:30}")
+    private long acquireTimeoutSeconds;
+
+    @Value("${llm.http.http2-enabled:false}")
+    private boolean http2Enabled;
+
+    /**
+     * 千问客户端（DashScope OpenAI 兼容接口）
+     */
+    @Bean(destroyMethod = "close")
+    public OpenAIClient qwenOpenAIClient(
+            @Value("${langchain4j.community.dashscope.chat-model.api-key}") String apiKey,
+            @Value("${langchain4j.community.dashscope.chat-model.qwen.base-url:https://dashscope.aliyuncs.com/compatible-mode/v1}") String baseUrl,
+            @Value("${llm.qwen.read-timeout-seconds:60}") long readTimeoutSeconds,
+            @Value("${llm.qwen.max-concurrent-requests:32}") int maxConcurrentRequests,
+            @Value("${llm.qwen.max-retries:2}") int maxRetries) {
+        log.info("创建Qwen客户端 - baseUrl: {}, 最大并发: {}", baseUrl, maxConcurrentRequests);
+        return buildClient(baseUrl, apiKey, readTimeoutSeconds, maxConcurrentRequests, maxRetries);
+    }
+
+    /**
+     * Ollama 客户端（Ollama无需真实API Key，填充占位符即可）
+     */
+    @Bean(destroyMethod = "close")
+    public OpenAIClient ollamaOpenAIClient(
+            @Value("${spring.ai.ollama.base-url}") String baseUrl,
+            @Value("${llm.ollama.read-timeout-seconds:120}") long readTimeoutSeconds,
+            @Value("${llm.ollama.max-concurrent-requests:4}") int maxConcurrentRequests,
+            @Value("${llm.ollama.max-retries:1}") int maxRetries) {
+        log.info("创建Ollama客户端 - baseUrl: {}, 最大并发: {}", baseUrl, maxConcurrentRequests);
+        return buildClient(baseUrl, "ollama", readTimeoutSeconds, maxConcurrentRequests, maxRetries);
+    }
+
+    private OpenAIClient buildClient(String baseUrl, String apiKey, long readTimeoutSeconds,
+                                     int maxConcurrentRequests, int maxRetries) {
+        Timeout timeout = Timeout.builder()
+                .connect(Duration.ofSeconds(connectTimeoutSeconds))
+                .read(Duration.ofSeconds(readTimeoutSeconds))
+                .write(Duration.ofSeconds(readTimeoutSeconds))
+                .build();
+        PooledHttpClient httpClient = PooledHttpClient.create(timeout, maxIdleConnections,
+                Duration.ofSeconds(keepAliveSeconds), maxConcurrentRequests, Duration.ofSeconds(acquireTimeoutSeconds),
+                http2Enabled);
+        ClientOptions options = ClientOptions.builder()
+                .httpClient(httpClient)
+                .baseUrl(baseUrl)
+                .apiKey(apiKey)
+                .timeout(timeout)
+                .maxRetries(maxRetries)
+                .build();
+        return new OpenAIClientImpl(options);
+    }
+}
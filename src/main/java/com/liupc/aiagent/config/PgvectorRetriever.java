@@ -1,9 +1,18 @@
 package com.liupc.aiagent.config;
 
+import com.liupc.aiagent.service.EmbeddingService;
+import com.liupc.aiagent.util.RagMetrics;
+import com.liupc.aiagent.vector.CrossEncoderReranker;
+import com.liupc.aiagent.vector.IngestSource;
+import com.liupc.aiagent.vector.PgvectorDocumentWriter;
+import com.liupc.aiagent.vector.PgvectorSchemaManager;
+import com.liupc.aiagent.vector.QueryEmbeddingCache;
+import com.liupc.aiagent.vector.RetrievalMode;
+import com.liupc.aiagent.vector.SearchFilter;
+import com.liupc.aiagent.vector.SemanticAnswerCache;
+import com.liupc.aiagent.vector.VectorSearchBackend;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.model.embedding.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.embedding.EmbeddingModel;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,12 +20,10 @@ import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * 向量数据库检索器（Spring Bean 版本）
@@ -29,18 +36,59 @@ public class PgvectorRetriever {
     // 注入 Spring 管理的数据源（从配置文件读取连接信息）
     private final DataSource dataSource;
 
-    // 嵌入模型（作为实例变量，由当前 Bean 初始化）
-    private final EmbeddingModel embeddingModel;
+    // 共享的嵌入服务（ONNX 会话池）
+    private final EmbeddingService embeddingService;
+
+    // 问题向量缓存（重复问题跳过模型推理）
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
+    // 检索后端（rag.retriever.backend：pgvector / hnsw）
+    private final VectorSearchBackend searchBackend;
+
+    // 写入文档后使语义答案缓存失效
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private RagMetrics metrics;
+
+    // 交叉编码器重排（rag.rerank.enabled 开启时检索更多候选后重排）
+    @Autowired
+    private CrossEncoderReranker reranker;
+
+    // 分区表时入库前确保集合分区存在
+    @Autowired
+    private PgvectorSchemaManager schemaManager;
+
+    // 默认检索模式：vector（纯向量）/ hybrid（全文 + 向量，RRF 融合）
+    @Value("${rag.retrieve.mode:vector}")
+    private String retrievalMode;
 
     // 可配置的距离阈值（从配置文件读取，默认0.5，需根据实际数据调整）
     @Value("${rag.similarity.threshold:0.5}")
     private double distanceThreshold;
 
-    // 构造函数注入数据源（推荐方式，强制依赖）
+    // 片段数达到该阈值时使用 COPY 二进制流写入，否则使用批量 INSERT
+    @Value("${rag.ingest.copy-threshold:200}")
+    private int copyThreshold;
+
+    // 写入时每累计多少行刷出一次
+    @Value("${rag.ingest.flush-rows:500}")
+    private int flushRows;
+
+    // 构造函数注入数据源、嵌入服务、向量缓存和检索后端（推荐方式，强制依赖）
     @Autowired
-    public PgvectorRetriever(DataSource dataSource) {
+    public PgvectorRetriever(DataSource dataSource, EmbeddingService embeddingService,
+                             QueryEmbeddingCache queryEmbeddingCache,
+                             List<VectorSearchBackend> searchBackends,
+                             @Value("${rag.retriever.backend:pgvector}") String backendName) {
         this.dataSource = dataSource;
-        this.embeddingModel = new AllMiniLmL6V2EmbeddingModel(); // 初始化嵌入模型
+        this.embeddingService = embeddingService;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.searchBackend = searchBackends.stream()
+                .filter(backend -> backend.name().equalsIgnoreCase(backendName.trim()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("不支持的检索后端：" + backendName));
         log.info("PgvectorRetriever 初始化完成，使用数据源: {}", dataSource);
     }
 
@@ -52,45 +100,57 @@ public class PgvectorRetriever {
      * @throws SQLException 数据库操作异常（向上抛出，由调用方处理）
      */
     public List<String> retrieveSimilar(String question, int topN) throws SQLException {
-        log.info("开始检索相似文档 - 问题: {}, 数量: {}", question, topN);
-
-        // 1. 生成问题的向量嵌入
-        Embedding queryEmbedding = embeddingModel.embed(question).content();
-        List<Float> queryVector = queryEmbedding.vectorAsList();
-        String queryVectorStr = "[" + queryVector.stream()
-                .map(String::valueOf)
-                .collect(Collectors.joining(", ")) + "]";
-        log.debug("问题向量: {}", queryVectorStr);
-
-        // 2. 执行 pgvector 相似性查询（欧氏距离 <->）
-        List<String> results = new ArrayList<>();
-
-        // SQL 增加 WHERE 条件过滤距离过大的结果
-        String sql = "SELECT text, embedding <=> ?::vector AS distance "  // 余弦相似度（替换为 <-> 可保留欧氏距离）
-                + "FROM rag_documents "
-                + "WHERE embedding <=> ?::vector < ? "  // 距离小于阈值
-                + "ORDER BY distance "
-                + "LIMIT ?";
-
-        // 使用 Spring 数据源获取连接（try-with-resources 自动关闭资源）
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-
-            pstmt.setString(1, queryVectorStr);  // 用于计算距离
-            pstmt.setString(2, queryVectorStr);  // 用于 WHERE 条件过滤
-            pstmt.setDouble(3, distanceThreshold);  // 阈值
-            pstmt.setInt(4, topN);  // 最大返回数量
-            ResultSet rs = pstmt.executeQuery();
-
-            while (rs.next()) {
-                String docText = rs.getString("text");
-                results.add(docText);
-                log.debug("检索到文档: {}", docText.substring(0, Math.min(50, docText.length())) + "..."); // 日志截断长文本
-            }
+        return retrieveSimilar(question, topN, null, null);
+    }
+
+    /**
+     * 检索与问题最相似的 topN 文档片段，可按查询调整 ANN 参数
+     * @param efSearch HNSW 的 ef_search，为空时使用配置默认值
+     * @param probes IVFFlat 的 probes，为空时使用配置默认值
+     */
+    public List<String> retrieveSimilar(String question, int topN, Integer efSearch, Integer probes) throws SQLException {
+        return retrieveSimilar(question, topN, RetrievalMode.from(retrievalMode), SearchFilter.NONE, efSearch, probes);
+    }
+
+    /**
+     * 在过滤条件范围内检索（使用默认检索模式）
+     * @param filter 集合、标签、文件名、入库时间等过滤条件
+     */
+    public List<String> retrieveSimilar(String question, int topN, SearchFilter filter) throws SQLException {
+        return retrieveSimilar(question, topN, RetrievalMode.from(retrievalMode), filter, null, null);
+    }
+
+    /**
+     * 按指定检索模式检索文档片段
+     * @param mode VECTOR 为纯向量检索；HYBRID 同时做全文检索（精确匹配标识符、类名、错误码）并按 RRF 融合
+     * @param filter 元数据过滤条件，在 ANN 查询内部生效
+     */
+    public List<String> retrieveSimilar(String question, int topN, RetrievalMode mode, SearchFilter filter,
+                                        Integer efSearch, Integer probes) throws SQLException {
+        log.info("开始检索相似文档 - 问题: {}, 数量: {}, 模式: {}, 过滤: {}, 后端: {}",
+                question, topN, mode, filter, searchBackend.name());
+
+        // 重排的时间预算从检索开始计算（含问题向量化）
+        long requestStart = System.nanoTime();
 
+        // 1. 生成问题的向量嵌入（优先取缓存）
+        float[] queryVector = queryEmbeddingCache.embed(question);
+        log.debug("问题向量维度: {}", queryVector.length);
+
+        // 2. 交给配置的检索后端（pgvector / 进程内 HNSW），启用重排时多取候选
+        int candidates = reranker.candidateCount(topN);
+        long start = System.nanoTime();
+        try {
+            List<String> results = mode == RetrievalMode.HYBRID
+                    ? searchBackend.hybridSearch(question, queryVector, candidates, distanceThreshold, filter, efSearch, probes)
+                    : searchBackend.search(queryVector, candidates, distanceThreshold, filter, efSearch, probes);
+            metrics.recordRetrieval(searchBackend.name(), mode.name().toLowerCase(), !filter.isEmpty(),
+                    System.nanoTime() - start, results.size());
+
+            // 3. 交叉编码器重排，保留前 topN
+            results = reranker.rerank(question, results, topN, requestStart);
             log.info("检索完成，获取到 {} 条相似文档", results.size());
             return results;
-
         } catch (SQLException e) {
             log.error("检索文档失败 - 问题: {}, 错误信息: {}", question, e.getMessage(), e); // 详细日志
             throw e; // 向上抛出，让上层 Service 处理
@@ -98,31 +158,122 @@ public class PgvectorRetriever {
     }
 
     /**
-     * 将文本片段和向量存入pgvector
+     * 批量检索（使用默认检索模式）：问题一次批量向量化，纯向量模式下所有问题在一次数据库往返中检索
+     * @param questions 问题列表
+     * @return 与 questions 顺序一致的检索结果
      */
-    public void storeSegmentsToPgvector(List<TextSegment> segments) throws SQLException {
-        String sql = "INSERT INTO rag_documents (text, embedding) VALUES (?, vector(?))";
-
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                for (TextSegment segment : segments) {
-                    // 生成向量
-                    Embedding embedding = embeddingModel.embed(segment.text()).content();
-                    List<Float> vector = embedding.vectorAsList();
-
-                    // 转换向量为pgvector格式
-                    String vectorStr = "[" + vector.stream()
-                            .map(String::valueOf)
-                            .collect(Collectors.joining(", ")) + "]";
-
-                    pstmt.setString(1, segment.text());
-                    pstmt.setString(2, vectorStr);
-                    pstmt.addBatch();
+    public List<List<String>> retrieveSimilarBatch(List<String> questions, int topN, SearchFilter filter)
+            throws SQLException {
+        return retrieveSimilarBatch(questions, queryEmbeddingCache.embedAll(questions), topN, filter);
+    }
+
+    /**
+     * 以已生成的问题向量批量检索
+     * 混合检索每个问题的全文候选不同，逐个问题执行（仍各自在一次往返中完成融合）
+     * @param queryVectors 与 questions 一一对应的问题向量
+     */
+    public List<List<String>> retrieveSimilarBatch(List<String> questions, List<float[]> queryVectors, int topN,
+                                                   SearchFilter filter) throws SQLException {
+        RetrievalMode mode = RetrievalMode.from(retrievalMode);
+        log.info("开始批量检索相似文档 - 问题数: {}, 数量: {}, 模式: {}, 过滤: {}, 后端: {}",
+                questions.size(), topN, mode, filter, searchBackend.name());
+
+        int candidates = reranker.candidateCount(topN);
+        long start = System.nanoTime();
+        try {
+            List<List<String>> results;
+            if (mode == RetrievalMode.HYBRID) {
+                results = new ArrayList<>(questions.size());
+                for (int i = 0; i < questions.size(); i++) {
+                    results.add(searchBackend.hybridSearch(questions.get(i), queryVectors.get(i), candidates,
+                            distanceThreshold, filter, null, null));
                 }
-                pstmt.executeBatch();
-            } catch (SQLException e) {
+            } else {
+                results = searchBackend.searchBatch(queryVectors, candidates, distanceThreshold, filter, null, null);
+            }
+            int hits = 0;
+            for (List<String> result : results) {
+                hits += result.size();
+            }
+            metrics.recordRetrieval(searchBackend.name(), mode.name().toLowerCase() + "_batch", !filter.isEmpty(),
+                    System.nanoTime() - start, hits);
+            // 批量检索共用一次往返，每个问题的重排预算从其重排开始时计算
+            if (reranker.isEnabled()) {
+                for (int i = 0; i < results.size(); i++) {
+                    results.set(i, reranker.rerank(questions.get(i), results.get(i), topN, System.nanoTime()));
+                }
+                hits = 0;
+                for (List<String> result : results) {
+                    hits += result.size();
+                }
+            }
+            log.info("批量检索完成，共获取到 {} 条相似文档", hits);
+            return results;
+        } catch (SQLException e) {
+            log.error("批量检索文档失败 - 问题数: {}, 错误信息: {}", questions.size(), e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * rag_documents 有新数据提交后调用：使语义答案缓存失效，并通知检索后端增量加载
+     */
+    public void documentsChanged() {
+        documentsChanged(List.of());
+    }
+
+    /**
+     * rag_documents 有数据提交后调用，提交中删除了旧文档时先通知检索后端移除
+     * @param deletedIds 本次提交删除的文档ID
+     */
+    public void documentsChanged(Collection<Long> deletedIds) {
+        semanticAnswerCache.invalidateAll();
+        if (!deletedIds.isEmpty()) {
+            searchBackend.documentsDeleted(deletedIds);
+        }
+        searchBackend.documentsChanged();
+    }
+
+    /**
+     * rag_documents 被整体删除或替换后调用（删除集合、迁移为分区表）：使语义答案缓存失效，并通知检索后端重新加载
+     */
+    public void documentsReloaded() {
+        semanticAnswerCache.invalidateAll();
+        searchBackend.documentsReloaded();
+    }
+
+    /**
+     * 打开一个文件级的写入器（单事务），根据预计行数选择 COPY 或 INSERT
+     * @param expectedRows 预计写入的片段数
+     */
+    public PgvectorDocumentWriter openWriter(int expectedRows) throws SQLException {
+        return openWriter(expectedRows, null);
+    }
+
+    /**
+     * 打开关联来源文件的写入器（登记文件哈希和元数据，写入片段哈希，提交时删除已不存在的片段）
+     */
+    public PgvectorDocumentWriter openWriter(int expectedRows, IngestSource source) throws SQLException {
+        // 集合首次入库时创建分区（非分区表直接返回）
+        schemaManager.ensurePartition(source == null ? IngestSource.DEFAULT_COLLECTION : source.getCollection());
+        Connection conn = dataSource.getConnection();
+        return PgvectorDocumentWriter.open(conn, expectedRows >= copyThreshold, flushRows, source);
+    }
+
+    /**
+     * 将文本片段和向量存入pgvector（整个文件一个事务）
+     */
+    public void storeSegmentsToPgvector(List<TextSegment> segments) throws SQLException {
+        // 整个文件的片段一次性提交，按批次并行生成向量
+        List<Embedding> embeddings = embeddingService.embedAll(segments);
+
+        try (PgvectorDocumentWriter writer = openWriter(segments.size())) {
+            writer.write(segments, embeddings);
+            writer.commit();
+        } catch (SQLException e) {
             log.error("插入向量数据库失败, 错误信息: {}", e.getMessage(), e); // 详细日志
             throw e; // 向上抛出，让上层 Service 处理
         }
+        documentsChanged();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+package com.liupc.aiagent.config;
+
+import com.openai.core.RequestOptions;
+import com.openai.core.Timeout;
+import com.openai.core.http.Headers;
+import com.openai.core.http.HttpClient;
+import com.openai.core.http.HttpMethod;
+import com.openai.core.http.HttpRequest;
+import com.openai.core.http.HttpRequestBody;
+import com.openai.core.http.HttpResponse;
+import com.openai.errors.OpenAIIoException;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于 OkHttp 的长连接 HTTP 传输层，供 OpenAI 兼容客户端使用
+ * SDK 自带的 OkHttp 封装不开放连接池和调度器配置，这里自行构建 OkHttpClient：
+ * 连接池保持空闲长连接供后续请求复用，并发请求数由信号量（同步调用）和调度器（异步调用）限制
+ */
+public class PooledHttpClient implements HttpClient {
+
+    private final OkHttpClient okHttpClient;
+
+    // 同步调用的并发许可，响应关闭时归还（流式响应读完才释放）
+    private final Semaphore permits;
+
+    // 等待并发许可的最长时间
+    private final Duration acquireTimeout;
+
+    private PooledHttpClient(OkHttpClient okHttpClient, int maxConcurrentRequests, Duration acquireTimeout) {
+        this.okHttpClient = okHttpClient;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * @param timeout 连接/读/写超时
+     * @param maxIdleConnections 连接池保留的空闲连接数
+     * @param keepAlive 空闲连接保活时长
+     * @param maxConcurrentRequests 同时进行中的请求上限
+     * @param acquireTimeout 并发请求数已满时等待许可的最长时间（流式响应占用许可直到读完，应与读超时相当而非连接超时）
+     * @param http2Enabled 是否在 TLS 连接上协商 HTTP/2（明文连接始终为 HTTP/1.1）
+     */
+    public static PooledHttpClient create(Timeout timeout, int maxIdleConnections, Duration keepAlive,
+                                          int maxConcurrentRequests, Duration acquireTimeout, boolean http2Enabled) {
+        Dispatcher dispatcher = new Dispatcher();
+        // 同步调用也经调度器执行（便于取消），并发上限仍由信号量保证
+        dispatcher.setMaxRequests(maxConcurrentRequests);
+        dispatcher.setMaxRequestsPerHost(maxConcurrentRequests);
+
+        OkHttpClient okHttpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(http2Enabled ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .connectTimeout(timeout.connect())
+                .readTimeout(timeout.read())
+                .writeTimeout(timeout.write())
+                .callTimeout(timeout.request())
+                .build();
+        return new PooledHttpClient(okHttpClient, maxConcurrentRequests, acquireTimeout);
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, RequestOptions requestOptions) {
+        acquirePermit();
+        // 请求交给调度器执行，调用线程只等待结果：调用线程被中断（如对冲请求中落败的一方被取消）时立即取消 HTTP 调用
+        Call call;
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            call = newCall(request, requestOptions);
+            call.enqueue(new Callback() {
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    if (!future.complete(response)) {
+                        response.close();
+                    }
+                }
+
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            releasePermit();
+            throw e;
+        }
+
+        try {
+            return toResponse(future.get(), this::releasePermit);
+        } catch (InterruptedException e) {
+            call.cancel();
+            // 取消前已到达的响应需要关闭，归还连接
+            if (!future.completeExceptionally(e)) {
+                future.thenAccept(Response::close);
+            }
+            releasePermit();
+            Thread.currentThread().interrupt();
+            throw new OpenAIIoException("请求已取消", new InterruptedIOException("interrupted"));
+        } catch (ExecutionException e) {
+            releasePermit();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new OpenAIIoException("请求失败: " + cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> executeAsync(HttpRequest request, RequestOptions requestOptions) {
+        // 异步调用由调度器的 maxRequests 排队限流
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        Call call = newCall(request, requestOptions);
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                future.complete(toResponse(response, () -> { }));
+            }
+
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                future.completeExceptionally(new OpenAIIoException("请求失败: " + e.getMessage(), e));
+            }
+        });
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() {
+        okHttpClient.dispatcher().cancelAll();
+        okHttpClient.dispatcher().executorService().shutdown();
+        okHttpClient.connectionPool().evictAll();
+    }
+
+    private void acquirePermit() {
+        try {
+            if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new OpenAIIoException("并发请求数已达上限，等待超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OpenAIIoException("等待请求许可被中断", e);
+        }
+    }
+
+    private void releasePermit() {
+        permits.release();
+    }
+
+    private Call newCall(HttpRequest request, RequestOptions requestOptions) {
+        OkHttpClient client = okHttpClient;
+        Timeout timeout = requestOptions.getTimeout();
+        if (timeout != null) {
+            // newBuilder 与原客户端共享连接池和调度器，仅覆盖本次请求的超时
+            client = okHttpClient.newBuilder()
+                    .connectTimeout(timeout.connect())
+                    .readTimeout(timeout.read())
+                    .writeTimeout(timeout.write())
+                    .callTimeout(timeout.request())
+                    .build();
+        }
+        return client.newCall(toRequest(request));
+    }
+
+    private Request toRequest(HttpRequest request) {
+        HttpUrl baseUrl = HttpUrl.get(request.baseUrl());
+        HttpUrl.Builder url = baseUrl.newBuilder();
+        for (String segment : request.pathSegments()) {
+            url.addPathSegment(segment);
+        }
+        for (String key : request.queryParams().keys()) {
+            for (String value : request.queryParams().values(key)) {
+                url.addQueryParameter(key, value);
+            }
+        }
+
+        Request.Builder builder = new Request.Builder().url(url.build());
+        for (String name : request.headers().names()) {
+            for (String value : request.headers().values(name)) {
+                builder.addHeader(name, value);
+            }
+        }
+
+        HttpRequestBody body = request.body();
+        RequestBody requestBody = body != null ? toRequestBody(body) : null;
+        if (requestBody == null && requiresBody(request.method())) {
+            requestBody = RequestBody.create(new byte[0]);
+        }
+        return builder.method(request.method().name(), requestBody).build();
+    }
+
+    private static boolean requiresBody(HttpMethod method) {
+        return method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH;
+    }
+
+    private static RequestBody toRequestBody(HttpRequestBody body) {
+        MediaType mediaType = body.contentType() != null ? MediaType.parse(body.contentType()) : null;
+        long length = body.contentLength();
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                return !body.repeatable();
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) {
+                body.writeTo(sink.outputStream());
+            }
+        };
+    }
+
+    private static HttpResponse toResponse(Response response, Runnable onClose) {
+        Headers.Builder headers = Headers.builder();
+        for (String name : response.headers().names()) {
+            headers.put(name, response.headers(name));
+        }
+        Headers responseHeaders = headers.build();
+        AtomicBoolean closed = new AtomicBoolean();
+        return new HttpResponse() {
+            @Override
+            public int statusCode() {
+                return response.code();
+            }
+
+            @Override
+            public Headers headers() {
+                return responseHeaders;
+            }
+
+            @Override
+            public InputStream body() {
+                return response.body().byteStream();
+            }
+
+            @Override
+            public void close() {
+                if (closed.compareAndSet(false, true)) {
+                    response.body().close();
+                    onClose.run();
+                }
+            }
+        };
+    }
+}
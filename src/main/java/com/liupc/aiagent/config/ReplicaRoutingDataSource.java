@@ -0,0 +1,199 @@
+package com.liupc.aiagent.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 查询（只读）数据源：在健康的只读副本之间轮询分配连接，没有配置副本或副本全部不可用时使用主库上的只读连接池
+ * 副本健康由后台定时检查（能否取得连接、是否处于恢复模式、复制延迟是否超过上限）和取连接失败共同决定：
+ * 取连接失败立即摘除该副本并尝试下一个，下一轮检查通过后恢复
+ * 每个副本和主库只读池都是独立的 Hikari 连接池，取连接等待时间经 Micrometer 发布（hikaricp.connections.acquire）
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private final HikariDataSource primary;
+
+    private final List<Replica> replicas;
+
+    // 副本全部不可用时是否回退到主库只读池（关闭时直接抛出取连接失败的异常）
+    private final boolean fallbackToPrimary;
+
+    // 复制延迟上限（秒），超过则摘除该副本
+    private final long maxLagSeconds;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param primary 主库上的只读连接池
+     * @param replicas 各副本的连接池（可为空）
+     * @param healthCheckMillis 副本健康检查间隔
+     */
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas, boolean fallbackToPrimary,
+                                    long maxLagSeconds, long healthCheckMillis) {
+        this.primary = primary;
+        this.fallbackToPrimary = fallbackToPrimary;
+        this.maxLagSeconds = maxLagSeconds;
+        this.replicas = new ArrayList<>(replicas.size());
+        for (HikariDataSource pool : replicas) {
+            this.replicas.add(new Replica(pool));
+        }
+        if (this.replicas.isEmpty()) {
+            this.healthChecker = null;
+            return;
+        }
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.healthChecker.scheduleWithFixedDelay(this::checkReplicas, healthCheckMillis, healthCheckMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        SQLException lastFailure = null;
+        int size = replicas.size();
+        int start = size == 0 ? 0 : Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                return replica.pool.getConnection();
+            } catch (SQLException e) {
+                replica.markDown("取连接失败: " + e.getMessage());
+                lastFailure = e;
+            }
+        }
+        if (size > 0 && !fallbackToPrimary) {
+            throw lastFailure != null ? lastFailure : new SQLException("没有可用的只读副本");
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("只读数据源使用连接池配置的账号");
+    }
+
+    /**
+     * 各连接池的状态（活跃、空闲、等待取连接的线程数）和副本健康情况
+     */
+    public List<Map<String, Object>> describe() {
+        List<Map<String, Object>> pools = new ArrayList<>(replicas.size() + 1);
+        pools.add(describePool(primary));
+        for (Replica replica : replicas) {
+            Map<String, Object> pool = describePool(replica.pool);
+            pool.put("healthy", replica.healthy);
+            pool.put("lagSeconds", replica.lagSeconds);
+            if (replica.lastError != null) {
+                pool.put("lastError", replica.lastError);
+            }
+            pools.add(pool);
+        }
+        return pools;
+    }
+
+    public static Map<String, Object> describePool(HikariDataSource pool) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("pool", pool.getPoolName());
+        result.put("url", pool.getJdbcUrl());
+        result.put("maximumPoolSize", pool.getMaximumPoolSize());
+        // 连接池首次取连接时才启动
+        HikariPoolMXBean bean = pool.getHikariPoolMXBean();
+        if (bean != null) {
+            result.put("active", bean.getActiveConnections());
+            result.put("idle", bean.getIdleConnections());
+            result.put("pending", bean.getThreadsAwaitingConnection());
+        }
+        return result;
+    }
+
+    // 复制延迟：已接收的 WAL 全部回放时为 0（避免主库空闲时最后回放时间变旧被误判为延迟）
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection conn = replica.pool.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT pg_is_in_recovery(), CASE "
+                         + "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+                         + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END")) {
+                rs.next();
+                boolean inRecovery = rs.getBoolean(1);
+                double lag = rs.getDouble(2);
+                replica.lagSeconds = lag;
+                if (!inRecovery) {
+                    replica.markDown("不是只读副本（未处于恢复模式）");
+                } else if (lag > maxLagSeconds) {
+                    replica.markDown("复制延迟 " + (long) lag + " 秒超过上限 " + maxLagSeconds + " 秒");
+                } else {
+                    replica.markUp();
+                }
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown("健康检查失败: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+        primary.close();
+    }
+
+    private static class Replica {
+
+        private final HikariDataSource pool;
+
+        private volatile boolean healthy = true;
+
+        private volatile double lagSeconds;
+
+        private volatile String lastError;
+
+        private Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+
+        private void markDown(String reason) {
+            lastError = reason;
+            if (healthy) {
+                healthy = false;
+                log.warn("只读副本已摘除 - 连接池: {}, 原因: {}", pool.getPoolName(), reason);
+            }
+        }
+
+        private void markUp() {
+            lastError = null;
+            if (!healthy) {
+                healthy = true;
+                log.info("只读副本已恢复 - 连接池: {}", pool.getPoolName());
+            }
+        }
+    }
+}
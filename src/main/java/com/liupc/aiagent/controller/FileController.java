@@ -1,40 +1,66 @@
 package com.liupc.aiagent.controller;
 
 import com.liupc.aiagent.entity.dto.FileUploadResponse;
-import com.liupc.aiagent.service.FileService;
+import com.liupc.aiagent.entity.dto.IngestJobStatus;
+import com.liupc.aiagent.service.IngestJobService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.File;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/file")
 public class FileController {
 
     @Autowired
-    private FileService fileService;
+    private IngestJobService ingestJobService;
+
+    // 入库任务队列已满时建议客户端重试的间隔
+    @Value("${rag.ingest.retry-after-seconds:10}")
+    private long retryAfterSeconds;
 
     /**
-     * 上传文件到向量库
+     * 上传文件到向量库（异步处理，立即返回任务ID）
+     * 可选指定所属集合和标签，检索时按集合、标签过滤
+     * 入库任务队列已满时返回 503 和 Retry-After，请求本身无误，稍后重试即可
      */
     @PostMapping("/upload")
-    public ResponseEntity<FileUploadResponse> uploadFile(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<FileUploadResponse> uploadFile(@RequestParam("file") MultipartFile file,
+                                                         @RequestParam(value = "collection", required = false) String collection,
+                                                         @RequestParam(value = "tags", required = false) List<String> tags) {
         try {
-            // 临时保存文件到本地（方便解析）
+            // 临时保存文件到本地（方便解析），由入库任务结束后删除
             File tempFile = File.createTempFile("rag-", file.getOriginalFilename());
             file.transferTo(tempFile);
 
-            // 调用服务层处理文件
-            int segmentCount = fileService.processAndStoreFile(tempFile.getAbsolutePath());
-
-            // 删除临时文件
-            tempFile.delete();
+            // 提交异步入库任务
+            IngestJobStatus job = ingestJobService.submit(tempFile, file.getOriginalFilename(), collection, tags);
 
-            return ResponseEntity.ok(new FileUploadResponse(true, "文件上传成功", segmentCount));
+            FileUploadResponse response = new FileUploadResponse(true, "文件已提交处理", 0);
+            response.setJobId(job.getJobId());
+            return ResponseEntity.accepted().body(response);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(new FileUploadResponse(false, e.getMessage(), 0));
         }  catch (Exception e) {
             return ResponseEntity.badRequest().body(new FileUploadResponse(false, "文件上传失败：" + e.getMessage(), 0));
 
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 查询入库任务状态与进度
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<IngestJobStatus> getJob(@PathVariable String jobId) {
+        IngestJobStatus job = ingestJobService.getJob(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+}
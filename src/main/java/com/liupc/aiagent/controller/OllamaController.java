@@ -1,11 +1,14 @@
 package com.liupc.aiagent.controller;
 
 import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.util.SseChatStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -26,6 +29,9 @@ public class OllamaController {
     @Qualifier("ollamaServiceImpl")
     private LargeModelService ollamaService;
 
+    @Autowired
+    private SseChatStream sseChatStream;
+
     /**
      * GET请求接口：根据useQwen参数选择模型
      */
@@ -49,6 +55,29 @@ public class OllamaController {
         return chat(message, useQwen);
     }
 
+    /**
+     * 流式GET接口（SSE）：根据useQwen参数选择模型
+     */
+    @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamGet(
+            @RequestParam String message,
+            @RequestParam(defaultValue = "false") boolean useQwen
+    ) {
+        logger.info("接收流式GET请求 - 消息: {}, 使用Qwen: {}", message, useQwen);
+        return sseChatStream.openModelStream(useQwen ? qwenService : ollamaService, message);
+    }
+
+    /**
+     * 流式POST接口（SSE）：根据useQwen参数选择模型
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamPost(@RequestBody Map<String, Object> request) {
+        String message = (String) request.getOrDefault("message", "请输入问题");
+        boolean useQwen = (Boolean) request.getOrDefault("useQwen", false);
+        logger.info("接收流式POST请求 - 消息: {}, 使用Qwen: {}", message, useQwen);
+        return sseChatStream.openModelStream(useQwen ? qwenService : ollamaService, message);
+    }
+
     /**
      * 核心分发逻辑：根据useQwen选择对应的Service处理
      */
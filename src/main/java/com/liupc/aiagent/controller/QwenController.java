@@ -1,12 +1,15 @@
 package com.liupc.aiagent.controller;
 
 import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.util.SseChatStream;
 import lombok.extern.java.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.Map;
 
@@ -21,6 +24,10 @@ public class QwenController {
     @Qualifier("qwenServiceImpl")
     @Autowired
     LargeModelService largeModelService;
+
+    @Autowired
+    private SseChatStream sseChatStream;
+
     /**
      * 简单问答接口（GET请求，适合浏览器直接访问）
      * 访问示例：http://localhost:8080/api/qwen/chat?message=你好，介绍一下自己
@@ -41,5 +48,22 @@ public class QwenController {
         return largeModelService.handleMessage(message);
     }
 
+    /**
+     * 流式问答接口（SSE，逐个推送生成的 token）
+     * 访问示例：http://localhost:8080/api/qwen/chat/stream?message=你好
+     */
+    @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamGet(@RequestParam String message) {
+        logger.info("流式问答 - 用户输入的问题：" + message);
+        return sseChatStream.openModelStream(largeModelService, message);
+    }
 
+    /**
+     * 流式问答接口（POST，请求体同 /chat）
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamPost(@RequestBody Map<String, String> request) {
+        String message = request.getOrDefault("message", "请输入问题");
+        return sseChatStream.openModelStream(largeModelService, message);
+    }
 }
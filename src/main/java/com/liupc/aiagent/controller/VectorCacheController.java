@@ -0,0 +1,44 @@
+package com.liupc.aiagent.controller;
+
+import com.liupc.aiagent.vector.QueryEmbeddingCache;
+import com.liupc.aiagent.vector.SemanticAnswerCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/vector/cache")
+public class VectorCacheController {
+
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    /**
+     * 查看问题向量缓存和语义答案缓存的命中统计
+     */
+    @GetMapping
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("queryEmbedding", queryEmbeddingCache.stats());
+        result.put("semanticAnswer", semanticAnswerCache.stats());
+        result.put("success", true);
+        return result;
+    }
+
+    /**
+     * 清空问题向量缓存和语义答案缓存（更换嵌入模型或大模型后使用）
+     */
+    @DeleteMapping
+    public Map<String, Object> clear() {
+        queryEmbeddingCache.invalidateAll();
+        semanticAnswerCache.invalidateAll();
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+package com.liupc.aiagent.controller;
+
+import com.liupc.aiagent.config.PgvectorRetriever;
+import com.liupc.aiagent.config.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.liupc.aiagent.vector.InMemoryHnswBackend;
+import com.liupc.aiagent.vector.PgvectorSchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/vector/index")
+public class VectorIndexController {
+
+    private static final Logger logger = LoggerFactory.getLogger(VectorIndexController.class);
+
+    @Autowired
+    private PgvectorSchemaManager schemaManager;
+
+    @Autowired
+    private InMemoryHnswBackend inMemoryHnswBackend;
+
+    @Autowired
+    private PgvectorRetriever pgvectorRetriever;
+
+    @Autowired
+    private HikariDataSource writeDataSource;
+
+    @Autowired
+    private ReplicaRoutingDataSource readDataSource;
+
+    /**
+     * 查看当前 ANN 索引定义与大小（含进程内 HNSW 索引状态）
+     */
+    @GetMapping
+    public Map<String, Object> describe() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("inMemoryHnsw", inMemoryHnswBackend.describe());
+            result.putAll(schemaManager.describeIndex());
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("查询索引信息失败", e);
+            result.put("success", false);
+            result.put("error", "查询索引信息失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 查看写入池和查询池（含只读副本）的连接使用情况与副本健康状况（等待时间分布见 hikaricp.connections.acquire 指标）
+     */
+    @GetMapping("/pools")
+    public Map<String, Object> describePools() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("write", ReplicaRoutingDataSource.describePool(writeDataSource));
+            result.put("read", readDataSource.describe());
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("查询连接池状态失败", e);
+            result.put("success", false);
+            result.put("error", "查询连接池状态失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 为集合创建部分 ANN 索引（按集合过滤的检索只扫描该集合的索引）
+     */
+    @PostMapping("/collections/{collection}")
+    public Map<String, Object> createCollectionIndex(@PathVariable String collection) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("index", schemaManager.createCollectionIndex(collection));
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("创建集合索引失败 - 集合: {}", collection, e);
+            result.put("success", false);
+            result.put("error", "创建集合索引失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 删除集合的部分 ANN 索引
+     */
+    @DeleteMapping("/collections/{collection}")
+    public Map<String, Object> dropCollectionIndex(@PathVariable String collection) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            schemaManager.dropCollectionIndex(collection);
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("删除集合索引失败 - 集合: {}", collection, e);
+            result.put("success", false);
+            result.put("error", "删除集合索引失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 删除集合的全部文档（分区表直接删除该集合的分区）
+     */
+    @DeleteMapping("/collections/{collection}/documents")
+    public Map<String, Object> dropCollection(@PathVariable String collection) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.put("removed", schemaManager.dropCollection(collection));
+            pgvectorRetriever.documentsReloaded();
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("删除集合文档失败 - 集合: {}", collection, e);
+            result.put("success", false);
+            result.put("error", "删除集合文档失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 将 rag_documents 迁移为按集合分区的表（迁移期间读写会等待，应在维护窗口调用）
+     */
+    @PostMapping("/partitions/migrate")
+    public Map<String, Object> migrateToPartitioned() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            schemaManager.migrateToPartitioned();
+            pgvectorRetriever.documentsReloaded();
+            result.putAll(schemaManager.describeIndex());
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("迁移分区表失败", e);
+            result.put("success", false);
+            result.put("error", "迁移分区表失败: " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * 按当前配置（类型、度量、构建参数）重建 ANN 索引
+     */
+    @PostMapping("/rebuild")
+    public Map<String, Object> rebuild() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            schemaManager.rebuildIndex();
+            result.putAll(schemaManager.describeIndex());
+            result.put("success", true);
+        } catch (Exception e) {
+            logger.error("重建索引失败", e);
+            result.put("success", false);
+            result.put("error", "重建索引失败: " + e.getMessage());
+        }
+        return result;
+    }
+}
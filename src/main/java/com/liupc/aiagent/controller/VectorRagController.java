@@ -1,12 +1,20 @@
 package com.liupc.aiagent.controller;
 
+import com.liupc.aiagent.entity.dto.BatchQueryRequest;
 import com.liupc.aiagent.entity.dto.QueryRequest;
 import com.liupc.aiagent.service.RagService;
+import com.liupc.aiagent.util.SseChatStream;
+import com.liupc.aiagent.vector.SearchFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -20,26 +28,78 @@ public class VectorRagController {
     @Autowired
     private RagService ragService;
 
+    @Autowired
+    private SseChatStream sseChatStream;
+
     /**
      * RAG问答接口（GET请求，适合快速测试）
      * 访问示例：http://localhost:8080/api/rag/chat?message=什么是向量数据库？
+     * 可选过滤：collection=产品A&amp;tags=v2&amp;fileName=手册.pdf&amp;ingestedAfter=2024-01-01T00:00:00Z
      */
     @GetMapping("/chat")
-    public Map<String, Object> chatGet(@RequestParam String message) {
+    public Map<String, Object> chatGet(@RequestParam String message,
+                                       @RequestParam(required = false) String collection,
+                                       @RequestParam(required = false) List<String> tags,
+                                       @RequestParam(required = false) String fileName,
+                                       @RequestParam(required = false)
+                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant ingestedAfter) {
         logger.info("接收RAG GET请求 - 用户问题: {}", message);
         // 直接委托Service处理，Controller不做业务逻辑
-        return ragService.ragChat(message);
+        return ragService.ragChat(message, SearchFilter.of(collection, tags, fileName, ingestedAfter));
     }
 
     /**
      * RAG问答接口（POST请求，适合前端正式调用）
-     * 请求体示例：{"message": "什么是向量数据库？"}
+     * 请求体示例：{"question": "什么是向量数据库？", "collection": "产品A", "tags": ["v2"]}
      */
     @PostMapping("/chat")
     public Map<String, Object> chatPost(@RequestBody QueryRequest request) {
         logger.info("接收RAG POST请求 - 用户问题: {}", request.getQuestion());
-        Map<String, Object>  queryResponse = ragService.ragChat(request.getQuestion());
+        Map<String, Object>  queryResponse = ragService.ragChat(request.getQuestion(), toFilter(request));
         logger.info("接收RAG POST请求 - 用户问题: {}", queryResponse);
         return queryResponse;
     }
-}
\ No newline at end of file
+
+    /**
+     * 流式RAG问答接口（SSE）：先推送 sources 事件，再逐个推送 token 事件
+     * 访问示例：http://localhost:8080/api/rag/chat/stream?message=什么是向量数据库？
+     */
+    @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamGet(@RequestParam String message,
+                                    @RequestParam(required = false) String collection,
+                                    @RequestParam(required = false) List<String> tags,
+                                    @RequestParam(required = false) String fileName,
+                                    @RequestParam(required = false)
+                                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant ingestedAfter) {
+        logger.info("接收RAG流式GET请求 - 用户问题: {}", message);
+        SearchFilter filter = SearchFilter.of(collection, tags, fileName, ingestedAfter);
+        return sseChatStream.open(listener -> ragService.ragChatStream(message, filter, listener));
+    }
+
+    /**
+     * 流式RAG问答接口（POST，请求体同 /chat）
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStreamPost(@RequestBody QueryRequest request) {
+        logger.info("接收RAG流式POST请求 - 用户问题: {}", request.getQuestion());
+        return sseChatStream.open(listener -> ragService.ragChatStream(request.getQuestion(), toFilter(request), listener));
+    }
+
+    /**
+     * 批量RAG问答接口（SSE）：每个问题完成后推送一个 result 事件（含 index），最后推送 done 汇总事件
+     * 请求体示例：{"questions": ["什么是向量数据库？", "HNSW 和 IVFFlat 的区别？"], "collection": "产品A"}
+     */
+    @PostMapping(value = "/chat/batch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatBatch(@RequestBody BatchQueryRequest request) {
+        List<String> questions = request.getQuestions();
+        logger.info("接收RAG批量请求 - 问题数: {}", questions != null ? questions.size() : 0);
+        SearchFilter filter = SearchFilter.of(request.getCollection(), request.getTags(), request.getFileName(),
+                request.getIngestedAfter());
+        return sseChatStream.openBatch(listener -> ragService.ragChatBatch(questions, filter, listener));
+    }
+
+    private SearchFilter toFilter(QueryRequest request) {
+        return SearchFilter.of(request.getCollection(), request.getTags(), request.getFileName(),
+                request.getIngestedAfter());
+    }
+}
@@ -0,0 +1,19 @@
+package com.liupc.aiagent.entity.dto;
+
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+public class BatchQueryRequest {
+
+    // 批量提问的问题列表（结果按下标对应）
+    private List<String> questions;
+
+    // 所有问题共用的检索过滤条件：集合、标签（需全部包含）、文件名、入库时间下限
+    private String collection;
+    private List<String> tags;
+    private String fileName;
+    private Instant ingestedAfter;
+}
@@ -8,6 +8,7 @@ public class FileUploadResponse {
     private boolean success;
     private String message;
     private int segmentCount; // 分割后的片段数
+    private String jobId; // 异步入库任务ID
 
     // 构造器、getter、setter
     public FileUploadResponse(boolean success, String message, int segmentCount) {
@@ -0,0 +1,27 @@
+package com.liupc.aiagent.entity.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 文件入库任务状态DTO（各流水线阶段并发更新计数）
+@Data
+public class IngestJobStatus {
+    private String jobId;
+    private String fileName;
+    private String collection;  // 所属集合
+    private List<String> tags;  // 标签
+    private volatile String state; // QUEUED / RUNNING / SUCCEEDED / FAILED
+    private volatile String message;
+    private final AtomicLong extractedChars = new AtomicLong();       // 已提取字符数
+    private final AtomicInteger splitSegments = new AtomicInteger();    // 已分割片段数
+    private final AtomicInteger embeddedSegments = new AtomicInteger(); // 已生成向量片段数
+    private final AtomicInteger writtenSegments = new AtomicInteger();  // 已写入片段数
+    private final AtomicInteger unchangedSegments = new AtomicInteger(); // 已入库且未变化、跳过的片段数
+    private volatile int deletedSegments;  // 新版本中已不存在、被删除的旧片段数
+    private volatile boolean unchanged;    // 文件内容与上次入库相同，整体跳过
+    private long createdAt;
+    private volatile long finishedAt;
+}
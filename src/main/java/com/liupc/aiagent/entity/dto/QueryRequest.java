@@ -2,9 +2,18 @@ package com.liupc.aiagent.entity.dto;
 
 import lombok.Data;
 
+import java.time.Instant;
+import java.util.List;
+
 @Data
 public class QueryRequest {
 
     // 用户提出的问题内容
     private String question;
+
+    // 可选的检索过滤条件：集合、标签（需全部包含）、文件名、入库时间下限
+    private String collection;
+    private List<String> tags;
+    private String fileName;
+    private Instant ingestedAfter;
 }
\ No newline at end of file
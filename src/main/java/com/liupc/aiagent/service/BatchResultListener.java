@@ -0,0 +1,16 @@
+package com.liupc.aiagent.service;
+
+import java.util.Map;
+
+/**
+ * 批量问答的结果回调：每个问题处理完成（成功或失败）时回调一次，回调顺序为完成顺序而非提交顺序
+ */
+@FunctionalInterface
+public interface BatchResultListener {
+
+    /**
+     * @param index 问题在请求中的下标（从 0 开始）
+     * @param result 与单条问答格式相同的结果Map（另含 index）
+     */
+    void onResult(int index, Map<String, Object> result);
+}
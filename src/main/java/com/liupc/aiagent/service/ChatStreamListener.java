@@ -0,0 +1,31 @@
+package com.liupc.aiagent.service;
+
+import java.util.List;
+
+/**
+ * 流式问答的事件回调（检索来源 → 逐个 token → 完成 / 失败）
+ */
+public interface ChatStreamListener {
+
+    /**
+     * 检索到的参考文档（RAG 在生成开始前回调，普通问答不回调）
+     */
+    default void onSources(List<String> sources) {
+    }
+
+    /**
+     * 模型生成的增量文本
+     */
+    void onToken(String token);
+
+    /**
+     * 生成完成
+     * @param answer 完整回答
+     */
+    void onComplete(String answer);
+
+    /**
+     * 处理失败
+     */
+    void onError(Throwable error);
+}
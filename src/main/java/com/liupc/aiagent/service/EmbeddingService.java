@@ -0,0 +1,23 @@
+package com.liupc.aiagent.service;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.List;
+
+public interface EmbeddingService {
+
+    /**
+     * 单条文本向量化（用户问题检索等低延迟场景）
+     * @param text 待向量化文本
+     * @return 384 维向量
+     */
+    Embedding embed(String text);
+
+    /**
+     * 批量向量化：按批次拆分后在 ONNX 会话池上并行执行
+     * @param segments 文本片段列表
+     * @return 向量列表，顺序与入参一致
+     */
+    List<Embedding> embedAll(List<TextSegment> segments);
+}
@@ -1,6 +1,13 @@
 package com.liupc.aiagent.service;
 
+import com.liupc.aiagent.entity.dto.IngestJobStatus;
+
 public interface FileService {
 
      int processAndStoreFile(String filePath) throws Exception;
+
+     /**
+      * 流水线处理文件（提取 → 分割 → 向量化 → 写入），并实时更新进度
+      */
+     int processAndStoreFile(String filePath, IngestJobStatus progress) throws Exception;
 }
@@ -0,0 +1,30 @@
+package com.liupc.aiagent.service;
+
+import com.liupc.aiagent.entity.dto.IngestJobStatus;
+
+import java.io.File;
+import java.util.List;
+
+public interface IngestJobService {
+
+    /**
+     * 提交异步入库任务，立即返回任务状态（含任务ID）
+     * @param file 已落盘的临时文件，任务结束后删除
+     * @param fileName 原始文件名
+     */
+    IngestJobStatus submit(File file, String fileName);
+
+    /**
+     * 提交异步入库任务，并指定文档所属集合和标签（检索时可按集合、标签过滤）
+     * @param collection 所属集合，为空时使用 default
+     * @param tags 标签，可为空
+     * @throws java.util.concurrent.RejectedExecutionException 入库任务队列已满
+     */
+    IngestJobStatus submit(File file, String fileName, String collection, List<String> tags);
+
+    /**
+     * 查询任务状态与进度
+     * @return 任务不存在（或已过期清理）时返回 null
+     */
+    IngestJobStatus getJob(String jobId);
+}
@@ -1,6 +1,7 @@
 package com.liupc.aiagent.service;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface LargeModelService {
 
@@ -10,4 +11,12 @@ public interface LargeModelService {
      * @return 包含响应结果的Map
      */
     Map<String, Object> handleMessage(String message);
+
+    /**
+     * 流式调用大模型，每生成一段文本即回调一次（阻塞直到生成结束）
+     * @param message 用户输入消息
+     * @param onToken 增量文本回调
+     * @return 完整回答
+     */
+    String streamMessage(String message, Consumer<String> onToken);
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package com.liupc.aiagent.service;
 
 import com.liupc.aiagent.entity.dto.QueryResponse;
+import com.liupc.aiagent.vector.SearchFilter;
 
+import java.util.List;
 import java.util.Map;
 
 public interface RagService {
@@ -11,5 +13,37 @@ public interface RagService {
      * @param userMessage 用户原始问题
      * @return 包含回答、模型标识、成功状态的结果Map
      */
-    Map<String, Object> ragChat(String userMessage);
+    default Map<String, Object> ragChat(String userMessage) {
+        return ragChat(userMessage, SearchFilter.NONE);
+    }
+
+    /**
+     * 在过滤条件范围内检索后回答（如只检索某个产品集合的文档）
+     * @param filter 集合、标签、文件名、入库时间等过滤条件
+     */
+    Map<String, Object> ragChat(String userMessage, SearchFilter filter);
+
+    /**
+     * 批量RAG：所有问题一次批量向量化、一次检索往返，模型调用按并发上限分发，
+     * 每个问题完成后立即回调（阻塞直到全部完成）
+     * @param questions 问题列表（数量受 rag.batch.max-questions 限制）
+     * @param filter 所有问题共用的过滤条件
+     * @param listener 逐个问题的结果回调（回调之间互斥）
+     * @return 汇总信息（总数、成功数、失败数、缓存命中数、耗时）
+     */
+    Map<String, Object> ragChatBatch(List<String> questions, SearchFilter filter, BatchResultListener listener);
+
+    /**
+     * 流式RAG：先回调检索到的参考文档，再逐个回调模型生成的文本（阻塞直到结束）
+     * @param userMessage 用户原始问题
+     * @param listener 流式事件回调
+     */
+    default void ragChatStream(String userMessage, ChatStreamListener listener) {
+        ragChatStream(userMessage, SearchFilter.NONE, listener);
+    }
+
+    /**
+     * 在过滤条件范围内检索的流式RAG
+     */
+    void ragChatStream(String userMessage, SearchFilter filter, ChatStreamListener listener);
 }
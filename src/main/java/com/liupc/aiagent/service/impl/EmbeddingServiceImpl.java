@@ -0,0 +1,167 @@
+package com.liupc.aiagent.service.impl;
+
+import com.liupc.aiagent.service.EmbeddingService;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * All-MiniLM-L6-v2 嵌入服务（全局唯一）
+ * ONNX 会话线程安全且在进程内只加载一次，这里用按 CPU 核数限定的推理槽位控制并发，
+ * 批量接口按批次拆分后在工作线程上并行执行 embedAll
+ * ONNX 推理是本地方法调用，在虚拟线程上执行会一直占住其载体线程；
+ * 来自虚拟线程的推理（单条或只有一批的批量请求）因此转交给工作线程（平台线程），调用方等待期间可让出载体线程
+ */
+@Service
+@Slf4j
+public class EmbeddingServiceImpl implements EmbeddingService {
+
+    private final EmbeddingModel embeddingModel;
+
+    private final int poolSize;
+
+    private final int batchSize;
+
+    // 推理槽位，限制同时在 ONNX 会话上执行的推理数
+    private final Semaphore inferenceSlots;
+
+    // 批量向量化的工作线程，线程数与推理槽位一致
+    private final ExecutorService batchExecutor;
+
+    @Autowired
+    public EmbeddingServiceImpl(@Value("${rag.embedding.pool-size:0}") int poolSize,
+                                @Value("${rag.embedding.batch-size:32}") int batchSize) {
+        this.poolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        this.batchSize = Math.max(1, batchSize);
+        this.inferenceSlots = new Semaphore(this.poolSize, true);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.batchExecutor = Executors.newFixedThreadPool(this.poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "embedding-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // 启动时加载模型，避免首个请求承担模型加载耗时
+        long start = System.currentTimeMillis();
+        this.embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        log.info("嵌入服务初始化完成 - 推理并发上限: {}, 批大小: {}, 加载耗时: {} ms",
+                this.poolSize, this.batchSize, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 非 Spring 环境（vector 包下的命令行示例）共用的实例
+     */
+    public static EmbeddingService standalone() {
+        return StandaloneHolder.INSTANCE;
+    }
+
+    @Override
+    public Embedding embed(String text) {
+        if (Thread.currentThread().isVirtual()) {
+            return await(batchExecutor.submit(() -> embedOnCurrentThread(text)));
+        }
+        return embedOnCurrentThread(text);
+    }
+
+    private Embedding embedOnCurrentThread(String text) {
+        acquireSlot();
+        try {
+            return embeddingModel.embed(text).content();
+        } finally {
+            inferenceSlots.release();
+        }
+    }
+
+    @Override
+    public List<Embedding> embedAll(List<TextSegment> segments) {
+        if (segments.size() <= batchSize) {
+            if (Thread.currentThread().isVirtual()) {
+                return await(batchExecutor.submit(() -> embedBatch(segments)));
+            }
+            return embedBatch(segments);
+        }
+
+        // 按批次拆分并提交到工作线程，按提交顺序收集结果以保证与入参顺序一致
+        List<Future<List<Embedding>>> futures = new ArrayList<>();
+        for (int from = 0; from < segments.size(); from += batchSize) {
+            List<TextSegment> batch = segments.subList(from, Math.min(from + batchSize, segments.size()));
+            futures.add(batchExecutor.submit(() -> embedBatch(batch)));
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(segments.size());
+        try {
+            for (Future<List<Embedding>> future : futures) {
+                embeddings.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("批量向量化被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("批量向量化失败: " + e.getCause().getMessage(), e.getCause());
+        }
+        return embeddings;
+    }
+
+    private List<Embedding> embedBatch(List<TextSegment> batch) {
+        acquireSlot();
+        try {
+            return embeddingModel.embedAll(batch).content();
+        } finally {
+            inferenceSlots.release();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("向量化被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("向量化失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void acquireSlot() {
+        try {
+            inferenceSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待嵌入推理槽位被中断", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchExecutor.shutdownNow();
+    }
+
+    private static class StandaloneHolder {
+        private static final EmbeddingService INSTANCE = new EmbeddingServiceImpl(1, 32);
+    }
+}
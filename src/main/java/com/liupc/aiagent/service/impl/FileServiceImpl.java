@@ -1,35 +1,312 @@
 package com.liupc.aiagent.service.impl;
 
 import com.liupc.aiagent.config.PgvectorRetriever;
+import com.liupc.aiagent.entity.dto.IngestJobStatus;
+import com.liupc.aiagent.service.EmbeddingService;
 import com.liupc.aiagent.service.FileService;
+import com.liupc.aiagent.util.ContentHasher;
 import com.liupc.aiagent.util.FileTextExtractor;
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import com.liupc.aiagent.util.RagMetrics;
+import com.liupc.aiagent.util.TextSplitter;
+import com.liupc.aiagent.vector.IngestSource;
+import com.liupc.aiagent.vector.PgvectorDocumentWriter;
+import com.liupc.aiagent.vector.RagSourceStore;
+import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Service
+@Slf4j
 public class FileServiceImpl implements FileService {
 
+    // 阶段间传递的结束标记（按引用比较）
+    private static final String END_OF_TEXT = new String("<END>");
+    private static final List<TextSegment> END_OF_SEGMENTS = Collections.emptyList();
+    private static final EmbeddedBatch END_OF_BATCHES = new EmbeddedBatch(null, null);
+
     @Autowired
     private PgvectorRetriever pgvectorRetriever;
 
+    @Autowired
+    private EmbeddingService embeddingService;
+
+    @Autowired
+    private RagSourceStore ragSourceStore;
+
+    @Autowired
+    private RagMetrics metrics;
+
+    // 阶段间有界队列容量（背压：下游处理不过来时上游阻塞）
+    @Value("${rag.ingest.queue-capacity:4}")
+    private int queueCapacity;
+
+    // 每个向量化批次的片段数
+    @Value("${rag.ingest.batch-size:128}")
+    private int ingestBatchSize;
+
+    // 片段数达到该阈值时写入阶段使用 COPY
+    @Value("${rag.ingest.copy-threshold:200}")
+    private int copyThreshold;
+
+    // 流水线阶段线程（虚拟线程：各阶段大部分时间阻塞在队列、数据库和文件读取上，
+    // CPU 密集的向量化由嵌入服务的工作线程执行）
+    private final ExecutorService stageExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ingest-stage-", 1).factory());
+
     /**
      * 处理文件并存储到pgvector
      */
     public int processAndStoreFile(String filePath) throws Exception {
-        // 1. 解析文件提取文本
-        String text = FileTextExtractor.extractText(filePath);
+        return processAndStoreFile(filePath, new IngestJobStatus());
+    }
+
+    /**
+     * 流水线处理文件：提取 → 分割 → 向量化 → 写入 四个阶段并发执行，
+     * 阶段之间用有界队列连接，任一阶段失败时取消其余阶段并回滚写入
+     * 按来源（集合内的文件名）增量入库：文件哈希与元数据都与上次相同则整体跳过；否则只向量化和写入新片段，
+     * 已入库的片段保留（元数据同步更新），新版本中不存在的片段在同一事务中删除
+     */
+    @Override
+    public int processAndStoreFile(String filePath, IngestJobStatus progress) throws Exception {
+        long start = System.nanoTime();
+        try {
+            int written = runPipeline(filePath, progress);
+            metrics.recordIngestFile(progress.isUnchanged() ? "unchanged" : "success", System.nanoTime() - start);
+            metrics.countIngestSegments("written", written);
+            metrics.countIngestSegments("unchanged", progress.getUnchangedSegments().get());
+            metrics.countIngestSegments("deleted", progress.getDeletedSegments());
+            return written;
+        } catch (Exception e) {
+            metrics.recordIngestFile("failure", System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private int runPipeline(String filePath, IngestJobStatus progress) throws Exception {
+        Path path = Paths.get(filePath);
+        String sourceName = progress.getFileName() != null ? progress.getFileName() : path.getFileName().toString();
+        IngestSource ingestSource = new IngestSource(sourceName, ContentHasher.sha256(path),
+                progress.getCollection(), progress.getTags());
+        RagSourceStore.RagSource source = ragSourceStore.find(ingestSource.getCollection(), sourceName);
+        if (source != null && source.sameAs(ingestSource)) {
+            log.info("文件内容未变化，跳过入库 - 来源: {}", sourceName);
+            progress.setUnchanged(true);
+            return 0;
+        }
+        // 事务外的快照，只用于少做向量化；写入器持有来源行锁后会重新核对，跳过并发入库已写入的片段
+        Set<String> existingHashes = source != null ? source.getChunkHashes() : Collections.emptySet();
+        // 新版本的全部片段哈希（分割阶段写入，写入阶段在收到结束标记后读取）
+        Set<String> fileHashes = ConcurrentHashMap.newKeySet();
+
+        BlockingQueue<String> textQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<TextSegment>> segmentQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<EmbeddedBatch> embeddedQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(stageExecutor);
+        List<Future<Void>> stages = new ArrayList<>();
+        stages.add(completion.submit(() -> extractStage(filePath, textQueue, progress)));
+        stages.add(completion.submit(() -> splitStage(textQueue, segmentQueue, existingHashes, fileHashes, progress)));
+        stages.add(completion.submit(() -> embedStage(segmentQueue, embeddedQueue, progress)));
+        stages.add(completion.submit(() -> writeStage(embeddedQueue, ingestSource, fileHashes, progress)));
+
+        try {
+            // 按完成顺序等待，任一阶段失败立即感知
+            for (int i = 0; i < stages.size(); i++) {
+                completion.take().get();
+            }
+        } catch (ExecutionException e) {
+            stages.forEach(stage -> stage.cancel(true));
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            stages.forEach(stage -> stage.cancel(true));
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        return progress.getWrittenSegments().get();
+    }
+
+    // 阶段1：流式解析文件，按页/段落块提取文本
+    private Void extractStage(String filePath, BlockingQueue<String> textQueue, IngestJobStatus progress) throws Exception {
+        StageClock clock = new StageClock();
+        FileTextExtractor.extractText(filePath, piece -> {
+            progress.getExtractedChars().addAndGet(piece.length());
+            clock.put(textQueue, piece);
+        });
+        clock.put(textQueue, END_OF_TEXT);
+        metrics.countIngestChars(progress.getExtractedChars().get());
+        clock.finish("extract");
+        return null;
+    }
+
+    // 阶段2：增量分割文本为片段（技术文档推荐参数：500字符/段，重叠100字符），按批次下发
+    // 已入库的片段和文件内重复的片段不再下发（不重复向量化）
+    private Void splitStage(BlockingQueue<String> textQueue, BlockingQueue<List<TextSegment>> segmentQueue,
+                            Set<String> existingHashes, Set<String> fileHashes,
+                            IngestJobStatus progress) throws InterruptedException {
+        StageClock clock = new StageClock();
+        TextSplitter.StreamingSplitter splitter = new TextSplitter.StreamingSplitter(500, 100);
+        List<TextSegment> batch = new ArrayList<>(ingestBatchSize);
+        String piece;
+        while ((piece = clock.take(textQueue)) != END_OF_TEXT) {
+            batch = dispatchSegments(splitter.append(piece), batch, segmentQueue, existingHashes, fileHashes,
+                    progress, clock);
+        }
+        batch = dispatchSegments(splitter.finish(), batch, segmentQueue, existingHashes, fileHashes, progress, clock);
+        if (!batch.isEmpty()) {
+            clock.put(segmentQueue, batch);
+        }
+        clock.put(segmentQueue, END_OF_SEGMENTS);
+        clock.finish("split");
+        return null;
+    }
+
+    // 将片段累积到批次中，批次满时下发，返回当前未满的批次
+    private List<TextSegment> dispatchSegments(List<TextSegment> segments, List<TextSegment> batch,
+                                               BlockingQueue<List<TextSegment>> segmentQueue,
+                                               Set<String> existingHashes, Set<String> fileHashes,
+                                               IngestJobStatus progress, StageClock clock) throws InterruptedException {
+        for (TextSegment segment : segments) {
+            progress.getSplitSegments().incrementAndGet();
+            String chunkHash = ContentHasher.sha256(segment.text());
+            if (!fileHashes.add(chunkHash)) {
+                continue;
+            }
+            if (existingHashes.contains(chunkHash)) {
+                progress.getUnchangedSegments().incrementAndGet();
+                continue;
+            }
+            batch.add(segment);
+            if (batch.size() >= ingestBatchSize) {
+                clock.put(segmentQueue, batch);
+                batch = new ArrayList<>(ingestBatchSize);
+            }
+        }
+        return batch;
+    }
+
+    // 阶段3：批量生成向量
+    private Void embedStage(BlockingQueue<List<TextSegment>> segmentQueue, BlockingQueue<EmbeddedBatch> embeddedQueue,
+                            IngestJobStatus progress) throws InterruptedException {
+        StageClock clock = new StageClock();
+        List<TextSegment> batch;
+        while ((batch = clock.take(segmentQueue)) != END_OF_SEGMENTS) {
+            List<Embedding> embeddings = embeddingService.embedAll(batch);
+            progress.getEmbeddedSegments().addAndGet(batch.size());
+            metrics.countIngestSegments("embedded", batch.size());
+            clock.put(embeddedQueue, new EmbeddedBatch(batch, embeddings));
+        }
+        clock.put(embeddedQueue, END_OF_BATCHES);
+        clock.finish("embed");
+        return null;
+    }
+
+    // 阶段4：写入 pgvector（整个文件一个事务，含来源登记和旧片段删除）
+    private Void writeStage(BlockingQueue<EmbeddedBatch> embeddedQueue, IngestSource ingestSource,
+                            Set<String> fileHashes, IngestJobStatus progress) throws Exception {
+        StageClock clock = new StageClock();
+        // 先缓存到 COPY 阈值再决定写入方式，小文件仍走批量 INSERT
+        List<EmbeddedBatch> pending = new ArrayList<>();
+        int pendingRows = 0;
+        EmbeddedBatch batch;
+        while (pendingRows < copyThreshold && (batch = clock.take(embeddedQueue)) != END_OF_BATCHES) {
+            pending.add(batch);
+            pendingRows += batch.segments.size();
+        }
+
+        List<Long> deletedIds;
+        try (PgvectorDocumentWriter writer = pgvectorRetriever.openWriter(pendingRows, ingestSource)) {
+            for (EmbeddedBatch buffered : pending) {
+                writeBatch(writer, buffered, progress);
+            }
+            if (pendingRows >= copyThreshold) {
+                while ((batch = clock.take(embeddedQueue)) != END_OF_BATCHES) {
+                    writeBatch(writer, batch, progress);
+                }
+            }
+            // 分割阶段先于向量化阶段结束，此时新版本的片段哈希已完整
+            writer.retainOnly(fileHashes);
+            writer.commit();
+            progress.setDeletedSegments(writer.getDeletedRows());
+            deletedIds = writer.getDeletedIds();
+        } catch (Exception e) {
+            progress.getWrittenSegments().set(0); // 事务已回滚
+            throw e;
+        }
+        clock.finish("write");
+        // 通知缓存失效、检索后端移除旧片段并增量加载
+        pgvectorRetriever.documentsChanged(deletedIds);
+        return null;
+    }
+
+    // 写入器跳过的片段已由同一文件的并发入库写入，计为未变化
+    private static void writeBatch(PgvectorDocumentWriter writer, EmbeddedBatch batch,
+                                   IngestJobStatus progress) throws SQLException {
+        int written = writer.write(batch.segments, batch.embeddings);
+        progress.getWrittenSegments().addAndGet(written);
+        progress.getUnchangedSegments().addAndGet(batch.segments.size() - written);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stageExecutor.shutdownNow();
+    }
+
+    // 阶段计时：累计阻塞在阶段间队列上的时间，其余时间视为实际处理时间
+    private class StageClock {
+        private final long start = System.nanoTime();
+        private long waitNanos;
+
+        private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+            long begin = System.nanoTime();
+            try {
+                return queue.take();
+            } finally {
+                waitNanos += System.nanoTime() - begin;
+            }
+        }
+
+        private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            long begin = System.nanoTime();
+            try {
+                queue.put(item);
+            } finally {
+                waitNanos += System.nanoTime() - begin;
+            }
+        }
+
+        private void finish(String stage) {
+            metrics.recordIngestStage(stage, System.nanoTime() - start - waitNanos, waitNanos);
+        }
+    }
 
-        // 2. 分割文本为片段（技术文档推荐参数：500字符/段，重叠100字符）
-        Document document = Document.from(text);
-        List<TextSegment> segments = DocumentSplitters.recursive(500, 100).split(document);
+    // 已生成向量的片段批次
+    private static class EmbeddedBatch {
+        private final List<TextSegment> segments;
+        private final List<Embedding> embeddings;
 
-        // 3. 生成向量并存储到pgvector
-        pgvectorRetriever.storeSegmentsToPgvector(segments);
-        return segments.size();
+        private EmbeddedBatch(List<TextSegment> segments, List<Embedding> embeddings) {
+            this.segments = segments;
+            this.embeddings = embeddings;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,356 @@
+package com.liupc.aiagent.service.impl;
+
+import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.util.CircuitBreaker;
+import com.liupc.aiagent.util.LatencyTracker;
+import com.liupc.aiagent.util.RagMetrics;
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 多模型调用：Qwen 为主、本地 Ollama 为备
+ * 主模型超过对冲延迟（近期耗时的分位数，如 p95）仍未返回时，向备用模型发出同样的请求，先成功的结果生效，另一方被取消；
+ * 主模型失败时立即切换到备用模型。每个模型有独立的熔断器，失败率过高的模型暂时不再分配请求
+ * 流式调用无法合并两路输出，只按熔断状态选择模型，并在尚未输出任何内容时切换
+ */
+@Component
+@Slf4j
+public class HedgedModelInvoker {
+
+    // 按优先级排列的模型
+    private final List<ModelProvider> providers;
+
+    private final RagMetrics metrics;
+
+    // 对冲请求在虚拟线程上执行，阻塞等待大模型响应不占用平台线程
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("llm-hedge-", 1).factory());
+
+    @Value("${llm.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    // 以主模型近期耗时的该分位数作为对冲延迟
+    @Value("${llm.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    // 样本不足时使用的对冲延迟
+    @Value("${llm.hedge.initial-delay-ms:5000}")
+    private long initialDelayMillis;
+
+    @Value("${llm.hedge.min-delay-ms:500}")
+    private long minDelayMillis;
+
+    @Value("${llm.hedge.max-delay-ms:30000}")
+    private long maxDelayMillis;
+
+    // 计算分位数所需的最少样本数
+    @Value("${llm.hedge.min-samples:20}")
+    private int minSamples;
+
+    @Autowired
+    public HedgedModelInvoker(@Qualifier("qwenServiceImpl") LargeModelService qwenService,
+                              @Qualifier("ollamaServiceImpl") LargeModelService ollamaService,
+                              @Value("${llm.circuit.window-size:20}") int windowSize,
+                              @Value("${llm.circuit.minimum-calls:5}") int minimumCalls,
+                              @Value("${llm.circuit.failure-rate-threshold:0.5}") double failureRateThreshold,
+                              @Value("${llm.circuit.open-seconds:30}") long openSeconds,
+                              @Value("${llm.hedge.latency-samples:200}") int latencySamples,
+                              RagMetrics metrics) {
+        this.metrics = metrics;
+        Duration openDuration = Duration.ofSeconds(openSeconds);
+        this.providers = List.of(
+                new ModelProvider("qwen", qwenService,
+                        new CircuitBreaker("qwen", windowSize, minimumCalls, failureRateThreshold, openDuration),
+                        new LatencyTracker(latencySamples)),
+                new ModelProvider("ollama", ollamaService,
+                        new CircuitBreaker("ollama", windowSize, minimumCalls, failureRateThreshold, openDuration),
+                        new LatencyTracker(latencySamples)));
+        // 熔断状态：0 CLOSED / 1 OPEN / 2 HALF_OPEN
+        for (ModelProvider provider : providers) {
+            Gauge.builder("llm.circuit.state", provider.breaker, breaker -> breaker.getState().ordinal())
+                    .description("模型熔断状态（0 关闭 / 1 打开 / 2 半开）")
+                    .tag("provider", provider.name)
+                    .register(metrics.registry());
+        }
+    }
+
+    /**
+     * 调用模型（对冲 + 失败切换），返回格式与 LargeModelService.handleMessage 相同，
+     * 另含 provider（实际给出结果的模型）和 hedged（是否发出了对冲请求）
+     */
+    public Map<String, Object> call(String prompt) {
+        // 本次调用已结束的标记：之后才返回的请求视为被取消，不计入熔断统计
+        AtomicBoolean finished = new AtomicBoolean();
+        ExecutorCompletionService<Attempt> completion = new ExecutorCompletionService<>(executor);
+        List<Launch> launches = new ArrayList<>();
+        Iterator<ModelProvider> candidates = providers.iterator();
+
+        ModelProvider first = nextAvailable(candidates);
+        if (first == null) {
+            return unavailable();
+        }
+        launch(completion, launches, first, prompt, finished);
+        int inFlight = 1;
+        // 不再等待对冲时机（已对冲、没有备用模型或已切换），之后阻塞等待结果
+        boolean hedgeDone = false;
+        // 是否实际发出了对冲请求（失败切换不算对冲）
+        boolean hedgeSent = false;
+        long hedgeDelay = hedgeDelayMillis(first);
+        Attempt lastFailure = null;
+
+        try {
+            while (inFlight > 0) {
+                Future<Attempt> done = hedgeEnabled && !hedgeDone
+                        ? completion.poll(hedgeDelay, TimeUnit.MILLISECONDS)
+                        : completion.take();
+                if (done == null) {
+                    // 超过对冲延迟仍未返回，向下一个可用模型发出同样的请求
+                    hedgeDone = true;
+                    ModelProvider backup = nextAvailable(candidates);
+                    if (backup != null) {
+                        log.info("模型 {} 超过 {} ms 未返回，对冲请求到 {}", first.name, hedgeDelay, backup.name);
+                        metrics.countHedge(backup.name);
+                        launch(completion, launches, backup, prompt, finished);
+                        hedgeSent = true;
+                        inFlight++;
+                    }
+                    continue;
+                }
+                inFlight--;
+                Attempt attempt = done.get();
+                if (attempt.success) {
+                    Map<String, Object> result = new HashMap<>(attempt.result);
+                    result.put("provider", attempt.provider);
+                    result.put("hedged", hedgeSent);
+                    return result;
+                }
+                lastFailure = attempt;
+                // 失败立即切换到下一个可用模型（已发出对冲请求时等待其结果）
+                hedgeDone = true;
+                ModelProvider backup = inFlight == 0 ? nextAvailable(candidates) : null;
+                if (backup != null) {
+                    log.warn("模型 {} 调用失败，切换到 {}", attempt.provider, backup.name);
+                    launch(completion, launches, backup, prompt, finished);
+                    inFlight++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failure("模型调用被中断");
+        } catch (ExecutionException e) {
+            return failure("模型调用异常: " + e.getCause().getMessage());
+        } finally {
+            finished.set(true);
+            // 取消仍在进行的请求（中断其虚拟线程，底层 HTTP 调用随之取消）；尚未开始执行的请求直接归还熔断器许可
+            for (Launch launch : launches) {
+                launch.future.cancel(true);
+                if (launch.started.compareAndSet(false, true)) {
+                    launch.provider.breaker.onIgnored();
+                }
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>(lastFailure.result);
+        result.put("provider", lastFailure.provider);
+        result.put("hedged", hedgeSent);
+        return result;
+    }
+
+    /**
+     * 流式调用：按优先级选择未熔断的模型，尚未输出任何内容时失败则切换到下一个
+     * @return 完整回答
+     */
+    public String stream(String prompt, Consumer<String> onToken) {
+        Iterator<ModelProvider> candidates = providers.iterator();
+        RuntimeException lastError = null;
+        ModelProvider provider;
+        while ((provider = nextAvailable(candidates)) != null) {
+            AtomicBoolean emitted = new AtomicBoolean();
+            AtomicBoolean downstreamFailed = new AtomicBoolean();
+            long start = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            String providerName = provider.name;
+            try {
+                String answer = provider.service.streamMessage(prompt, token -> {
+                    if (emitted.compareAndSet(false, true)) {
+                        metrics.recordFirstToken(providerName, System.nanoTime() - startNanos);
+                    }
+                    try {
+                        onToken.accept(token);
+                    } catch (RuntimeException e) {
+                        downstreamFailed.set(true);
+                        throw e;
+                    }
+                });
+                provider.breaker.onSuccess();
+                provider.latency.record(System.currentTimeMillis() - start);
+                metrics.recordModelCall(providerName, "stream", "success", System.nanoTime() - startNanos);
+                return answer;
+            } catch (RuntimeException e) {
+                if (downstreamFailed.get()) {
+                    // 客户端断开等下游错误，与模型无关
+                    provider.breaker.onIgnored();
+                    metrics.recordModelCall(providerName, "stream", "cancelled", System.nanoTime() - startNanos);
+                    throw e;
+                }
+                provider.breaker.onFailure();
+                metrics.recordModelCall(providerName, "stream", "failure", System.nanoTime() - startNanos);
+                if (emitted.get()) {
+                    throw e;
+                }
+                log.warn("模型 {} 流式调用失败，尝试下一个模型: {}", provider.name, e.getMessage());
+                lastError = e;
+            }
+        }
+        if (lastError != null) {
+            throw lastError;
+        }
+        throw new IllegalStateException("所有模型均处于熔断状态，请稍后重试");
+    }
+
+    /**
+     * 各模型的熔断状态和近期耗时
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (ModelProvider provider : providers) {
+            Map<String, Object> state = provider.breaker.snapshot();
+            state.put("latencySamples", provider.latency.count());
+            state.put("latencyP95Millis", provider.latency.percentile(0.95));
+            result.put(provider.name, state);
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void launch(ExecutorCompletionService<Attempt> completion, List<Launch> launches,
+                        ModelProvider provider, String prompt, AtomicBoolean finished) {
+        AtomicBoolean started = new AtomicBoolean();
+        Future<Attempt> future = completion.submit(() -> started.compareAndSet(false, true)
+                ? attempt(provider, prompt, finished)
+                : new Attempt(provider.name, false, failure("请求已取消")));
+        launches.add(new Launch(provider, future, started));
+    }
+
+    private Attempt attempt(ModelProvider provider, String prompt, AtomicBoolean finished) {
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        Map<String, Object> result;
+        try {
+            result = provider.service.handleMessage(prompt);
+        } catch (RuntimeException e) {
+            result = new HashMap<>();
+            result.put("success", false);
+            result.put("error", provider.name + " 调用异常: " + e.getMessage());
+        }
+        boolean success = Boolean.TRUE.equals(result.get("success"));
+        String outcome;
+        if (finished.get()) {
+            provider.breaker.onIgnored();
+            outcome = "cancelled";
+        } else if (success) {
+            provider.breaker.onSuccess();
+            provider.latency.record(System.currentTimeMillis() - start);
+            outcome = "success";
+        } else {
+            provider.breaker.onFailure();
+            outcome = "failure";
+        }
+        metrics.recordModelCall(provider.name, "call", outcome, System.nanoTime() - startNanos);
+        return new Attempt(provider.name, success, result);
+    }
+
+    private ModelProvider nextAvailable(Iterator<ModelProvider> candidates) {
+        while (candidates.hasNext()) {
+            ModelProvider provider = candidates.next();
+            if (provider.breaker.tryAcquirePermission()) {
+                return provider;
+            }
+            log.debug("模型 {} 处于熔断状态，跳过", provider.name);
+        }
+        return null;
+    }
+
+    private long hedgeDelayMillis(ModelProvider provider) {
+        if (provider.latency.count() < minSamples) {
+            return initialDelayMillis;
+        }
+        long percentile = provider.latency.percentile(hedgePercentile);
+        return Math.max(minDelayMillis, Math.min(maxDelayMillis, percentile));
+    }
+
+    private static Map<String, Object> unavailable() {
+        return failure("所有模型均处于熔断状态，请稍后重试");
+    }
+
+    private static Map<String, Object> failure(String error) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", false);
+        result.put("error", error);
+        return result;
+    }
+
+    private static class ModelProvider {
+        private final String name;
+        private final LargeModelService service;
+        private final CircuitBreaker breaker;
+        private final LatencyTracker latency;
+
+        private ModelProvider(String name, LargeModelService service, CircuitBreaker breaker, LatencyTracker latency) {
+            this.name = name;
+            this.service = service;
+            this.breaker = breaker;
+            this.latency = latency;
+        }
+    }
+
+    private static class Launch {
+        private final ModelProvider provider;
+        private final Future<Attempt> future;
+        // 任务开始执行或已被取消的标记，保证熔断器许可只结算一次
+        private final AtomicBoolean started;
+
+        private Launch(ModelProvider provider, Future<Attempt> future, AtomicBoolean started) {
+            this.provider = provider;
+            this.future = future;
+            this.started = started;
+        }
+    }
+
+    private static class Attempt {
+        private final String provider;
+        private final boolean success;
+        private final Map<String, Object> result;
+
+        private Attempt(String provider, boolean success, Map<String, Object> result) {
+            this.provider = provider;
+            this.success = success;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.liupc.aiagent.service.impl;
+
+import com.liupc.aiagent.entity.dto.IngestJobStatus;
+import com.liupc.aiagent.service.FileService;
+import com.liupc.aiagent.service.IngestJobService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步文件入库任务：上传接口立即返回任务ID，任务在后台线程池中按流水线执行
+ */
+@Service
+@Slf4j
+public class IngestJobServiceImpl implements IngestJobService {
+
+    @Autowired
+    private FileService fileService;
+
+    // 已完成任务的保留时长（分钟），超时后从内存中清理
+    @Value("${rag.ingest.job-retention-minutes:60}")
+    private long jobRetentionMinutes;
+
+    private final Map<String, IngestJobStatus> jobs = new ConcurrentHashMap<>();
+
+    // 同时执行的任务数和排队上限都有界，超出时拒绝提交
+    private final ThreadPoolExecutor jobExecutor;
+
+    @Autowired
+    public IngestJobServiceImpl(@Value("${rag.ingest.max-concurrent-jobs:2}") int maxConcurrentJobs,
+                                @Value("${rag.ingest.job-queue-capacity:16}") int jobQueueCapacity) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.jobExecutor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(jobQueueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "ingest-job-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public IngestJobStatus submit(File file, String fileName) {
+        return submit(file, fileName, null, null);
+    }
+
+    @Override
+    public IngestJobStatus submit(File file, String fileName, String collection, List<String> tags) {
+        purgeExpiredJobs();
+
+        IngestJobStatus job = new IngestJobStatus();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setFileName(fileName);
+        job.setCollection(collection);
+        job.setTags(tags);
+        job.setState("QUEUED");
+        job.setCreatedAt(System.currentTimeMillis());
+        jobs.put(job.getJobId(), job);
+
+        try {
+            jobExecutor.execute(() -> runJob(job, file));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            file.delete();
+            throw new RejectedExecutionException("入库任务队列已满，请稍后重试", e);
+        }
+        log.info("入库任务已提交 - jobId: {}, 文件: {}", job.getJobId(), fileName);
+        return job;
+    }
+
+    @Override
+    public IngestJobStatus getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private void runJob(IngestJobStatus job, File file) {
+        job.setState("RUNNING");
+        long start = System.currentTimeMillis();
+        try {
+            int segmentCount = fileService.processAndStoreFile(file.getAbsolutePath(), job);
+            if (job.isUnchanged()) {
+                job.setMessage("文件内容未变化，已跳过");
+            } else {
+                job.setMessage("成功入库 " + segmentCount + " 个片段，未变化 " + job.getUnchangedSegments().get()
+                        + " 个，删除 " + job.getDeletedSegments() + " 个");
+            }
+            job.setState("SUCCEEDED");
+            log.info("入库任务完成 - jobId: {}, 片段数: {}, 耗时: {} ms",
+                    job.getJobId(), segmentCount, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("入库任务失败 - jobId: {}", job.getJobId(), e);
+            job.setMessage("文件处理失败：" + e.getMessage());
+            job.setState("FAILED");
+        } finally {
+            job.setFinishedAt(System.currentTimeMillis());
+            // 删除临时文件
+            file.delete();
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        long expireBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(jobRetentionMinutes);
+        jobs.values().removeIf(job -> job.getFinishedAt() > 0 && job.getFinishedAt() < expireBefore);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+}
@@ -1,36 +1,45 @@
 package com.liupc.aiagent.service.impl;
 
 import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.util.RagMetrics;
 import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.core.http.StreamResponse;
 import com.openai.errors.OpenAIException;
 import com.openai.models.chat.completions.ChatCompletion;
+import com.openai.models.chat.completions.ChatCompletionChunk;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import com.openai.models.chat.completions.ChatCompletionStreamOptions;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 public class OllamaServiceImpl implements LargeModelService {
 
-    @Value("${spring.ai.ollama.base-url}")
-    private String ollamaBaseUrl;
-
     @Value("${spring.ai.ollama.chat-model.model-name}")
     private String ollamaModelName;
 
-    /**
-     * 创建Ollama客户端（Ollama无需真实API Key，填充占位符即可）
-     */
-    private OpenAIClient createOllamaClient() {
-        log.info("创建Ollama客户端 - baseUrl: {}, model: {}", ollamaBaseUrl, ollamaModelName);
-        return OpenAIOkHttpClient.builder()
-                .baseUrl(ollamaBaseUrl)
-                .apiKey("ollama") // Ollama不需要API Key，仅为满足客户端参数要求
+    // 单例客户端（见 LlmClientConfig），请求间复用连接池
+    @Autowired
+    @Qualifier("ollamaOpenAIClient")
+    private OpenAIClient client;
+
+    @Autowired
+    private RagMetrics metrics;
+
+    private ChatCompletionCreateParams buildParams(String message) {
+        return ChatCompletionCreateParams.builder()
+                .model(ollamaModelName)
+                .addUserMessage(message)
+                .temperature(0.7)
+                .maxTokens(1024)
                 .build();
     }
 
@@ -40,17 +49,11 @@ public class OllamaServiceImpl implements LargeModelService {
     @Override
     public Map<String, Object> handleMessage(String message) {
         Map<String, Object> result = new HashMap<>();
-        OpenAIClient client = createOllamaClient();
 
         try {
-            ChatCompletionCreateParams params = ChatCompletionCreateParams.builder()
-                    .model(ollamaModelName)
-                    .addUserMessage(message)
-                    .temperature(0.7)
-                    .maxTokens(1024)
-                    .build();
-
-            ChatCompletion chatCompletion = client.chat().completions().create(params);
+            ChatCompletion chatCompletion = client.chat().completions().create(buildParams(message));
+            chatCompletion.usage().ifPresent(usage ->
+                    metrics.recordTokenUsage("ollama", usage.promptTokens(), usage.completionTokens()));
             String answer = chatCompletion.choices().get(0).message().content().orElse("未获取到回答");
 
             result.put("answer", answer);
@@ -63,17 +66,33 @@ public class OllamaServiceImpl implements LargeModelService {
             log.error("Ollama处理异常", e);
             result.put("success", false);
             result.put("error", "系统错误: " + e.getMessage());
-        } finally {
-            // 关闭客户端资源
-            if (client instanceof AutoCloseable) {
-                try {
-                    ((AutoCloseable) client).close();
-                } catch (Exception e) {
-                    log.warn("Ollama客户端关闭异常", e);
-                }
-            }
         }
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * 流式调用Ollama，逐个回调生成的文本
+     */
+    @Override
+    public String streamMessage(String message, Consumer<String> onToken) {
+        StringBuilder answer = new StringBuilder();
+        // 流式响应的最后一个分片携带 token 用量
+        ChatCompletionCreateParams params = buildParams(message).toBuilder()
+                .streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build())
+                .build();
+        try (StreamResponse<ChatCompletionChunk> stream = client.chat().completions().createStreaming(params)) {
+            stream.stream()
+                    .peek(chunk -> chunk.usage().ifPresent(usage ->
+                            metrics.recordTokenUsage("ollama", usage.promptTokens(), usage.completionTokens())))
+                    .flatMap(chunk -> chunk.choices().stream())
+                    .forEach(choice -> choice.delta().content().ifPresent(token -> {
+                        if (!token.isEmpty()) {
+                            answer.append(token);
+                            onToken.accept(token);
+                        }
+                    }));
+        }
+        return answer.toString();
+    }
+}
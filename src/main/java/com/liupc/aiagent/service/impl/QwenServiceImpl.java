@@ -1,40 +1,45 @@
 package com.liupc.aiagent.service.impl;
 
 import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.util.RagMetrics;
 import com.openai.client.OpenAIClient;
-import com.openai.client.okhttp.OpenAIOkHttpClient;
+import com.openai.core.http.StreamResponse;
 import com.openai.errors.OpenAIException;
 import com.openai.models.chat.completions.ChatCompletion;
+import com.openai.models.chat.completions.ChatCompletionChunk;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
+import com.openai.models.chat.completions.ChatCompletionStreamOptions;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.Optional;
 
 @Service
 @Slf4j
 public class QwenServiceImpl implements LargeModelService {
 
+    // 单例客户端（见 LlmClientConfig），请求间复用连接池
+    @Autowired
+    @Qualifier("qwenOpenAIClient")
+    private OpenAIClient client;
 
-    // 从配置文件读取API密钥和基础URL
-    @Value("${langchain4j.community.dashscope.chat-model.api-key}")
-    private String apiKey;
-
-    @Value("${langchain4j.community.dashscope.chat-model.qwen.base-url:https://dashscope.aliyuncs.com/compatible-mode/v1}")
-    private String baseUrl;
-
+    @Autowired
+    private RagMetrics metrics;
 
     /**
-     * 创建OpenAI客户端（复用逻辑）
+     * 构建请求参数
      */
-    private OpenAIClient createClient() {
-        log.info("创建Qwen客户端 - apiKey: {}, baseUrl: {}", apiKey, baseUrl);
-        return OpenAIOkHttpClient.builder()
-                .apiKey(apiKey)
-                .baseUrl(baseUrl)
+    private ChatCompletionCreateParams buildParams(String message) {
+        return ChatCompletionCreateParams.builder()
+                .model("qwen-plus") // 阿里千问模型
+                .addUserMessage(message) // 添加用户消息
+                .temperature(0.7) // 随机性
+                .maxTokens(1024) // 最大响应长度
                 .build();
     }
 
@@ -44,19 +49,12 @@ public class QwenServiceImpl implements LargeModelService {
     @Override
     public Map<String, Object> handleMessage(String message) {
         Map<String, Object> result = new HashMap<>();
-        OpenAIClient client = createClient();
 
         try {
-            // 构建请求参数
-            ChatCompletionCreateParams params = ChatCompletionCreateParams.builder()
-                    .model("qwen-plus") // 阿里千问模型
-                    .addUserMessage(message) // 添加用户消息
-                    .temperature(0.7) // 随机性
-                    .maxTokens(1024) // 最大响应长度
-                    .build();
-
             // 调用API
-            ChatCompletion chatCompletion = client.chat().completions().create(params);
+            ChatCompletion chatCompletion = client.chat().completions().create(buildParams(message));
+            chatCompletion.usage().ifPresent(usage ->
+                    metrics.recordTokenUsage("qwen", usage.promptTokens(), usage.completionTokens()));
 
             // 处理响应结果
             if (!chatCompletion.choices().isEmpty()) {
@@ -76,17 +74,34 @@ public class QwenServiceImpl implements LargeModelService {
             log.error("系统处理异常", e);
             result.put("success", false);
             result.put("error", "系统错误: " + e.getMessage());
-        } finally {
-            // 关闭客户端资源
-            if (client instanceof AutoCloseable) {
-                try {
-                    ((AutoCloseable) client).close();
-                } catch (Exception e) {
-                    log.warn("客户端关闭异常", e);
-                }
-            }
         }
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * 流式调用：按 SSE 分片接收生成结果，首个 token 到达即回调
+     */
+    @Override
+    public String streamMessage(String message, Consumer<String> onToken) {
+        StringBuilder answer = new StringBuilder();
+        // 流式响应的最后一个分片携带 token 用量
+        ChatCompletionCreateParams params = buildParams(message).toBuilder()
+                .streamOptions(ChatCompletionStreamOptions.builder().includeUsage(true).build())
+                .build();
+        // 关闭 StreamResponse 会中断上游连接（客户端断开时回调抛出异常，随即释放连接）
+        try (StreamResponse<ChatCompletionChunk> stream = client.chat().completions().createStreaming(params)) {
+            stream.stream()
+                    .peek(chunk -> chunk.usage().ifPresent(usage ->
+                            metrics.recordTokenUsage("qwen", usage.promptTokens(), usage.completionTokens())))
+                    .flatMap(chunk -> chunk.choices().stream())
+                    .forEach(choice -> choice.delta().content().ifPresent(token -> {
+                        if (!token.isEmpty()) {
+                            answer.append(token);
+                            onToken.accept(token);
+                        }
+                    }));
+        }
+        return answer.toString();
+    }
+}
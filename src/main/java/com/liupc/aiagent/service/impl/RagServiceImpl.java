@@ -1,21 +1,33 @@
 package com.liupc.aiagent.service.impl;
 
 import com.liupc.aiagent.entity.dto.QueryResponse;
-import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.service.BatchResultListener;
+import com.liupc.aiagent.service.ChatStreamListener;
 import com.liupc.aiagent.service.RagService;
 import com.liupc.aiagent.config.PgvectorRetriever; // 修改导入语句，使用config包下的PgvectorRetriever
+import com.liupc.aiagent.util.ContextPacker;
+import com.liupc.aiagent.util.RagMetrics;
+import com.liupc.aiagent.vector.QueryEmbeddingCache;
+import com.liupc.aiagent.vector.SearchFilter;
+import com.liupc.aiagent.vector.SemanticAnswerCache;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 @Service
 @Slf4j
@@ -27,25 +39,48 @@ public class RagServiceImpl implements RagService {
     @Autowired
     private PgvectorRetriever pgvectorRetriever;
 
+    // 多模型调用（Qwen 为主、Ollama 为备，对冲请求 + 熔断）
     @Autowired
-    @Qualifier("qwenServiceImpl")
-    private LargeModelService qwenService;
+    private HedgedModelInvoker modelInvoker;
 
+    // 问题向量缓存（与检索共用，语义缓存查找不额外推理）
     @Autowired
-    @Qualifier("qwenServiceImpl")
-    private LargeModelService fallbackModelService;
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    // 语义答案缓存（相近问题直接返回已有回答）
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    // Prompt 上下文打包（合并重叠片段、多样性去重、token 预算）
+    @Autowired
+    private ContextPacker contextPacker;
+
+    @Autowired
+    private RagMetrics metrics;
 
     // 从配置文件读取检索参数（灵活配置topK）
     @Value("${rag.retrieve.topK:3}")
     private int retrieveTopK;
 
+    // 单次批量请求的问题数上限
+    @Value("${rag.batch.max-questions:200}")
+    private int batchMaxQuestions;
+
+    // 单次批量请求同时进行的模型调用数
+    @Value("${rag.batch.llm-concurrency:8}")
+    private int batchLlmConcurrency;
+
+    // 批量请求的模型调用在虚拟线程中阻塞等待，并发由每个请求的信号量限制
+    private final ExecutorService batchExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-batch-", 1).factory());
+
 
     /**
      * 步骤1：检索相似文档
      */
-    private List<String> retrieveRelevantDocs(String userMessage) throws SQLException {
-        log.info("开始检索相似文档 - 查询词: {}, TopK: {}", userMessage, retrieveTopK);
-        List<String> relevantDocs = pgvectorRetriever.retrieveSimilar(userMessage, retrieveTopK);
+    private List<String> retrieveRelevantDocs(String userMessage, SearchFilter filter) throws SQLException {
+        log.info("开始检索相似文档 - 查询词: {}, TopK: {}, 过滤: {}", userMessage, retrieveTopK, filter);
+        List<String> relevantDocs = pgvectorRetriever.retrieveSimilar(userMessage, retrieveTopK, filter);
         log.info("检索完成 - 获取到 {} 条相似文档", relevantDocs.size());
         return relevantDocs;
     }
@@ -57,67 +92,113 @@ public class RagServiceImpl implements RagService {
         // 若未检索到文档，直接返回原始问题（避免空文档干扰）
         if (relevantDocs.isEmpty()) {
             log.warn("未检索到相似文档，将直接回答原始问题");
+            metrics.recordPrompt(userMessage.length(), 0);
             return userMessage;
         }
 
+        // 合并相邻片段的重叠部分、去掉近似重复，按 token 预算装入
+        List<String> packedDocs = contextPacker.pack(relevantDocs);
+
         // 构建包含参考文档的Prompt（格式可自定义）
         StringBuilder promptBuilder = new StringBuilder();
         promptBuilder.append("请基于以下参考文档，准确、简洁地回答用户问题：\n");
         promptBuilder.append("=== 参考文档开始 ===\n");
-        promptBuilder.append(String.join("\n---\n", relevantDocs)); // 文档间用分隔符区分
+        promptBuilder.append(String.join("\n---\n", packedDocs)); // 文档间用分隔符区分
         promptBuilder.append("\n=== 参考文档结束 ===\n");
         promptBuilder.append("用户问题：").append(userMessage);
         promptBuilder.append("\n注意：1. 优先使用参考文档中的信息回答；2. 若文档中无相关信息,尝试回答。");
 
         String finalPrompt = promptBuilder.toString();
+        metrics.recordPrompt(finalPrompt.length(), packedDocs.size());
         log.debug("构建的RAG Prompt: \n{}", finalPrompt);
         return finalPrompt;
     }
 
     /**
-     * 步骤3：调用大模型（支持失败 fallback）
+     * 步骤3：调用大模型（主模型超时对冲到备用模型，失败切换，熔断中的模型跳过）
      */
     private Map<String, Object> callModelWithFallback(String ragPrompt) {
-        Map<String, Object> modelResult;
-        try {
-            // 1. 优先调用默认模型
-            modelResult = qwenService.handleMessage(ragPrompt);
-            if ((boolean) modelResult.get("success")) {
-                return modelResult;
-            }
-            log.warn("默认模型（{}）调用失败，尝试 fallback 到备用模型（Qwen）",
-                    modelResult.getOrDefault("model", "OpenAI"));
-        } catch (Exception e) {
-            log.error("默认模型调用异常，触发 fallback", e);
+        Map<String, Object> modelResult = modelInvoker.call(ragPrompt);
+        if (!Boolean.TRUE.equals(modelResult.get("success"))) {
+            log.warn("所有模型调用失败: {}", modelResult.get("error"));
         }
+        return modelResult;
+    }
 
-        // 2. fallback 到备用模型（如Qwen）
-        return fallbackModelService.handleMessage(ragPrompt);
+    /**
+     * 步骤3（流式）：调用大模型并逐个推送 token
+     * 仅在尚未推送任何 token 时 fallback，避免已输出的内容与备用模型的回答拼接
+     */
+    private String streamModelWithFallback(String ragPrompt, ChatStreamListener listener) {
+        return modelInvoker.stream(ragPrompt, listener::onToken);
+    }
+
+    /**
+     * 步骤0：查找语义相近问题的缓存回答
+     * @return 命中的缓存条目，未启用或未命中返回 null
+     */
+    private SemanticAnswerCache.CachedAnswer lookupCachedAnswer(String userMessage, SearchFilter filter) {
+        if (!semanticAnswerCache.isEnabled()) {
+            return null;
+        }
+        return semanticAnswerCache.lookup(filter.cacheKey(), userMessage, queryEmbeddingCache.embed(userMessage));
+    }
+
+    /**
+     * 缓存成功的回答（检索期间有文档入库则不缓存）
+     */
+    private void cacheAnswer(String userMessage, SearchFilter filter, String answer, List<String> relevantDocs,
+                             long cacheGeneration) {
+        if (semanticAnswerCache.isEnabled()) {
+            semanticAnswerCache.put(filter.cacheKey(), userMessage, queryEmbeddingCache.embed(userMessage), answer,
+                    relevantDocs, cacheGeneration);
+        }
     }
 
     /**
      * RAG完整流程入口
      */
     @Override
-    public Map<String, Object> ragChat(String userMessage) {
+    public Map<String, Object> ragChat(String userMessage, SearchFilter filter) {
         Map<String, Object> result = new HashMap<>();
 
         try {
+            // 步骤0：语义缓存命中时跳过检索和模型调用
+            long cacheGeneration = semanticAnswerCache.generation();
+            SemanticAnswerCache.CachedAnswer cached = lookupCachedAnswer(userMessage, filter);
+            if (cached != null) {
+                result.put("success", true);
+                result.put("answer", cached.getAnswer());
+                result.put("sources", cached.getSources());
+                result.put("retrieveCount", cached.getSources().size());
+                result.put("userMessage", userMessage);
+                result.put("cached", true);
+                result.put("cachedQuestion", cached.getQuestion());
+                result.put("similarity", cached.getSimilarity());
+                return result;
+            }
+
             // 步骤1：检索相似文档
-            List<String> relevantDocs = retrieveRelevantDocs(userMessage);
+            List<String> relevantDocs = retrieveRelevantDocs(userMessage, filter);
 
             // 步骤2：构建RAG Prompt
             String ragPrompt = buildRagPrompt(userMessage, relevantDocs);
-            logger.info("ragPrompt:{}", ragPrompt);
+            logger.debug("ragPrompt:{}", ragPrompt);
 
             // 步骤3：调用大模型（带fallback）
             Map<String, Object> modelResult = callModelWithFallback(ragPrompt);
-            logger.info("modelResult:{}", modelResult);
+            logger.debug("modelResult:{}", modelResult);
 
             // 整合结果（补充检索信息，方便前端展示）
             result.putAll(modelResult);
+            result.put("sources", relevantDocs); // 参考文档片段
             result.put("retrieveCount", relevantDocs.size()); // 告知前端检索到的文档数量
             result.put("userMessage", userMessage); // 回显用户原始问题
+            result.put("cached", false);
+
+            if (Boolean.TRUE.equals(modelResult.get("success"))) {
+                cacheAnswer(userMessage, filter, (String) modelResult.get("answer"), relevantDocs, cacheGeneration);
+            }
 
         } catch (SQLException e) {
             // 数据库检索异常（单独捕获，明确错误类型）
@@ -135,4 +216,210 @@ public class RagServiceImpl implements RagService {
 
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量RAG流程入口：批量向量化 → 逐个查语义缓存 → 未命中的问题一次往返检索 → 有界并发调用模型
+     */
+    @Override
+    public Map<String, Object> ragChatBatch(List<String> questions, SearchFilter filter, BatchResultListener listener) {
+        if (questions == null || questions.isEmpty()) {
+            throw new IllegalArgumentException("问题列表不能为空");
+        }
+        if (questions.size() > batchMaxQuestions) {
+            throw new IllegalArgumentException("问题数量超过上限：" + batchMaxQuestions);
+        }
+        for (int i = 0; i < questions.size(); i++) {
+            if (questions.get(i) == null || questions.get(i).isBlank()) {
+                throw new IllegalArgumentException("第 " + (i + 1) + " 个问题为空");
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        BatchProgress progress = new BatchProgress(listener);
+        long cacheGeneration = semanticAnswerCache.generation();
+
+        // 步骤0：一次批量推理得到全部问题向量，语义缓存命中的问题直接返回
+        List<float[]> vectors = queryEmbeddingCache.embedAll(questions);
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < questions.size(); i++) {
+            SemanticAnswerCache.CachedAnswer cached = semanticAnswerCache.isEnabled()
+                    ? semanticAnswerCache.lookup(filter.cacheKey(), questions.get(i), vectors.get(i))
+                    : null;
+            if (cached == null) {
+                pending.add(i);
+                continue;
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("answer", cached.getAnswer());
+            result.put("sources", cached.getSources());
+            result.put("retrieveCount", cached.getSources().size());
+            result.put("userMessage", questions.get(i));
+            result.put("cached", true);
+            result.put("cachedQuestion", cached.getQuestion());
+            result.put("similarity", cached.getSimilarity());
+            progress.publish(i, result);
+        }
+
+        if (!pending.isEmpty()) {
+            List<String> pendingQuestions = new ArrayList<>(pending.size());
+            List<float[]> pendingVectors = new ArrayList<>(pending.size());
+            for (int i : pending) {
+                pendingQuestions.add(questions.get(i));
+                pendingVectors.add(vectors.get(i));
+            }
+            try {
+                // 步骤1：未命中缓存的问题在一次数据库往返中检索
+                List<List<String>> docs = pgvectorRetriever.retrieveSimilarBatch(pendingQuestions, pendingVectors,
+                        retrieveTopK, filter);
+                // 步骤2、3：按并发上限调用模型，每个问题完成后立即回调
+                answerBatch(pendingQuestions, pendingVectors, docs, pending, filter, cacheGeneration, progress);
+            } catch (SQLException e) {
+                log.error("Pgvector批量检索异常", e);
+                for (int i : pending) {
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("success", false);
+                    result.put("error", "文档检索失败: " + e.getMessage());
+                    result.put("retrieveCount", 0);
+                    result.put("userMessage", questions.get(i));
+                    progress.publish(i, result);
+                }
+            }
+        }
+
+        Map<String, Object> summary = progress.summary();
+        summary.put("total", questions.size());
+        summary.put("elapsedMillis", System.currentTimeMillis() - start);
+        log.info("批量RAG完成 - {}", summary);
+        return summary;
+    }
+
+    private void answerBatch(List<String> questions, List<float[]> vectors, List<List<String>> docs,
+                             List<Integer> indexes, SearchFilter filter, long cacheGeneration, BatchProgress progress) {
+        Semaphore modelSlots = new Semaphore(Math.max(1, batchLlmConcurrency));
+        List<Future<?>> futures = new ArrayList<>(questions.size());
+        for (int i = 0; i < questions.size(); i++) {
+            String question = questions.get(i);
+            float[] vector = vectors.get(i);
+            List<String> relevantDocs = docs.get(i);
+            int index = indexes.get(i);
+            futures.add(batchExecutor.submit(() -> {
+                Map<String, Object> result = new HashMap<>();
+                try {
+                    modelSlots.acquire();
+                    try {
+                        result.putAll(callModelWithFallback(buildRagPrompt(question, relevantDocs)));
+                    } finally {
+                        modelSlots.release();
+                    }
+                    if (Boolean.TRUE.equals(result.get("success")) && semanticAnswerCache.isEnabled()) {
+                        semanticAnswerCache.put(filter.cacheKey(), question, vector, (String) result.get("answer"),
+                                relevantDocs, cacheGeneration);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("批量RAG单个问题处理异常", e);
+                    result.put("success", false);
+                    result.put("error", "RAG处理错误: " + e.getMessage());
+                }
+                result.put("sources", relevantDocs);
+                result.put("retrieveCount", relevantDocs.size());
+                result.put("userMessage", question);
+                result.put("cached", false);
+                progress.publish(index, result);
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+        } catch (ExecutionException e) {
+            // 回调失败（如客户端已断开）时取消剩余的模型调用
+            log.warn("批量RAG结果推送失败，取消剩余问题: {}", e.getCause().getMessage());
+            futures.forEach(future -> future.cancel(true));
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 批量请求的结果回调与计数（回调在各工作线程中串行执行）
+     */
+    private static class BatchProgress {
+
+        private final BatchResultListener listener;
+
+        private int succeeded;
+        private int failed;
+        private int cached;
+
+        private BatchProgress(BatchResultListener listener) {
+            this.listener = listener;
+        }
+
+        synchronized void publish(int index, Map<String, Object> result) {
+            if (Boolean.TRUE.equals(result.get("success"))) {
+                succeeded++;
+            } else {
+                failed++;
+            }
+            if (Boolean.TRUE.equals(result.get("cached"))) {
+                cached++;
+            }
+            result.put("index", index);
+            listener.onResult(index, result);
+        }
+
+        synchronized Map<String, Object> summary() {
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("succeeded", succeeded);
+            summary.put("failed", failed);
+            summary.put("cached", cached);
+            return summary;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchExecutor.shutdownNow();
+    }
+
+    /**
+     * 流式RAG流程入口：检索完成后先推送参考文档，再推送模型生成的文本
+     */
+    @Override
+    public void ragChatStream(String userMessage, SearchFilter filter, ChatStreamListener listener) {
+        try {
+            long cacheGeneration = semanticAnswerCache.generation();
+            SemanticAnswerCache.CachedAnswer cached = lookupCachedAnswer(userMessage, filter);
+            if (cached != null) {
+                // 缓存命中：一次性推送完整回答
+                listener.onSources(cached.getSources());
+                listener.onToken(cached.getAnswer());
+                listener.onComplete(cached.getAnswer());
+                return;
+            }
+
+            List<String> relevantDocs = retrieveRelevantDocs(userMessage, filter);
+            listener.onSources(relevantDocs);
+
+            String ragPrompt = buildRagPrompt(userMessage, relevantDocs);
+            String answer = streamModelWithFallback(ragPrompt, listener);
+            cacheAnswer(userMessage, filter, answer, relevantDocs, cacheGeneration);
+            listener.onComplete(answer);
+        } catch (SQLException e) {
+            log.error("Pgvector检索异常", e);
+            listener.onError(new IllegalStateException("文档检索失败: " + e.getMessage(), e));
+        } catch (Exception e) {
+            log.error("流式RAG流程异常", e);
+            listener.onError(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.liupc.aiagent.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按调用结果滑动窗口统计失败率的熔断器
+ * CLOSED：正常放行，窗口内失败率达到阈值后转为 OPEN；
+ * OPEN：拒绝调用，经过熔断时长后转为 HALF_OPEN；
+ * HALF_OPEN：只放行一次试探调用，成功则恢复 CLOSED，失败则重新 OPEN
+ * 临界区只做计数，不含阻塞操作
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+
+    // 最近 windowSize 次调用结果（true 为失败）
+    private final boolean[] outcomes;
+
+    // 窗口内调用数达到该值才计算失败率
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int recorded;
+    private int failures;
+    private int next;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * @param windowSize 统计窗口（最近的调用次数）
+     * @param minimumCalls 计算失败率所需的最少调用次数
+     * @param failureRateThreshold 触发熔断的失败率（0~1）
+     * @param openDuration 熔断持续时间
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration) {
+        this.name = name;
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * 申请一次调用许可；返回 true 时调用方必须在结束后调用 onSuccess / onFailure / onIgnored 之一
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                transitionTo(State.HALF_OPEN);
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            reset();
+            transitionTo(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && recorded >= minimumCalls
+                && (double) failures / recorded >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * 调用被取消（如对冲请求中落败的一方），不计入统计，仅归还试探许可
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("state", state.name());
+        result.put("calls", recorded);
+        result.put("failures", failures);
+        result.put("failureRate", recorded == 0 ? 0.0 : (double) failures / recorded);
+        return result;
+    }
+
+    private void record(boolean failed) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        reset();
+        transitionTo(State.OPEN);
+    }
+
+    private void reset() {
+        recorded = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    private void transitionTo(State target) {
+        if (state != target) {
+            log.warn("熔断器状态变化 - {}: {} -> {}", name, state, target);
+            state = target;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.liupc.aiagent.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Prompt 上下文打包：在 token 预算内挑选检索到的文档片段
+ * 1. 合并相邻片段：分割时相邻片段有重叠（上一片段的结尾 = 下一片段的开头），按文本重叠拼接为一段，重叠部分只保留一次
+ * 2. MMR 多样性选择：相关性（检索排名）与已选片段的相似度（字符二元组 Jaccard）加权，近似重复的片段直接丢弃
+ * 3. 按预算装入后，按相关性排序输出
+ * 检索结果只有文本，没有片段位置信息，因此“相邻”以文本重叠判断；重叠至少 MIN_OVERLAP 个字符才合并，避免偶然相同的短语误合并
+ */
+@Component
+@Slf4j
+public class ContextPacker {
+
+    // 判定为相邻片段的最短重叠字符数
+    private static final int MIN_OVERLAP = 20;
+
+    private final RagMetrics metrics;
+
+    private final boolean enabled;
+
+    // 参考文档部分的 token 预算
+    private final int maxTokens;
+
+    // MMR 中相关性的权重（1 为只看相关性，0 为只看多样性）
+    private final double mmrLambda;
+
+    // 与已选片段的相似度达到该值视为重复
+    private final double duplicateSimilarity;
+
+    @Autowired
+    public ContextPacker(RagMetrics metrics,
+                         @Value("${rag.context.packing-enabled:true}") boolean enabled,
+                         @Value("${rag.context.max-tokens:1500}") int maxTokens,
+                         @Value("${rag.context.mmr-lambda:0.7}") double mmrLambda,
+                         @Value("${rag.context.duplicate-similarity:0.8}") double duplicateSimilarity) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.maxTokens = maxTokens;
+        this.mmrLambda = mmrLambda;
+        this.duplicateSimilarity = duplicateSimilarity;
+    }
+
+    /**
+     * 打包检索结果
+     * @param documents 按相关性降序排列的文档片段
+     * @return 合并、去重并按预算截取后的片段，按相关性降序排列
+     */
+    public List<String> pack(List<String> documents) {
+        if (!enabled || documents.isEmpty()) {
+            return documents;
+        }
+        List<Chunk> merged = merge(documents);
+        List<Chunk> selected = select(merged);
+        selected.sort(Comparator.comparingInt(chunk -> chunk.rank));
+
+        List<String> packed = new ArrayList<>(selected.size());
+        int packedTokens = 0;
+        for (Chunk chunk : selected) {
+            packed.add(chunk.text);
+            packedTokens += chunk.tokens;
+        }
+        int retrievedTokens = 0;
+        for (String document : documents) {
+            retrievedTokens += estimateTokens(document);
+        }
+        metrics.recordContextPacking(retrievedTokens, packedTokens);
+        log.debug("上下文打包 - 片段: {} → 合并后 {} → 选中 {}, token: {} → {}",
+                documents.size(), merged.size(), packed.size(), retrievedTokens, packedTokens);
+        return packed;
+    }
+
+    /**
+     * 估算 token 数：中日韩字符约 1 字 1 token，其余字符约 4 个 1 token
+     */
+    public static int estimateTokens(String text) {
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                cjk++;
+            } else if (!Character.isWhitespace(codePoint)) {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    // 反复合并，直到没有可以拼接或包含的片段（两个片段合并后可能与第三个相邻）
+    private List<Chunk> merge(List<String> documents) {
+        List<Chunk> chunks = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            String text = documents.get(i).trim();
+            if (!text.isEmpty()) {
+                chunks.add(new Chunk(text, i));
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            outer:
+            for (int i = 0; i < chunks.size(); i++) {
+                for (int j = 0; j < chunks.size(); j++) {
+                    if (i == j) {
+                        continue;
+                    }
+                    String joined = join(chunks.get(i).text, chunks.get(j).text);
+                    if (joined != null) {
+                        Chunk first = chunks.get(i);
+                        Chunk second = chunks.get(j);
+                        chunks.set(Math.min(i, j), new Chunk(joined, Math.min(first.rank, second.rank)));
+                        chunks.remove(Math.max(i, j));
+                        changed = true;
+                        break outer;
+                    }
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * first 包含 second 时返回 first；first 的结尾与 second 的开头重叠时返回拼接结果；否则返回 null
+     */
+    private static String join(String first, String second) {
+        if (first.contains(second)) {
+            return first;
+        }
+        if (second.length() < MIN_OVERLAP || first.length() < MIN_OVERLAP) {
+            return null;
+        }
+        // 以 second 的开头定位 first 中的候选起点，再确认从该处到结尾整体是 second 的前缀
+        String head = second.substring(0, MIN_OVERLAP);
+        int from = Math.max(0, first.length() - second.length());
+        for (int pos = first.indexOf(head, from); pos >= 0; pos = first.indexOf(head, pos + 1)) {
+            if (second.startsWith(first.substring(pos))) {
+                return first.substring(0, pos) + second;
+            }
+        }
+        return null;
+    }
+
+    // MMR：每轮选出 λ·相关性 − (1−λ)·最大相似度 最高的片段，装不下或重复的片段丢弃
+    private List<Chunk> select(List<Chunk> chunks) {
+        int maxRank = 0;
+        for (Chunk chunk : chunks) {
+            maxRank = Math.max(maxRank, chunk.rank);
+        }
+        List<Chunk> candidates = new ArrayList<>(chunks);
+        List<Chunk> selected = new ArrayList<>();
+        int remaining = maxTokens;
+        while (!candidates.isEmpty() && remaining > 0) {
+            Chunk best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            double bestSimilarity = 0;
+            for (Chunk candidate : candidates) {
+                double similarity = 0;
+                for (Chunk chosen : selected) {
+                    similarity = Math.max(similarity, candidate.similarity(chosen));
+                }
+                double relevance = 1.0 - (double) candidate.rank / (maxRank + 1);
+                double score = mmrLambda * relevance - (1 - mmrLambda) * similarity;
+                if (score > bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                    bestSimilarity = similarity;
+                }
+            }
+            candidates.remove(best);
+            if (bestSimilarity >= duplicateSimilarity) {
+                continue;
+            }
+            if (best.tokens <= remaining) {
+                selected.add(best);
+                remaining -= best.tokens;
+            } else if (selected.isEmpty()) {
+                // 最相关的片段本身超出预算时截断保留，保证至少有一段参考文档
+                Chunk truncated = best.truncate(remaining);
+                selected.add(truncated);
+                remaining -= truncated.tokens;
+            }
+        }
+        return selected;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static class Chunk {
+
+        private final String text;
+
+        // 合并前各片段中最好的检索排名（0 为最相关）
+        private final int rank;
+
+        private final int tokens;
+
+        private Set<String> shingles;
+
+        private Chunk(String text, int rank) {
+            this.text = text;
+            this.rank = rank;
+            this.tokens = estimateTokens(text);
+        }
+
+        private double similarity(Chunk other) {
+            Set<String> mine = shingles();
+            Set<String> theirs = other.shingles();
+            if (mine.isEmpty() || theirs.isEmpty()) {
+                return 0;
+            }
+            int intersection = 0;
+            for (String shingle : mine) {
+                if (theirs.contains(shingle)) {
+                    intersection++;
+                }
+            }
+            return (double) intersection / (mine.size() + theirs.size() - intersection);
+        }
+
+        // 去掉空白后的字符二元组
+        private Set<String> shingles() {
+            if (shingles == null) {
+                String compact = text.replaceAll("\\s+", "").toLowerCase();
+                shingles = new HashSet<>();
+                for (int i = 0; i + 2 <= compact.length(); i++) {
+                    shingles.add(compact.substring(i, i + 2));
+                }
+            }
+            return shingles;
+        }
+
+        private Chunk truncate(int maxTokens) {
+            int low = 0;
+            int high = text.length();
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (estimateTokens(text.substring(0, mid)) <= maxTokens) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return new Chunk(text.substring(0, low), rank);
+        }
+    }
+}
@@ -1,22 +1,57 @@
 package com.liupc.aiagent.util;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 /**
  * 解析本地文件提取文本（支持 PDF、DOCX、TXT）
+ * 流式接口按页（PDF）或按段落分块（DOCX、TXT）输出文本，内存占用与单页/单块大小相关，与文件大小无关
  */
 public class FileTextExtractor {
 
+    // 超过该大小的 PDF 使用临时文件缓存解析数据，避免整份文档常驻堆内存
+    private static final long LARGE_PDF_BYTES = 20L * 1024 * 1024;
+
+    // DOCX / TXT 按段落累积到该长度后输出一块
+    private static final int PIECE_CHARS = 4000;
+
+    /**
+     * 文本块接收方（流水线中通常写入有界队列，可能阻塞）
+     */
+    @FunctionalInterface
+    public interface TextSink {
+        void accept(String text) throws IOException, InterruptedException;
+    }
+
     /**
      * 根据文件类型提取文本
      * @param filePath 本地文件路径（如 "D:/docs/JavaGuide.pdf"）
      * @return 提取的纯文本
      */
     public static String extractText(String filePath) throws IOException {
+        StringBuilder text = new StringBuilder();
+        try {
+            extractText(filePath, text::append);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("文本提取被中断：" + filePath);
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * 根据文件类型流式提取文本，按页或段落块依次交给 sink
+     * @param filePath 本地文件路径
+     * @param sink 文本块接收方
+     */
+    public static void extractText(String filePath, TextSink sink) throws IOException, InterruptedException {
         File file = new File(filePath);
         if (!file.exists()) {
             throw new FileNotFoundException("文件不存在：" + filePath);
@@ -24,44 +59,82 @@ public class FileTextExtractor {
 
         // 按文件后缀选择解析方式
         if (filePath.endsWith(".pdf")) {
-            return extractPdfText(file);
+            extractPdfText(file, sink);
         } else if (filePath.endsWith(".docx")) {
-            return extractDocxText(file);
+            extractDocxText(file, sink);
         } else if (filePath.endsWith(".txt")) {
-            return extractTxtText(file);
+            extractTxtText(file, sink);
         } else {
             throw new UnsupportedOperationException("不支持的文件格式：" + filePath);
         }
     }
 
-    // 解析 PDF 文本
-    private static String extractPdfText(File file) throws IOException {
-        try (PDDocument document = PDDocument.load(file)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document); // 提取所有页文本
+    // 解析 PDF 文本（单次遍历，每页结束时输出该页文本）
+    private static void extractPdfText(File file, TextSink sink) throws IOException, InterruptedException {
+        MemoryUsageSetting memoryUsage = file.length() > LARGE_PDF_BYTES
+                ? MemoryUsageSetting.setupTempFileOnly()
+                : MemoryUsageSetting.setupMainMemoryOnly();
+        try (PDDocument document = PDDocument.load(file, memoryUsage)) {
+            StringWriter pageBuffer = new StringWriter();
+            PDFTextStripper stripper = new PDFTextStripper() {
+                @Override
+                protected void endPage(PDPage page) throws IOException {
+                    super.endPage(page);
+                    output.flush();
+                    String pageText = pageBuffer.toString();
+                    pageBuffer.getBuffer().setLength(0);
+                    if (pageText.isBlank()) {
+                        return;
+                    }
+                    try {
+                        sink.accept(pageText);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("PDF 文本提取被中断");
+                    }
+                }
+            };
+            try {
+                stripper.writeText(document, pageBuffer);
+            } catch (InterruptedIOException e) {
+                throw new InterruptedException(e.getMessage());
+            }
         }
     }
 
     // 解析 Word (DOCX) 文本
-    private static String extractDocxText(File file) throws IOException {
-        try (XWPFDocument document = new XWPFDocument(new FileInputStream(file))) {
-            StringBuilder text = new StringBuilder();
+    private static void extractDocxText(File file, TextSink sink) throws IOException, InterruptedException {
+        try (InputStream in = new FileInputStream(file);
+             XWPFDocument document = new XWPFDocument(in)) {
+            StringBuilder piece = new StringBuilder();
             for (XWPFParagraph paragraph : document.getParagraphs()) {
-                text.append(paragraph.getText()).append("\n");
+                piece.append(paragraph.getText()).append("\n");
+                if (piece.length() >= PIECE_CHARS) {
+                    sink.accept(piece.toString());
+                    piece.setLength(0);
+                }
+            }
+            if (!piece.toString().isBlank()) {
+                sink.accept(piece.toString());
             }
-            return text.toString().trim();
         }
     }
 
     // 解析 TXT 文本
-    private static String extractTxtText(File file) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            StringBuilder text = new StringBuilder();
+    private static void extractTxtText(File file, TextSink sink) throws IOException, InterruptedException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            StringBuilder piece = new StringBuilder();
             String line;
             while ((line = reader.readLine()) != null) {
-                text.append(line).append("\n");
+                piece.append(line).append("\n");
+                if (piece.length() >= PIECE_CHARS) {
+                    sink.accept(piece.toString());
+                    piece.setLength(0);
+                }
+            }
+            if (!piece.toString().isBlank()) {
+                sink.accept(piece.toString());
             }
-            return text.toString().trim();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,51 @@
+package com.liupc.aiagent.util;
+
+import java.util.Arrays;
+
+/**
+ * 记录最近若干次调用耗时，计算分位数（用于确定对冲请求的发出时机）
+ */
+public class LatencyTracker {
+
+    private final long[] samples;
+
+    private int count;
+    private int next;
+
+    /**
+     * @param capacity 保留的最近样本数
+     */
+    public LatencyTracker(int capacity) {
+        this.samples = new long[Math.max(1, capacity)];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * 最近样本的分位数
+     * @param quantile 0~1，如 0.95
+     * @return 毫秒，没有样本时返回 -1
+     */
+    public long percentile(double quantile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
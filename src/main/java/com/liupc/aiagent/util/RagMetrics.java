@@ -0,0 +1,211 @@
+package com.liupc.aiagent.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RAG 各阶段的 Micrometer 指标（经 /actuator/prometheus 暴露）
+ * 指标名集中定义在这里，调用方只传入耗时和数量；耗时类指标发布直方图，可在 Prometheus 中按 histogram_quantile 计算分位数
+ * 标签取值都是有限集合（后端、模式、模型、阶段、结果），不包含问题文本等高基数数据
+ */
+@Component
+public class RagMetrics {
+
+    // 余弦距离的分桶边界（0 为完全相同，2 为完全相反）
+    private static final double[] DISTANCE_BUCKETS = {0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.8, 1.0, 1.5, 2.0};
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public RagMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * 问题向量化耗时
+     * @param source cache（缓存命中）/ model（模型推理）/ batch（批量问题整体，未命中部分合并推理）
+     */
+    public void recordQueryEmbedding(String source, long nanos) {
+        timer("rag.query.embedding", "问题向量化耗时", "source", source).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 一次检索的耗时和命中数
+     */
+    public void recordRetrieval(String backend, String mode, boolean filtered, long nanos, int hits) {
+        timer("rag.retrieval", "检索耗时（不含问题向量化）",
+                "backend", backend, "mode", mode, "filtered", String.valueOf(filtered))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("rag.retrieval.hits")
+                .description("单次检索返回的文档数")
+                .tags("backend", backend, "mode", mode)
+                .register(registry)
+                .record(hits);
+    }
+
+    /**
+     * 向量检索命中文档的距离（阈值过滤后）
+     */
+    public void recordDistance(String backend, double distance) {
+        DistributionSummary.builder("rag.retrieval.distance")
+                .description("向量检索命中文档的距离")
+                .tags("backend", backend)
+                .serviceLevelObjectives(DISTANCE_BUCKETS)
+                .register(registry)
+                .record(distance);
+    }
+
+    /**
+     * 交叉编码器重排耗时和打分的候选数
+     * @param outcome complete（全部打分）/ partial（超出预算中止）/ skipped（检索已超出预算）/ failure（推理失败）
+     */
+    public void recordRerank(String outcome, long nanos, int scored) {
+        timer("rag.rerank", "重排耗时", "outcome", outcome).record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("rag.rerank.scored")
+                .description("单次重排打分的候选数")
+                .tags("outcome", outcome)
+                .register(registry)
+                .record(scored);
+    }
+
+    /**
+     * 构建出的 Prompt 大小
+     */
+    public void recordPrompt(int chars, int documents) {
+        DistributionSummary.builder("rag.prompt.chars")
+                .description("RAG Prompt 字符数")
+                .baseUnit("chars")
+                .register(registry)
+                .record(chars);
+        DistributionSummary.builder("rag.prompt.documents")
+                .description("Prompt 中的参考文档数")
+                .register(registry)
+                .record(documents);
+    }
+
+    /**
+     * 上下文打包前后参考文档的估算 token 数
+     */
+    public void recordContextPacking(int retrievedTokens, int packedTokens) {
+        DistributionSummary.builder("rag.context.tokens")
+                .description("参考文档估算 token 数（retrieved 为检索结果，packed 为打包后）")
+                .baseUnit("tokens")
+                .tags("stage", "retrieved")
+                .register(registry)
+                .record(retrievedTokens);
+        DistributionSummary.builder("rag.context.tokens")
+                .description("参考文档估算 token 数（retrieved 为检索结果，packed 为打包后）")
+                .baseUnit("tokens")
+                .tags("stage", "packed")
+                .register(registry)
+                .record(packedTokens);
+    }
+
+    /**
+     * 大模型调用耗时
+     * @param mode call（非流式）/ stream（流式，到生成结束）
+     * @param outcome success / failure / cancelled（对冲落败被取消）
+     */
+    public void recordModelCall(String provider, String mode, String outcome, long nanos) {
+        timer("llm.request", "大模型调用耗时", "provider", provider, "mode", mode, "outcome", outcome)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 流式调用的首个 token 延迟
+     */
+    public void recordFirstToken(String provider, long nanos) {
+        timer("llm.stream.first-token", "流式调用首个 token 延迟", "provider", provider)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 大模型返回的 token 用量
+     */
+    public void recordTokenUsage(String provider, long promptTokens, long completionTokens) {
+        tokenCounter(provider, "prompt").increment(promptTokens);
+        tokenCounter(provider, "completion").increment(completionTokens);
+    }
+
+    /**
+     * 主模型超过对冲延迟，向备用模型发出对冲请求
+     */
+    public void countHedge(String provider) {
+        Counter.builder("llm.hedge")
+                .description("发出的对冲请求数")
+                .tag("provider", provider)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * 入库流水线单个阶段处理一个文件的耗时
+     * @param busyNanos 实际处理时间
+     * @param waitNanos 阻塞在阶段间队列上的时间（上游供给不足或下游背压）
+     */
+    public void recordIngestStage(String stage, long busyNanos, long waitNanos) {
+        timer("rag.ingest.stage", "入库阶段处理耗时（不含队列等待）", "stage", stage)
+                .record(busyNanos, TimeUnit.NANOSECONDS);
+        timer("rag.ingest.stage.wait", "入库阶段队列等待时间", "stage", stage)
+                .record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 单个文件入库的总耗时
+     * @param outcome success / failure / unchanged
+     */
+    public void recordIngestFile(String outcome, long nanos) {
+        timer("rag.ingest.file", "文件入库总耗时", "outcome", outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 入库片段计数
+     * @param result embedded / written / unchanged / deleted
+     */
+    public void countIngestSegments(String result, long count) {
+        if (count <= 0) {
+            return;
+        }
+        Counter.builder("rag.ingest.segments")
+                .description("入库处理的片段数")
+                .tag("result", result)
+                .register(registry)
+                .increment(count);
+    }
+
+    /**
+     * 入库提取的文本字符数
+     */
+    public void countIngestChars(long chars) {
+        Counter.builder("rag.ingest.chars")
+                .description("入库提取的文本字符数")
+                .baseUnit("chars")
+                .register(registry)
+                .increment(chars);
+    }
+
+    private Counter tokenCounter(String provider, String type) {
+        return Counter.builder("llm.tokens")
+                .description("大模型 token 用量")
+                .tags("provider", provider, "type", type)
+                .register(registry);
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
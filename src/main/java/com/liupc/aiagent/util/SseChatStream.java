@@ -0,0 +1,208 @@
+package com.liupc.aiagent.util;
+
+import com.liupc.aiagent.service.BatchResultListener;
+import com.liupc.aiagent.service.ChatStreamListener;
+import com.liupc.aiagent.service.LargeModelService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 以 Server-Sent Events 推送流式问答结果
+ * 事件：sources（参考文档）→ token（增量文本，多次）→ done（完成）/ error（失败）
+ * 批量问答事件：result（单个问题的结果，按完成顺序，多次）→ done（汇总）/ error（失败）
+ * 每个事件的数据均为 JSON，避免文本中的换行破坏 SSE 帧
+ */
+@Component
+@Slf4j
+public class SseChatStream {
+
+    // 单次流式会话的最长时间
+    private final long timeoutMillis;
+
+    // 流式会话在虚拟线程中阻塞读取上游响应，阻塞期间不占用平台线程
+    private final ExecutorService streamExecutor;
+
+    // 同时进行的会话上限（上游大模型的并发另由 HTTP 客户端限制）
+    private final Semaphore streamSlots;
+
+    @Autowired
+    public SseChatStream(@Value("${llm.stream.timeout-ms:180000}") long timeoutMillis,
+                         @Value("${llm.stream.max-concurrent:64}") int maxConcurrentStreams) {
+        this.timeoutMillis = timeoutMillis;
+        this.streamSlots = new Semaphore(maxConcurrentStreams);
+        this.streamExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-stream-", 1).factory());
+    }
+
+    /**
+     * 开启流式会话，task 在后台线程中执行并通过 listener 推送事件
+     */
+    public SseEmitter open(Consumer<ChatStreamListener> task) {
+        return start(task::accept);
+    }
+
+    /**
+     * 开启批量问答会话：每个问题完成后推送一个 result 事件，全部完成后以 done 事件推送汇总信息
+     * @param task 执行批量问答并返回汇总信息
+     */
+    public SseEmitter openBatch(Function<BatchResultListener, Map<String, Object>> task) {
+        return start(listener -> {
+            try {
+                Map<String, Object> summary = task.apply((index, result) -> listener.send("result", result));
+                listener.complete(summary);
+            } catch (Exception e) {
+                log.error("批量问答异常", e);
+                listener.onError(e);
+            }
+        });
+    }
+
+    private SseEmitter start(Consumer<SseListener> task) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        SseListener listener = new SseListener(emitter);
+        if (!streamSlots.tryAcquire()) {
+            listener.onError(new IllegalStateException("流式会话数已达上限，请稍后重试"));
+            return emitter;
+        }
+        // 许可由先占到 started 的一方归还：任务已开始则在任务结束时归还，否则由取消回调归还
+        AtomicBoolean started = new AtomicBoolean();
+        Future<?> worker;
+        try {
+            worker = streamExecutor.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    task.accept(listener);
+                } finally {
+                    streamSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            streamSlots.release();
+            listener.onError(new IllegalStateException("服务正在关闭，请稍后重试"));
+            return emitter;
+        }
+
+        // 客户端断开、超时或连接出错时会话未正常结束：中断后台线程（阻塞中的上游调用随之取消，
+        // 之后的推送直接失败，流式回调抛出异常后关闭模型响应流），不必等到下一个 token 才发现断开
+        Runnable cancel = () -> {
+            if (!listener.close()) {
+                return;
+            }
+            worker.cancel(true);
+            if (started.compareAndSet(false, true)) {
+                streamSlots.release();
+            }
+        };
+        emitter.onTimeout(cancel);
+        emitter.onError(error -> cancel.run());
+        emitter.onCompletion(cancel);
+        return emitter;
+    }
+
+    /**
+     * 开启单模型流式问答会话
+     */
+    public SseEmitter openModelStream(LargeModelService modelService, String message) {
+        return open(listener -> {
+            try {
+                listener.onComplete(modelService.streamMessage(message, listener::onToken));
+            } catch (Exception e) {
+                log.error("流式调用异常", e);
+                listener.onError(e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    // 将回调转换为 SSE 事件；客户端断开后发送失败会抛出异常，由调用方中止上游生成
+    private static class SseListener implements ChatStreamListener {
+
+        private final SseEmitter emitter;
+
+        // 会话已结束（正常完成、失败或客户端断开），之后不再推送
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private SseListener(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * @return 本次调用是否结束了会话（会话已结束时返回 false）
+         */
+        private boolean close() {
+            return closed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void onSources(List<String> sources) {
+            send("sources", Map.of("sources", sources));
+        }
+
+        @Override
+        public void onToken(String token) {
+            send("token", Map.of("token", token));
+        }
+
+        @Override
+        public void onComplete(String answer) {
+            complete(Map.of("success", true));
+        }
+
+        private void complete(Map<String, Object> data) {
+            Map<String, Object> done = new HashMap<>(data);
+            done.put("success", true);
+            send("done", done);
+            close();
+            emitter.complete();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            try {
+                String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+                send("error", Map.of("success", false, "error", message));
+                close();
+                emitter.complete();
+            } catch (RuntimeException e) {
+                // 客户端已断开，无需再通知
+                close();
+                emitter.completeWithError(error);
+            }
+        }
+
+        private void send(String name, Object data) {
+            if (closed.get()) {
+                throw new UncheckedIOException("会话已结束", new IOException("stream closed"));
+            }
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+            } catch (IOException e) {
+                throw new UncheckedIOException("客户端已断开", e);
+            }
+        }
+    }
+}
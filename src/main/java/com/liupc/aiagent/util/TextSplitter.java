@@ -1,9 +1,18 @@
 package com.liupc.aiagent.util;
 
 import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.splitter.DocumentByLineSplitter;
+import dev.langchain4j.data.document.splitter.DocumentByParagraphSplitter;
+import dev.langchain4j.data.document.splitter.DocumentBySentenceSplitter;
+import dev.langchain4j.data.document.splitter.DocumentByWordSplitter;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.segment.TextSegment;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 将长文本分割为适合向量生成的片段（避免向量丢失细节）
@@ -22,4 +31,262 @@ public class TextSplitter {
         // 递归分割（优先按段落/句子，再按字符长度）
         return DocumentSplitters.recursive(chunkSize, chunkOverlap).split(document);
     }
-}
\ No newline at end of file
+
+    /**
+     * 增量分割器：逐块追加文本，按段落增量执行与 {@link DocumentSplitters#recursive} 相同的分割过程，
+     * 输出与一次性分割完全相同的片段序列（langchain4j 0.27 HierarchicalDocumentSplitter 的段落级循环）
+     * 跨块保留的状态只有正在累积的片段和上一个片段的重叠部分；遇到段落分隔才处理之前的完整段落，
+     * 未结束的段落留在缓冲区。单个段落超过窗口时交给下一级分割器（按行 / 句子 / 词），
+     * 此时每次切分后保留最后一个片段与后续文本一起重新切分，内存占用仍以窗口为上限
+     */
+    public static class StreamingSplitter {
+
+        // 段落分隔（与 DocumentByParagraphSplitter 一致）
+        private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\s*\\R\\s*\\R\\s*");
+
+        private final int chunkSize;
+
+        private final int chunkOverlap;
+
+        private final DocumentByParagraphSplitter paragraphSplitter;
+
+        // 段落放不进一个片段时使用的下一级分割器
+        private final DocumentSplitter subSplitter;
+
+        // 缓冲区达到该长度才切分，内存占用以窗口为上限
+        private final int window;
+
+        // 尚未处理的原始文本（最后一个段落可能未结束）
+        private final StringBuilder buffer = new StringBuilder();
+
+        // 正在累积的片段（未去首尾空白，长度按此计算）
+        private String segment = "";
+
+        // 上一个输出片段末尾的重叠部分；累积的片段只含重叠部分时不再输出
+        private String overlap;
+
+        // 超过窗口的单个段落，正在由下一级分割器增量切分（开头包含累积片段）
+        private StringBuilder oversized;
+
+        private int index;
+
+        public StreamingSplitter(int chunkSize, int chunkOverlap) {
+            this.chunkSize = chunkSize;
+            this.chunkOverlap = chunkOverlap;
+            this.subSplitter = new DocumentByLineSplitter(chunkSize, chunkOverlap, null,
+                    new DocumentBySentenceSplitter(chunkSize, chunkOverlap, null,
+                            new DocumentByWordSplitter(chunkSize, chunkOverlap)));
+            this.paragraphSplitter = new DocumentByParagraphSplitter(chunkSize, chunkOverlap, null, subSplitter);
+            this.window = chunkSize * 8;
+        }
+
+        /**
+         * 追加一块文本
+         * @return 本次可以确定的片段（可能为空）
+         */
+        public List<TextSegment> append(String text) {
+            buffer.append(text);
+            return drain(false);
+        }
+
+        /**
+         * 输入结束，切分缓冲区中剩余的文本
+         */
+        public List<TextSegment> finish() {
+            List<TextSegment> segments = drain(true);
+            if (!segment.isEmpty() && !segment.trim().equals(overlap)) {
+                segments.add(emit(segment.trim()));
+            }
+            segment = "";
+            overlap = null;
+            return segments;
+        }
+
+        private List<TextSegment> drain(boolean finished) {
+            List<TextSegment> segments = new ArrayList<>();
+            if (oversized != null && !continueOversized(finished, segments)) {
+                return segments;
+            }
+
+            if (finished) {
+                if (!buffer.toString().isBlank()) {
+                    for (String part : paragraphSplitter.split(buffer.toString())) {
+                        addParagraph(part, segments);
+                    }
+                }
+                buffer.setLength(0);
+                return segments;
+            }
+
+            // 只处理最后一个段落分隔之前的完整段落；分隔位于末尾时可能还会延续到下一块
+            int breakStart = -1;
+            int breakEnd = -1;
+            Matcher matcher = PARAGRAPH_BREAK.matcher(buffer);
+            while (matcher.find()) {
+                if (matcher.end() < buffer.length()) {
+                    breakStart = matcher.start();
+                    breakEnd = matcher.end();
+                }
+            }
+            if (breakStart >= 0) {
+                for (String part : paragraphSplitter.split(buffer.substring(0, breakStart))) {
+                    addParagraph(part, segments);
+                }
+                buffer.delete(0, breakEnd);
+            }
+
+            if (buffer.length() >= window) {
+                startOversized(segments);
+                continueOversized(false, segments);
+            }
+            return segments;
+        }
+
+        // 将一个段落加入累积的片段，放不下时输出累积的片段，段落本身超过片段大小时交给下一级分割器
+        private void addParagraph(String part, List<TextSegment> segments) {
+            if (hasSpaceFor(part.length())) {
+                appendToSegment(part);
+                return;
+            }
+            if (closeSegment(segments) && hasSpaceFor(part.length())) {
+                appendToSegment(part);
+                return;
+            }
+            appendToSegment(part);
+            List<TextSegment> subSegments = subSplitter.split(Document.from(segment.trim()));
+            for (TextSegment subSegment : subSegments) {
+                segments.add(emit(subSegment.text()));
+            }
+            restartFrom(subSegments.get(subSegments.size() - 1).text());
+        }
+
+        // 输出累积的片段（只含重叠部分时不输出），并以其重叠部分开始下一个片段
+        private boolean closeSegment(List<TextSegment> segments) {
+            if (segment.isEmpty() || segment.trim().equals(overlap)) {
+                return false;
+            }
+            String text = segment.trim();
+            segments.add(emit(text));
+            restartFrom(text);
+            return true;
+        }
+
+        // 缓冲区中未结束的段落已超过窗口：先按整段放不下处理累积的片段，之后由下一级分割器增量切分
+        private void startOversized(List<TextSegment> segments) {
+            closeSegment(segments);
+            oversized = new StringBuilder(segment);
+            if (!segment.isEmpty()) {
+                oversized.append(paragraphSplitter.joinDelimiter());
+            }
+            segment = "";
+        }
+
+        /**
+         * 超长段落的增量切分：段落结束（遇到段落分隔或输入结束）时切分剩余部分，
+         * 否则超过窗口时输出已确定的片段，保留最后一个片段
+         * @return 段落是否已结束
+         */
+        private boolean continueOversized(boolean finished, List<TextSegment> segments) {
+            Matcher matcher = PARAGRAPH_BREAK.matcher(buffer);
+            if (matcher.find() && (finished || matcher.end() < buffer.length())) {
+                oversized.append(buffer, 0, matcher.start());
+                buffer.delete(0, matcher.end());
+            } else if (finished) {
+                oversized.append(buffer);
+                buffer.setLength(0);
+            } else {
+                // 末尾的空白可能是下一个段落分隔的开头，留在缓冲区
+                int end = buffer.length();
+                while (end > 0 && Character.isWhitespace(buffer.charAt(end - 1))) {
+                    end--;
+                }
+                oversized.append(buffer, 0, end);
+                buffer.delete(0, end);
+                if (oversized.length() >= window) {
+                    List<TextSegment> subSegments = subSplitter.split(Document.from(oversized.toString().trim()));
+                    if (subSegments.size() > 1) {
+                        int tailStart = locate(oversized, subSegments.get(subSegments.size() - 1).text());
+                        if (tailStart >= 0) {
+                            for (TextSegment subSegment : subSegments.subList(0, subSegments.size() - 1)) {
+                                segments.add(emit(subSegment.text()));
+                            }
+                            oversized.delete(0, tailStart);
+                        }
+                    }
+                }
+                return false;
+            }
+
+            String text = oversized.toString().trim();
+            oversized = null;
+            if (!text.isEmpty()) {
+                List<TextSegment> subSegments = subSplitter.split(Document.from(text));
+                for (TextSegment subSegment : subSegments) {
+                    segments.add(emit(subSegment.text()));
+                }
+                restartFrom(subSegments.get(subSegments.size() - 1).text());
+            }
+            return true;
+        }
+
+        private boolean hasSpaceFor(int size) {
+            int delimiter = paragraphSplitter.joinDelimiter().length();
+            return size + (segment.isEmpty() ? 0 : segment.length() + delimiter) <= chunkSize;
+        }
+
+        private void appendToSegment(String text) {
+            segment = segment.isEmpty() ? text : segment + paragraphSplitter.joinDelimiter() + text;
+        }
+
+        // 以上一个片段末尾不超过重叠大小的完整句子开始下一个片段
+        private void restartFrom(String previous) {
+            overlap = overlapFrom(previous);
+            segment = "";
+            appendToSegment(overlap);
+        }
+
+        private String overlapFrom(String text) {
+            if (chunkOverlap == 0) {
+                return "";
+            }
+            String[] sentences = ((DocumentBySentenceSplitter) paragraphSplitter.getOverlapSentenceSplitter()).split(text);
+            String delimiter = paragraphSplitter.joinDelimiter();
+            String result = "";
+            for (int i = sentences.length - 1; i >= 0; i--) {
+                String sentence = sentences[i];
+                if (sentence.length() + (result.isEmpty() ? 0 : result.length() + delimiter.length()) > chunkOverlap) {
+                    break;
+                }
+                result = result.isEmpty() ? sentence : sentence + delimiter + result;
+            }
+            return result.trim();
+        }
+
+        private TextSegment emit(String text) {
+            return TextSegment.from(text, Metadata.from("index", String.valueOf(index++)));
+        }
+
+        /**
+         * 片段在缓冲区中的起始位置：分割器会去掉段落首尾空白并以固定分隔符重新拼接，
+         * 片段文本不一定是缓冲区的子串，因此忽略空白比较；片段位于缓冲区末尾，取最后一次出现
+         * @return 找不到时返回 -1
+         */
+        private static int locate(CharSequence buffer, String segment) {
+            StringBuilder compact = new StringBuilder(buffer.length());
+            int[] positions = new int[buffer.length()];
+            for (int i = 0; i < buffer.length(); i++) {
+                char c = buffer.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    positions[compact.length()] = i;
+                    compact.append(c);
+                }
+            }
+            String target = segment.replaceAll("\\s+", "");
+            if (target.isEmpty()) {
+                return -1;
+            }
+            int index = compact.lastIndexOf(target);
+            return index >= 0 ? positions[index] : -1;
+        }
+    }
+}
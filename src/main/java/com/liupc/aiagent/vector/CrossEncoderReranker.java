@@ -0,0 +1,333 @@
+package com.liupc.aiagent.vector;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import com.liupc.aiagent.util.RagMetrics;
+import dev.langchain4j.model.embedding.BertTokenizer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 本地交叉编码器重排：检索取较多候选，用 ONNX 交叉编码器（BERT 结构，WordPiece 词表）对“问题 + 片段”逐对打分，保留得分最高的 K 个
+ * 模型文件和词表不随应用发布，由 rag.rerank.model-path / vocab-path 指定（如 ms-marco-MiniLM-L-6-v2 导出的 ONNX）
+ * 推理按批在 CPU 工作线程（平台线程）上执行；每个请求有时间预算，检索已超出预算时跳过重排，
+ * 重排中途超出预算时停止打分：中止正在执行的推理，已打分的候选按得分排序，不足 K 个时按检索顺序补足
+ */
+@Component
+@Slf4j
+public class CrossEncoderReranker {
+
+    private static final String CLS = "[CLS]";
+
+    private static final String SEP = "[SEP]";
+
+    private final RagMetrics metrics;
+
+    private final boolean enabled;
+
+    // 重排前检索的候选数
+    private final int candidates;
+
+    // 每次推理的“问题 + 片段”对数
+    private final int batchSize;
+
+    // 单个输入对的最大 token 数（含 [CLS] 和两个 [SEP]）
+    private final int maxLength;
+
+    // 从检索开始计算的时间预算
+    private final long budgetMillis;
+
+    private OrtEnvironment environment;
+
+    private OrtSession session;
+
+    private BertTokenizer tokenizer;
+
+    private long clsId;
+
+    private long sepId;
+
+    // 模型是否需要 token_type_ids 输入（部分导出的模型没有该输入）
+    private boolean tokenTypeInput;
+
+    private ExecutorService scoringExecutor;
+
+    @Autowired
+    public CrossEncoderReranker(RagMetrics metrics,
+                                @Value("${rag.rerank.enabled:false}") boolean enabled,
+                                @Value("${rag.rerank.model-path:}") String modelPath,
+                                @Value("${rag.rerank.vocab-path:}") String vocabPath,
+                                @Value("${rag.rerank.candidates:20}") int candidates,
+                                @Value("${rag.rerank.batch-size:8}") int batchSize,
+                                @Value("${rag.rerank.max-length:256}") int maxLength,
+                                @Value("${rag.rerank.budget-ms:300}") long budgetMillis,
+                                @Value("${rag.rerank.threads:2}") int threads) {
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.candidates = candidates;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxLength = maxLength;
+        this.budgetMillis = budgetMillis;
+        if (!enabled) {
+            return;
+        }
+        if (modelPath.isBlank() || vocabPath.isBlank()) {
+            throw new IllegalStateException("启用重排时必须配置 rag.rerank.model-path 和 rag.rerank.vocab-path");
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            this.tokenizer = new BertTokenizer(new File(vocabPath).toURI().toURL());
+            this.clsId = tokenizer.tokenId(CLS);
+            this.sepId = tokenizer.tokenId(SEP);
+            this.environment = OrtEnvironment.getEnvironment();
+            OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+            // 并行度由工作线程数控制，单次推理只用一个线程，避免与嵌入模型争抢 CPU
+            options.setIntraOpNumThreads(1);
+            this.session = environment.createSession(modelPath, options);
+            this.tokenTypeInput = session.getInputNames().contains("token_type_ids");
+        } catch (OrtException | MalformedURLException e) {
+            throw new IllegalStateException("加载重排模型失败: " + e.getMessage(), e);
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.scoringExecutor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "rerank-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("重排模型加载完成 - 模型: {}, 候选数: {}, 批大小: {}, 预算: {} ms, 耗时: {} ms",
+                modelPath, candidates, this.batchSize, budgetMillis, System.currentTimeMillis() - start);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 启用重排时检索的候选数（不少于最终返回数量）
+     */
+    public int candidateCount(int topN) {
+        return enabled ? Math.max(topN, candidates) : topN;
+    }
+
+    /**
+     * 按交叉编码器得分重排候选
+     * @param query 问题原文
+     * @param documents 按检索相关性排列的候选片段
+     * @param topN 保留的数量
+     * @param startNanos 本次检索开始的时间（System.nanoTime），预算从此刻起算
+     * @return 重排后的前 topN 个片段
+     */
+    public List<String> rerank(String query, List<String> documents, int topN, long startNanos) {
+        if (!enabled || documents.size() <= 1) {
+            return documents.subList(0, Math.min(topN, documents.size()));
+        }
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        long rerankStart = System.nanoTime();
+        if (rerankStart >= deadline) {
+            log.debug("检索已超出重排预算，跳过重排");
+            metrics.recordRerank("skipped", 0, 0);
+            return documents.subList(0, Math.min(topN, documents.size()));
+        }
+
+        List<Long> queryTokens = tokenize(query, maxLength / 2);
+        float[] scores = new float[documents.size()];
+        int scored = 0;
+        String outcome = "complete";
+        Termination termination = new Termination();
+        // 按检索顺序分批打分，预算用尽时已打分的是检索最靠前的候选
+        while (scored < documents.size()) {
+            List<String> batch = documents.subList(scored, Math.min(scored + batchSize, documents.size()));
+            Future<float[]> future = scoringExecutor.submit(() -> score(queryTokens, batch, termination));
+            try {
+                float[] batchScores = future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                System.arraycopy(batchScores, 0, scores, scored, batchScores.length);
+                scored += batchScores.length;
+            } catch (TimeoutException e) {
+                // 中断线程不会停止原生推理，需通过 RunOptions 中止，否则超时的推理仍占用打分线程
+                termination.terminate();
+                future.cancel(false);
+                outcome = "partial";
+                break;
+            } catch (InterruptedException e) {
+                termination.terminate();
+                future.cancel(false);
+                Thread.currentThread().interrupt();
+                outcome = "partial";
+                break;
+            } catch (ExecutionException e) {
+                log.warn("重排推理失败，使用检索顺序: {}", e.getCause().getMessage());
+                outcome = "failure";
+                break;
+            }
+        }
+        metrics.recordRerank(outcome, System.nanoTime() - rerankStart, scored);
+        return select(documents, scores, scored, topN);
+    }
+
+    // 已打分的候选按得分降序，未打分的候选按检索顺序排在其后
+    static List<String> select(List<String> documents, float[] scores, int scored, int topN) {
+        List<Integer> order = new ArrayList<>(documents.size());
+        for (int i = 0; i < scored; i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble(i -> -scores[i]));
+        for (int i = scored; i < documents.size(); i++) {
+            order.add(i);
+        }
+        List<String> results = new ArrayList<>(Math.min(topN, documents.size()));
+        for (int i = 0; i < order.size() && results.size() < topN; i++) {
+            results.add(documents.get(order.get(i)));
+        }
+        return results;
+    }
+
+    // 一批“[CLS] 问题 [SEP] 片段 [SEP]”输入，按批内最长序列补齐
+    private float[] score(List<Long> queryTokens, List<String> documents, Termination termination) throws OrtException {
+        int documentLimit = Math.max(1, maxLength - queryTokens.size() - 3);
+        List<long[]> sequences = new ArrayList<>(documents.size());
+        List<Integer> separators = new ArrayList<>(documents.size());
+        int width = 0;
+        for (String document : documents) {
+            List<Long> documentTokens = tokenize(document, documentLimit);
+            long[] ids = new long[queryTokens.size() + documentTokens.size() + 3];
+            int position = 0;
+            ids[position++] = clsId;
+            for (long id : queryTokens) {
+                ids[position++] = id;
+            }
+            ids[position++] = sepId;
+            separators.add(position);
+            for (long id : documentTokens) {
+                ids[position++] = id;
+            }
+            ids[position] = sepId;
+            sequences.add(ids);
+            width = Math.max(width, ids.length);
+        }
+
+        long[][] inputIds = new long[documents.size()][width];
+        long[][] attentionMask = new long[documents.size()][width];
+        long[][] tokenTypeIds = new long[documents.size()][width];
+        for (int row = 0; row < sequences.size(); row++) {
+            long[] ids = sequences.get(row);
+            System.arraycopy(ids, 0, inputIds[row], 0, ids.length);
+            for (int column = 0; column < ids.length; column++) {
+                attentionMask[row][column] = 1;
+                // 第二段（片段及结尾的 [SEP]）的 token_type 为 1
+                tokenTypeIds[row][column] = column >= separators.get(row) ? 1 : 0;
+            }
+        }
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        try {
+            inputs.put("input_ids", OnnxTensor.createTensor(environment, inputIds));
+            inputs.put("attention_mask", OnnxTensor.createTensor(environment, attentionMask));
+            if (tokenTypeInput) {
+                inputs.put("token_type_ids", OnnxTensor.createTensor(environment, tokenTypeIds));
+            }
+            try (OrtSession.RunOptions runOptions = new OrtSession.RunOptions()) {
+                if (!termination.start(runOptions)) {
+                    throw new CancellationException("重排已超出预算");
+                }
+                try (OrtSession.Result result = session.run(inputs, runOptions)) {
+                    return toScores(result.get(0).getValue(), documents.size());
+                } finally {
+                    termination.finish();
+                }
+            }
+        } finally {
+            inputs.values().forEach(OnnxTensor::close);
+        }
+    }
+
+    // 输出为 [batch, 1] 的 logits（或 [batch]）；二分类模型 [batch, 2] 取最后一列（相关类）
+    static float[] toScores(Object output, int size) {
+        float[] scores = new float[size];
+        if (output instanceof float[][] logits) {
+            for (int i = 0; i < size; i++) {
+                scores[i] = logits[i][logits[i].length - 1];
+            }
+        } else if (output instanceof float[] logits) {
+            System.arraycopy(logits, 0, scores, 0, size);
+        } else {
+            throw new IllegalStateException("不支持的重排模型输出类型: " + output.getClass().getSimpleName());
+        }
+        return scores;
+    }
+
+    private List<Long> tokenize(String text, int limit) {
+        List<String> tokens = tokenizer.tokenize(text);
+        List<Long> ids = new ArrayList<>(Math.min(limit, tokens.size()));
+        for (int i = 0; i < tokens.size() && ids.size() < limit; i++) {
+            ids.add(tokenizer.tokenId(tokens.get(i)));
+        }
+        return ids;
+    }
+
+    /**
+     * 一次重排的中止开关：超出预算后中止正在执行的推理，尚未开始的批次不再执行
+     * RunOptions 由打分线程创建和关闭，登记与中止在同一把锁下进行，不会中止已关闭的 RunOptions
+     */
+    private static class Termination {
+
+        private boolean terminated;
+
+        private OrtSession.RunOptions running;
+
+        private synchronized boolean start(OrtSession.RunOptions runOptions) {
+            if (terminated) {
+                return false;
+            }
+            running = runOptions;
+            return true;
+        }
+
+        private synchronized void finish() {
+            running = null;
+        }
+
+        private synchronized void terminate() {
+            terminated = true;
+            if (running != null) {
+                try {
+                    running.setTerminate(true);
+                } catch (OrtException e) {
+                    log.warn("中止重排推理失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws OrtException {
+        if (scoringExecutor != null) {
+            scoringExecutor.shutdownNow();
+        }
+        if (session != null) {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.liupc.aiagent.vector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 HNSW 图索引（分层可导航小世界图），全部使用基本类型数组存储：
+ * 向量按页保存在 float[] 中，邻接表为 int[]（首元素为邻居数），避免对象和装箱开销
+ * 距离语义与 pgvector 运算符一致：cosine 为 1 - 余弦相似度，l2 为欧氏距离，inner_product 为负内积
+ * 插入持有写锁（单个节点粒度），查询持有读锁，可在查询的同时增量插入
+ * 删除只打墓碑标记：被删节点仍参与图的导航，但不进入查询结果（结果队列只收未删除节点，
+ * 相当于按墓碑数量扩大搜索范围，仍返回 k 个结果）；墓碑过多时由调用方重建索引
+ */
+public class HnswIndex {
+
+    // 每页向量数（2^10），扩容时只追加新页，不复制已有向量
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final int MAX_LEVEL = 16;
+
+    private final int dimension;
+    private final VectorMetric metric;
+
+    // 上层每个节点的最大邻居数，第 0 层为其两倍
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[][] vectorPages = new float[0][];
+    private long[] ids = new long[PAGE_SIZE];
+    // neighbors[node][level] = {count, n1, n2, ...}
+    private int[][][] neighbors = new int[PAGE_SIZE][][];
+
+    private int size;
+    // 已删除（墓碑）的节点
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    // 保留的访问标记数上限（超出部分用完即丢弃）
+    private static final int MAX_POOLED_MARKS = Runtime.getRuntime().availableProcessors() * 2;
+
+    // 查询时的访问标记（各线程共用的池，借出后归还，通过递增 epoch 免清零）；
+    // 请求运行在虚拟线程上，每个请求都是新线程，按线程缓存无法复用
+    private final ConcurrentLinkedQueue<VisitedMarks> visitedMarksPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledMarks = new AtomicInteger();
+
+    public HnswIndex(int dimension, VectorMetric metric, int m, int efConstruction) {
+        this.dimension = dimension;
+        this.metric = metric;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(Math.max(m, 2));
+    }
+
+    /**
+     * 未删除的向量数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已删除但仍留在图中的向量数
+     */
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public VectorMetric metric() {
+        return metric;
+    }
+
+    /**
+     * 插入一个向量
+     * @param id 文档ID（rag_documents.id）
+     */
+    public void add(long id, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配：期望 " + dimension + "，实际 " + vector.length);
+        }
+        int level = randomLevel();
+        lock.writeLock().lock();
+        try {
+            int node = allocate(id, prepare(vector), level);
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            float[] page = vectorPages[node >>> PAGE_BITS];
+            int offset = (node & PAGE_MASK) * dimension;
+
+            // 从顶层贪心下降到节点所在层的上一层
+            int current = entryPoint;
+            float currentDistance = distance(page, offset, current);
+            for (int l = maxLevel; l > level; l--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    int[] links = neighbors[current][l];
+                    for (int i = 1; i <= links[0]; i++) {
+                        float d = distance(page, offset, links[i]);
+                        if (d < currentDistance) {
+                            currentDistance = d;
+                            current = links[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            // 在节点所在的每一层搜索近邻并双向连接
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NodeHeap candidates = searchLayer(page, offset, current, currentDistance, efConstruction, l, false);
+                int maxM = l == 0 ? maxM0 : m;
+                int[] selected = selectNeighbors(candidates, m);
+                int[] links = neighbors[node][l];
+                for (int neighbor : selected) {
+                    links[++links[0]] = neighbor;
+                    connect(neighbor, node, l, maxM);
+                }
+                // 下一层以本层最近的候选为入口
+                current = candidates.nearest();
+                currentDistance = candidates.nearestDistance();
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除向量（打墓碑标记，之后的查询不再返回）
+     * @param documentIds 文档ID，不在索引中的忽略
+     * @return 实际删除的数量
+     */
+    public int delete(Collection<Long> documentIds) {
+        Set<Long> targets = new HashSet<>(documentIds);
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int node = 0; node < size && removed < targets.size(); node++) {
+                if (!deleted.get(node) && targets.contains(ids[node])) {
+                    deleted.set(node);
+                    removed++;
+                }
+            }
+            deletedCount += removed;
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询最近的 k 个向量
+     * @param ef 搜索候选队列大小（越大召回越高、越慢），小于 k 时按 k 处理
+     * @return 按距离升序排列的命中结果
+     */
+    public List<Hit> search(float[] query, int k, int ef) {
+        float[] prepared = prepare(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return new ArrayList<>();
+            }
+            int current = entryPoint;
+            float currentDistance = distance(prepared, 0, current);
+            for (int l = maxLevel; l > 0; l--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    int[] links = neighbors[current][l];
+                    for (int i = 1; i <= links[0]; i++) {
+                        float d = distance(prepared, 0, links[i]);
+                        if (d < currentDistance) {
+                            currentDistance = d;
+                            current = links[i];
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            NodeHeap results = searchLayer(prepared, 0, current, currentDistance, Math.max(ef, k), 0, deletedCount > 0);
+            int count = Math.min(k, results.size());
+            int[] nodes = new int[results.size()];
+            float[] distances = new float[results.size()];
+            results.drainAscending(nodes, distances);
+            List<Hit> hits = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                hits.add(new Hit(ids[nodes[i]], distances[i]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 在指定层做最佳优先搜索，返回最多 ef 个最近节点（大顶堆）；skipDeleted 时被删节点只用于导航，不进入结果
+    private NodeHeap searchLayer(float[] query, int queryOffset, int entry, float entryDistance, int ef, int level,
+                                 boolean skipDeleted) {
+        VisitedMarks visited = borrowVisitedMarks();
+        try {
+            return searchLayer(query, queryOffset, entry, entryDistance, ef, level, skipDeleted, visited);
+        } finally {
+            returnVisitedMarks(visited);
+        }
+    }
+
+    private NodeHeap searchLayer(float[] query, int queryOffset, int entry, float entryDistance, int ef, int level,
+                                 boolean skipDeleted, VisitedMarks visited) {
+        visited.reset(size);
+        visited.mark(entry);
+
+        NodeHeap candidates = new NodeHeap(false, ef * 2);
+        NodeHeap results = new NodeHeap(true, ef + 1);
+        candidates.push(entry, entryDistance);
+        if (!skipDeleted || !deleted.get(entry)) {
+            results.push(entry, entryDistance);
+        }
+
+        while (candidates.size() > 0) {
+            float closest = candidates.peekDistance();
+            if (results.size() >= ef && closest > results.peekDistance()) {
+                break;
+            }
+            int node = candidates.pop();
+            int[] links = neighbors[node][level];
+            for (int i = 1; i <= links[0]; i++) {
+                int neighbor = links[i];
+                if (!visited.mark(neighbor)) {
+                    continue;
+                }
+                float d = distance(query, queryOffset, neighbor);
+                if (results.size() < ef || d < results.peekDistance()) {
+                    candidates.push(neighbor, d);
+                    if (skipDeleted && deleted.get(neighbor)) {
+                        continue;
+                    }
+                    results.push(neighbor, d);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private VisitedMarks borrowVisitedMarks() {
+        VisitedMarks marks = visitedMarksPool.poll();
+        if (marks == null) {
+            return new VisitedMarks();
+        }
+        pooledMarks.decrementAndGet();
+        return marks;
+    }
+
+    private void returnVisitedMarks(VisitedMarks marks) {
+        if (pooledMarks.incrementAndGet() <= MAX_POOLED_MARKS) {
+            visitedMarksPool.offer(marks);
+        } else {
+            pooledMarks.decrementAndGet();
+        }
+    }
+
+    // 启发式选择邻居：优先保留与已选邻居方向不同的候选，不足时用被剔除的候选补齐
+    private int[] selectNeighbors(NodeHeap candidates, int maxCount) {
+        int total = candidates.size();
+        int[] nodes = new int[total];
+        float[] distances = new float[total];
+        candidates.copyAscending(nodes, distances);
+        if (total <= maxCount) {
+            return nodes;
+        }
+
+        int[] selected = new int[maxCount];
+        int selectedCount = 0;
+        int[] pruned = new int[total];
+        int prunedCount = 0;
+        for (int i = 0; i < total && selectedCount < maxCount; i++) {
+            int candidate = nodes[i];
+            float[] page = vectorPages[candidate >>> PAGE_BITS];
+            int offset = (candidate & PAGE_MASK) * dimension;
+            boolean keep = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (distance(page, offset, selected[j]) < distances[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[selectedCount++] = candidate;
+            } else {
+                pruned[prunedCount++] = candidate;
+            }
+        }
+        for (int i = 0; i < prunedCount && selectedCount < maxCount; i++) {
+            selected[selectedCount++] = pruned[i];
+        }
+        return Arrays.copyOf(selected, selectedCount);
+    }
+
+    // 为已有节点追加反向连接，超过上限时淘汰最远的邻居
+    private void connect(int node, int newNeighbor, int level, int maxM) {
+        int[] links = neighbors[node][level];
+        if (links[0] < maxM) {
+            links[++links[0]] = newNeighbor;
+            return;
+        }
+        float[] page = vectorPages[node >>> PAGE_BITS];
+        int offset = (node & PAGE_MASK) * dimension;
+        NodeHeap candidates = new NodeHeap(true, maxM + 1);
+        for (int i = 1; i <= links[0]; i++) {
+            candidates.push(links[i], distance(page, offset, links[i]));
+        }
+        candidates.push(newNeighbor, distance(page, offset, newNeighbor));
+        // 只保留最近的 maxM 个（弹出最远者），避免每次插入都做启发式的平方级比较
+        candidates.pop();
+        int count = candidates.size();
+        for (int i = count; i >= 1; i--) {
+            links[i] = candidates.pop();
+        }
+        links[0] = count;
+    }
+
+    private int allocate(long id, float[] vector, int level) {
+        int node = size;
+        int pageIndex = node >>> PAGE_BITS;
+        if (pageIndex >= vectorPages.length) {
+            vectorPages = Arrays.copyOf(vectorPages, pageIndex + 1);
+            vectorPages[pageIndex] = new float[PAGE_SIZE * dimension];
+        }
+        if (node >= ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            neighbors = Arrays.copyOf(neighbors, neighbors.length * 2);
+        }
+        System.arraycopy(vector, 0, vectorPages[pageIndex], (node & PAGE_MASK) * dimension, dimension);
+        ids[node] = id;
+        int[][] levels = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            levels[l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        neighbors[node] = levels;
+        size++;
+        return node;
+    }
+
+    private int randomLevel() {
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        return Math.min((int) (-Math.log(random) * levelMultiplier), MAX_LEVEL);
+    }
+
+    // 余弦距离预先归一化，查询时只需计算内积
+    private float[] prepare(float[] vector) {
+        if (metric != VectorMetric.COSINE) {
+            return vector;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                normalized[i] = (float) (vector[i] / norm);
+            }
+        }
+        return normalized;
+    }
+
+    private float distance(float[] query, int queryOffset, int node) {
+        float[] page = vectorPages[node >>> PAGE_BITS];
+        int offset = (node & PAGE_MASK) * dimension;
+        switch (metric) {
+            case L2:
+                return (float) Math.sqrt(squaredL2(query, queryOffset, page, offset));
+            case INNER_PRODUCT:
+                return -dot(query, queryOffset, page, offset);
+            default:
+                return 1 - dot(query, queryOffset, page, offset);
+        }
+    }
+
+    // 四路累加减少浮点加法的依赖链
+    private float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = dimension & ~3; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private float squaredL2(float[] a, int aOffset, float[] b, int bOffset) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = dimension & ~3; i < bound; i += 4) {
+            float d0 = a[aOffset + i] - b[bOffset + i];
+            float d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            float d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+            float d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < dimension; i++) {
+            float d = a[aOffset + i] - b[bOffset + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 查询命中（文档ID + 距离）
+     */
+    public static class Hit {
+        private final long id;
+        private final double distance;
+
+        public Hit(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+    }
+
+    // 基本类型二叉堆（节点 + 距离），maxHeap 为 true 时堆顶为最远节点
+    private static class NodeHeap {
+        private final boolean maxHeap;
+        private int[] nodes;
+        private float[] distances;
+        private int size;
+
+        NodeHeap(boolean maxHeap, int capacity) {
+            this.maxHeap = maxHeap;
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.distances = new float[nodes.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekDistance() {
+            return distances[0];
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(distance, distances[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            int lastNode = nodes[size];
+            float lastDistance = distances[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(distances[child + 1], distances[child])) {
+                    child++;
+                }
+                if (!before(distances[child], lastDistance)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            distances[i] = lastDistance;
+            return top;
+        }
+
+        // 最近的节点（大顶堆中需遍历）
+        int nearest() {
+            return nodes[nearestIndex()];
+        }
+
+        float nearestDistance() {
+            return distances[nearestIndex()];
+        }
+
+        private int nearestIndex() {
+            int best = 0;
+            for (int i = 1; i < size; i++) {
+                if (distances[i] < distances[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        // 按距离升序复制（不改变堆）
+        void copyAscending(int[] outNodes, float[] outDistances) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(distances[a], distances[b]));
+            for (int i = 0; i < size; i++) {
+                outNodes[i] = nodes[order[i]];
+                outDistances[i] = distances[order[i]];
+            }
+        }
+
+        // 按距离升序取出全部节点（清空堆）
+        void drainAscending(int[] outNodes, float[] outDistances) {
+            int count = size;
+            if (maxHeap) {
+                for (int i = count - 1; i >= 0; i--) {
+                    outDistances[i] = distances[0];
+                    outNodes[i] = pop();
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    outDistances[i] = distances[0];
+                    outNodes[i] = pop();
+                }
+            }
+        }
+
+        private boolean before(float a, float b) {
+            return maxHeap ? a > b : a < b;
+        }
+    }
+
+    // 访问标记：marks[node] == epoch 表示本次查询已访问
+    private static class VisitedMarks {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                epoch = 0;
+            }
+            epoch++;
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        // 首次访问返回 true
+        boolean mark(int node) {
+            if (marks[node] == epoch) {
+                return false;
+            }
+            marks[node] = epoch;
+            return true;
+        }
+    }
+}
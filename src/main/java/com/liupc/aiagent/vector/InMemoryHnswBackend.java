@@ -0,0 +1,411 @@
+package com.liupc.aiagent.vector;
+
+import com.liupc.aiagent.util.RagMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 进程内 HNSW 检索后端：启动时将 rag_documents 的 id 和向量加载到内存图索引，
+ * 查询在本地完成，只按 id 回表读取最终命中的文本；新文档提交后按 id 增量加载
+ * 索引未加载完成前委托给 pgvector 后端，保证检索可用；内存索引不含元数据，带过滤条件的检索同样委托给 pgvector
+ * 增量加载只扫描高水位（已加载的最大 id）之后的 id；并发入库时自增 id 的提交顺序与分配顺序不一致，
+ * 高水位以下尚未出现的 id 记为待补齐，之后的增量加载一并查询，超过保留时间仍未出现的按回滚或已删除处理
+ * 重新入库删除的旧片段在索引中打墓碑标记，不再占用 topN 的名额；墓碑超过一定比例时后台重建索引
+ */
+@Component
+@Slf4j
+public class InMemoryHnswBackend implements VectorSearchBackend {
+
+    public static final String NAME = "hnsw";
+
+    private static final int LOAD_FETCH_SIZE = 1000;
+
+    // 增量加载时每次按 id 回表读取向量的数量
+    private static final int LOAD_BATCH = 500;
+
+    // 全量加载后只把高水位以下这一范围内的空缺记为待补齐（更早的空缺是已删除的文档）
+    private static final int PENDING_WINDOW = 10_000;
+
+    // 待补齐 id 的保留时间和数量上限（长事务入库的 id 可能在较大的 id 提交很久之后才提交）
+    private static final long PENDING_TTL_MILLIS = 30 * 60 * 1000L;
+    private static final int MAX_PENDING = 100_000;
+
+    // 墓碑占比超过该值时重建索引（被删节点仍参与导航，过多会拖慢查询）
+    private static final double REBUILD_DELETED_RATIO = 0.2;
+
+    // 加载向量使用写入池（主库，增量加载能读到刚提交的文档）
+    private final DataSource dataSource;
+
+    // 查询时按 id 回表读取文本使用查询池（副本短暂延迟时最新文档的文本可能暂缺，按已删除处理）
+    private final DataSource readDataSource;
+
+    private final PgvectorSchemaManager schemaManager;
+
+    private final PgvectorSearchBackend fallback;
+
+    private final RagMetrics metrics;
+
+    @Value("${rag.retriever.backend:pgvector}")
+    private String configuredBackend;
+
+    @Value("${rag.index.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${rag.index.hnsw.ef-construction:64}")
+    private int hnswEfConstruction;
+
+    @Value("${rag.search.hnsw.ef-search:40}")
+    private int defaultEfSearch;
+
+    @Value("${rag.search.hybrid.candidates:20}")
+    private int hybridCandidates;
+
+    private volatile HnswIndex index;
+
+    // 全量加载完成后才对外提供检索
+    private volatile boolean ready;
+
+    // 已加载的最大文档ID（仅在加载线程中访问）
+    private int highWaterMark;
+
+    // 高水位以下尚未出现的文档ID -> 发现空缺的时间，按发现顺序排列（仅在加载线程中访问）
+    private final Map<Integer, Long> pendingIds = new LinkedHashMap<>();
+
+    // 加载任务串行执行（启动全量加载、入库后增量加载）
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hnsw-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public InMemoryHnswBackend(DataSource dataSource, @Qualifier("readDataSource") DataSource readDataSource,
+                               PgvectorSchemaManager schemaManager, PgvectorSearchBackend fallback, RagMetrics metrics) {
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
+        this.schemaManager = schemaManager;
+        this.fallback = fallback;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    /**
+     * 选择本后端时，应用启动后在后台加载全部向量
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (NAME.equalsIgnoreCase(configuredBackend.trim())) {
+            loader.execute(this::loadAll);
+        }
+    }
+
+    @Override
+    public List<String> search(float[] queryVector, int topN, double distanceThreshold, SearchFilter filter,
+                               Integer efSearch, Integer probes) throws SQLException {
+        HnswIndex current = index;
+        if (!ready || current == null || !filter.isEmpty()) {
+            log.debug("HNSW 索引尚未加载完成或查询带过滤条件，使用 pgvector 检索");
+            return fallback.search(queryVector, topN, distanceThreshold, filter, efSearch, probes);
+        }
+
+        List<HnswIndex.Hit> hits = current.search(queryVector, topN, efSearch != null ? efSearch : defaultEfSearch);
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (HnswIndex.Hit hit : hits) {
+            if (hit.getDistance() < distanceThreshold) {
+                ids.add(hit.getId());
+                metrics.recordDistance(NAME, hit.getDistance());
+            }
+        }
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return fetchTexts(ids);
+    }
+
+    /**
+     * 每个向量在本地检索，所有命中的文本在一次回表查询中读取
+     */
+    @Override
+    public List<List<String>> searchBatch(List<float[]> queryVectors, int topN, double distanceThreshold,
+                                          SearchFilter filter, Integer efSearch, Integer probes) throws SQLException {
+        HnswIndex current = index;
+        if (!ready || current == null || !filter.isEmpty()) {
+            return fallback.searchBatch(queryVectors, topN, distanceThreshold, filter, efSearch, probes);
+        }
+
+        List<List<Long>> idLists = new ArrayList<>(queryVectors.size());
+        Set<Long> allIds = new LinkedHashSet<>();
+        for (float[] queryVector : queryVectors) {
+            List<Long> ids = new ArrayList<>();
+            for (HnswIndex.Hit hit : current.search(queryVector, topN, efSearch != null ? efSearch : defaultEfSearch)) {
+                if (hit.getDistance() < distanceThreshold) {
+                    ids.add(hit.getId());
+                    metrics.recordDistance(NAME, hit.getDistance());
+                }
+            }
+            idLists.add(ids);
+            allIds.addAll(ids);
+        }
+
+        Map<Long, String> texts = allIds.isEmpty() ? Map.of() : fetchTextMap(allIds);
+        List<List<String>> results = new ArrayList<>(idLists.size());
+        for (List<Long> ids : idLists) {
+            results.add(inOrder(ids, texts));
+        }
+        return results;
+    }
+
+    @Override
+    public List<String> hybridSearch(String queryText, float[] queryVector, int topN, double distanceThreshold,
+                                     SearchFilter filter, Integer efSearch, Integer probes) throws SQLException {
+        HnswIndex current = index;
+        if (!ready || current == null || !filter.isEmpty()) {
+            return fallback.hybridSearch(queryText, queryVector, topN, distanceThreshold, filter, efSearch, probes);
+        }
+        // 向量候选在本地计算，全文候选、融合和取文本仍在一次数据库往返中完成
+        int candidates = Math.max(topN, hybridCandidates);
+        List<HnswIndex.Hit> hits = current.search(queryVector, candidates,
+                Math.max(efSearch != null ? efSearch : defaultEfSearch, candidates));
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (HnswIndex.Hit hit : hits) {
+            if (hit.getDistance() < distanceThreshold) {
+                ids.add(hit.getId());
+            }
+        }
+        return fallback.hybridSearchWithVectorHits(queryText, ids, topN);
+    }
+
+    @Override
+    public void documentsChanged() {
+        // 加载线程串行执行，全量加载期间提交的文档在其完成后补齐
+        if (NAME.equalsIgnoreCase(configuredBackend.trim())) {
+            loader.execute(this::loadIncrement);
+        }
+    }
+
+    @Override
+    public void documentsDeleted(Collection<Long> documentIds) {
+        // 与加载任务串行：全量加载期间删除的文档在加载完成后再移除
+        if (NAME.equalsIgnoreCase(configuredBackend.trim())) {
+            List<Long> ids = List.copyOf(documentIds);
+            loader.execute(() -> removeDeleted(ids));
+        }
+    }
+
+    @Override
+    public void documentsReloaded() {
+        // 全量重建，完成前旧索引继续提供检索；已删除文档回表时读不到文本，不会出现在结果中
+        if (NAME.equalsIgnoreCase(configuredBackend.trim())) {
+            loader.execute(this::loadAll);
+        }
+    }
+
+    /**
+     * 索引状态
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> result = new HashMap<>();
+        HnswIndex current = index;
+        result.put("ready", ready);
+        result.put("size", current != null ? current.size() : 0);
+        result.put("deleted", current != null ? current.deletedCount() : 0);
+        return result;
+    }
+
+    // 按 id 回表读取文本，保持命中的距离顺序
+    private List<String> fetchTexts(List<Long> ids) throws SQLException {
+        return inOrder(ids, fetchTextMap(ids));
+    }
+
+    private Map<Long, String> fetchTextMap(Collection<Long> ids) throws SQLException {
+        Map<Long, String> texts = new HashMap<>();
+        try (Connection conn = readDataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT id, text FROM rag_documents WHERE id = ANY(?)")) {
+            Array idArray = conn.createArrayOf("bigint", ids.toArray());
+            pstmt.setArray(1, idArray);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    texts.put(rs.getLong("id"), rs.getString("text"));
+                }
+            }
+        }
+        return texts;
+    }
+
+    private static List<String> inOrder(List<Long> ids, Map<Long, String> texts) {
+        List<String> results = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            String text = texts.get(id);
+            // 文档可能已被删除
+            if (text != null) {
+                results.add(text);
+            }
+        }
+        return results;
+    }
+
+    private void loadAll() {
+        long start = System.currentTimeMillis();
+        HnswIndex building = new HnswIndex(384, schemaManager.metric(), hnswM, hnswEfConstruction);
+        BitSet buildingIds = new BitSet();
+        int maxId = 0;
+        int loaded = 0;
+        try (Connection conn = dataSource.getConnection()) {
+            PgvectorCodec.register(conn);
+            // 关闭自动提交后 fetchSize 才会使用游标，避免一次性读入全部结果
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement("SELECT id, embedding FROM rag_documents")) {
+                pstmt.setFetchSize(LOAD_FETCH_SIZE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt("id");
+                        building.add(id, PgvectorCodec.read(rs, "embedding"));
+                        buildingIds.set(id);
+                        maxId = Math.max(maxId, id);
+                        loaded++;
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.warn("HNSW 索引加载失败，继续使用 pgvector 检索: {}", e.getMessage());
+            return;
+        }
+        index = building;
+        highWaterMark = maxId;
+        pendingIds.clear();
+        trackGaps(buildingIds, Math.max(maxId - PENDING_WINDOW, 0), maxId);
+        ready = true;
+        log.info("HNSW 索引加载完成 - 向量数: {}, 度量: {}, 耗时: {} ms",
+                loaded, schemaManager.metric(), System.currentTimeMillis() - start);
+    }
+
+    private void removeDeleted(List<Long> ids) {
+        HnswIndex current = index;
+        if (current == null) {
+            return;
+        }
+        int removed = current.delete(ids);
+        for (Long id : ids) {
+            pendingIds.remove(id.intValue());
+        }
+        int deleted = current.deletedCount();
+        log.info("HNSW 索引移除 {} 个已删除的向量，墓碑共 {} 个", removed, deleted);
+        if (deleted > (current.size() + deleted) * REBUILD_DELETED_RATIO) {
+            // 重建期间旧索引继续提供检索
+            log.info("HNSW 索引墓碑占比超过 {}，后台重建", REBUILD_DELETED_RATIO);
+            loadAll();
+        }
+    }
+
+    private void loadIncrement() {
+        if (!ready) {
+            return;
+        }
+        try {
+            List<Integer> missing = findMissingIds();
+            int previousHighWaterMark = highWaterMark;
+            BitSet loaded = new BitSet();
+            for (int from = 0; from < missing.size(); from += LOAD_BATCH) {
+                loadByIds(missing.subList(from, Math.min(from + LOAD_BATCH, missing.size())), loaded);
+            }
+            for (int id = loaded.nextSetBit(0); id >= 0; id = loaded.nextSetBit(id + 1)) {
+                pendingIds.remove(id);
+                highWaterMark = Math.max(highWaterMark, id);
+            }
+            trackGaps(loaded, previousHighWaterMark, highWaterMark);
+            log.info("HNSW 索引增量加载 {} 个向量，当前共 {} 个，高水位 {}，待补齐 {} 个",
+                    loaded.cardinality(), index.size(), highWaterMark, pendingIds.size());
+        } catch (SQLException e) {
+            log.warn("HNSW 索引增量加载失败: {}", e.getMessage());
+        }
+    }
+
+    // 只扫描高水位之后的 id 和待补齐的 id（走主键索引），找出尚未加载的文档
+    private List<Integer> findMissingIds() throws SQLException {
+        expirePendingIds();
+        List<Integer> missing = new ArrayList<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "SELECT id FROM rag_documents WHERE id > ? OR id = ANY(?)")) {
+            pstmt.setInt(1, highWaterMark);
+            pstmt.setArray(2, conn.createArrayOf("integer", pendingIds.keySet().toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    missing.add(rs.getInt(1));
+                }
+            }
+        }
+        return missing;
+    }
+
+    // (from, to) 范围内未加载的 id 记为待补齐：可能属于尚未提交的事务
+    private void trackGaps(BitSet loaded, int from, int to) {
+        long now = System.currentTimeMillis();
+        for (int id = loaded.nextClearBit(from + 1); id < to; id = loaded.nextClearBit(id + 1)) {
+            pendingIds.putIfAbsent(id, now);
+        }
+        Iterator<Integer> oldest = pendingIds.keySet().iterator();
+        while (pendingIds.size() > MAX_PENDING) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void expirePendingIds() {
+        long expiredBefore = System.currentTimeMillis() - PENDING_TTL_MILLIS;
+        pendingIds.values().removeIf(foundAt -> foundAt < expiredBefore);
+    }
+
+    private void loadByIds(List<Integer> ids, BitSet loaded) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                     "SELECT id, embedding FROM rag_documents WHERE id = ANY(?)")) {
+            PgvectorCodec.register(conn);
+            pstmt.setArray(1, conn.createArrayOf("integer", ids.toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    index.add(id, PgvectorCodec.read(rs, "embedding"));
+                    loaded.set(id);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+}
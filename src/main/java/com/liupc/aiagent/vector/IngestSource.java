@@ -0,0 +1,54 @@
+package com.liupc.aiagent.vector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 入库来源文件及其元数据（写入 rag_sources，并冗余到每个片段上用于过滤检索）
+ */
+public class IngestSource {
+
+    public static final String DEFAULT_COLLECTION = "default";
+
+    private final String name;
+    private final String fileHash;
+    private final String collection;
+    private final List<String> tags;
+
+    /**
+     * @param name 来源名称（上传时的文件名）
+     * @param fileHash 文件内容哈希
+     * @param collection 所属集合，为空时使用 default
+     * @param tags 标签，可为空
+     */
+    public IngestSource(String name, String fileHash, String collection, List<String> tags) {
+        this.name = name;
+        this.fileHash = fileHash;
+        this.collection = collection == null || collection.isBlank() ? DEFAULT_COLLECTION : collection.trim();
+        List<String> tagList = new ArrayList<>();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (tag != null && !tag.isBlank() && !tagList.contains(tag.trim())) {
+                    tagList.add(tag.trim());
+                }
+            }
+        }
+        this.tags = List.copyOf(tagList);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFileHash() {
+        return fileHash;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+}
@@ -0,0 +1,158 @@
+package com.liupc.aiagent.vector;
+
+import org.postgresql.PGConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * pgvector 的 vector 类型编解码（基于 float[]，避免 List&lt;Float&gt; 装箱和字符串拼接）
+ * 连接注册后 pgjdbc 对 vector 参数和结果列使用二进制协议：
+ * int16 维度 + int16 保留位 + 维度个 float4（网络字节序）
+ */
+public final class PgvectorCodec {
+
+    public static final String TYPE = "vector";
+
+    private PgvectorCodec() {
+    }
+
+    /**
+     * 在物理连接上注册 vector 类型，开启二进制收发（重复调用开销很小）
+     */
+    public static void register(Connection conn) throws SQLException {
+        conn.unwrap(PGConnection.class).addDataType(TYPE, VectorValue.class);
+    }
+
+    /**
+     * 绑定向量参数，SQL 中直接写 ? 即可，无需 ?::vector
+     */
+    public static void bind(PreparedStatement pstmt, int index, float[] vector) throws SQLException {
+        pstmt.setObject(index, new VectorValue(vector));
+    }
+
+    /**
+     * 读取向量列（兼容二进制与文本两种返回格式）
+     */
+    public static float[] read(ResultSet rs, String column) throws SQLException {
+        Object value = rs.getObject(column);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof VectorValue) {
+            return ((VectorValue) value).toArray();
+        }
+        return parse(value.toString());
+    }
+
+    /**
+     * 转为 pgvector 文本格式 [x1,x2,...]（仅用于未开启二进制传输时的回退和调试）
+     */
+    public static String toLiteral(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 12 + 2);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 解析 pgvector 文本格式
+     */
+    public static float[] parse(String literal) {
+        String body = literal.trim();
+        body = body.substring(1, body.length() - 1);
+        if (body.isEmpty()) {
+            return new float[0];
+        }
+        int count = 1;
+        for (int i = 0; i < body.length(); i++) {
+            if (body.charAt(i) == ',') {
+                count++;
+            }
+        }
+        float[] vector = new float[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = body.indexOf(',', start);
+            if (end < 0) {
+                end = body.length();
+            }
+            vector[i] = Float.parseFloat(body.substring(start, end).trim());
+            start = end + 1;
+        }
+        return vector;
+    }
+
+    /**
+     * pgjdbc 自定义类型：需保留 public 无参构造，供驱动在读取结果时实例化
+     */
+    public static class VectorValue extends PGobject implements PGBinaryObject {
+
+        private float[] vector;
+
+        public VectorValue() {
+            setType(TYPE);
+        }
+
+        public VectorValue(float[] vector) {
+            this();
+            this.vector = vector;
+        }
+
+        public float[] toArray() {
+            return vector;
+        }
+
+        @Override
+        public void setValue(String value) throws SQLException {
+            this.vector = value == null ? null : parse(value);
+        }
+
+        @Override
+        public String getValue() {
+            return vector == null ? null : toLiteral(vector);
+        }
+
+        @Override
+        public boolean isNull() {
+            return vector == null;
+        }
+
+        @Override
+        public void setByteValue(byte[] bytes, int offset) throws SQLException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+            int dimensions = buffer.getShort();
+            buffer.getShort(); // 保留位
+            float[] values = new float[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                values[i] = buffer.getFloat();
+            }
+            this.vector = values;
+        }
+
+        @Override
+        public int lengthInBytes() {
+            return vector == null ? 0 : 4 + 4 * vector.length;
+        }
+
+        @Override
+        public void toBytes(byte[] bytes, int offset) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, lengthInBytes());
+            buffer.putShort((short) vector.length);
+            buffer.putShort((short) 0);
+            for (float v : vector) {
+                buffer.putFloat(v);
+            }
+        }
+    }
+}
@@ -1,36 +1,29 @@
 package com.liupc.aiagent.vector;
 
 
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.embedding.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.embedding.EmbeddingModel;
+import com.liupc.aiagent.service.EmbeddingService;
+import com.liupc.aiagent.service.impl.EmbeddingServiceImpl;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.List;
-import java.util.stream.Collectors;
 
 public class PgvectorDataInserter {
-    private static final EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+    private static final EmbeddingService embeddingService = EmbeddingServiceImpl.standalone();
 
     public static void insertDocument(String text) throws SQLException {
         // 1. 生成文本的向量（384 维）
-        Embedding embedding = embeddingModel.embed(text).content();
-        List<Float> vector = embedding.vectorAsList();  // All-MiniLM 输出为 Double 列表
-
-        // 2. 将向量转换为 pgvector 支持的格式（如 "[0.123, 0.456, ...]"）
-        String vectorStr = "[" + vector.stream()
-                .map(String::valueOf)
-                .collect(Collectors.joining(", ")) + "]";
-
-        // 3. 插入数据库
-        try (Connection conn = PgvectorUtils.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(
-                     "INSERT INTO rag_documents (text, embedding) VALUES (?, ?::vector)")) {
-            pstmt.setString(1, text);
-            pstmt.setString(2, vectorStr);  // 直接传入向量字符串
-            pstmt.executeUpdate();
+        float[] vector = embeddingService.embed(text).vector();
+
+        // 2. 插入数据库（向量以 pgvector 二进制格式绑定）
+        try (Connection conn = PgvectorUtils.getConnection()) {
+            PgvectorCodec.register(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO rag_documents (text, embedding) VALUES (?, ?)")) {
+                pstmt.setString(1, text);
+                PgvectorCodec.bind(pstmt, 2, vector);
+                pstmt.executeUpdate();
+            }
         } catch (SQLException e) {
             System.err.println("插入文档时发生错误: " + e.getMessage());
             throw e;
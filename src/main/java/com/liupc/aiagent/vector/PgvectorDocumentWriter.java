@@ -0,0 +1,381 @@
+package com.liupc.aiagent.vector;
+
+import com.liupc.aiagent.util.ContentHasher;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * rag_documents 写入器：一个文件对应一个事务
+ * 片段较多时通过 COPY ... FROM STDIN (FORMAT binary) 流式写入，按行数分块刷出；
+ * 片段较少时使用批量 INSERT。未提交即关闭时回滚
+ * 指定来源时，同一事务内登记来源文件哈希、为每行写入 source_id、chunk_hash 及元数据（文件名、集合、标签），
+ * 并在提交前删除新版本中已不存在的片段、同步保留片段的元数据
+ * 登记来源时锁住来源行后重新读取该来源已入库的片段哈希，跳过已存在的片段：
+ * 调用方在事务外取得的哈希快照可能已过期（同一文件的并发入库先提交了相同片段），否则会违反 (source_id, chunk_hash) 唯一约束
+ */
+@Slf4j
+public class PgvectorDocumentWriter implements AutoCloseable {
+
+    private static final String INSERT_SQL = "INSERT INTO rag_documents (text, embedding) VALUES (?, ?)";
+
+    private static final String COPY_SQL = "COPY rag_documents (text, embedding) FROM STDIN (FORMAT binary)";
+
+    private static final String SOURCE_INSERT_SQL = "INSERT INTO rag_documents "
+            + "(text, embedding, source_id, chunk_hash, file_name, collection, tags) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SOURCE_COPY_SQL = "COPY rag_documents "
+            + "(text, embedding, source_id, chunk_hash, file_name, collection, tags) FROM STDIN (FORMAT binary)";
+
+    // 登记来源（同时锁住该来源行，同一集合内同一文件的并发入库在此串行）；来源的集合不会在入库时改变
+    private static final String UPSERT_SOURCE_SQL =
+            "INSERT INTO rag_sources (source_name, file_hash, collection, tags) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT (collection, source_name) DO UPDATE SET file_hash = EXCLUDED.file_hash, "
+            + "tags = EXCLUDED.tags, updated_at = now() "
+            + "RETURNING id";
+
+    private static final String STORED_HASHES_SQL = "SELECT chunk_hash FROM rag_documents WHERE source_id = ?";
+
+    private static final String DELETE_VANISHED_SQL =
+            "DELETE FROM rag_documents WHERE source_id = ? AND NOT (chunk_hash = ANY(?)) RETURNING id";
+
+    // 保留下来的片段同步来源的最新元数据（未变化的行不更新）
+    private static final String SYNC_METADATA_SQL = "UPDATE rag_documents SET file_name = ?, tags = ? "
+            + "WHERE source_id = ? AND (file_name, tags) IS DISTINCT FROM (?, ?::text[])";
+
+    // text 类型的 OID（COPY 二进制数组头中的元素类型）
+    private static final int TEXT_OID = 25;
+
+    // COPY 二进制格式文件头：签名 + flags + 扩展区长度
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    private final Connection conn;
+
+    private final int flushRows;
+
+    // 来源ID，为空时按旧方式只写 text 和 embedding
+    private Integer sourceId;
+
+    private IngestSource source;
+
+    // COPY 模式下每行相同的元数据列，预先编码
+    private byte[] fileNameBytes;
+    private byte[] collectionBytes;
+    private byte[] tagsBytes;
+
+    // 持有来源行锁后读到的已入库片段哈希，加上本次写入的片段哈希
+    private Set<String> storedChunkHashes;
+    private int skippedRows;
+
+    // 新版本文件的全部片段哈希，提交前删除不在其中的旧片段
+    private Set<String> retainedChunkHashes;
+    private final List<Long> deletedIds = new ArrayList<>();
+
+    // COPY 模式
+    private CopyIn copyIn;
+    private ByteArrayOutputStream copyBuffer;
+    private DataOutputStream copyOut;
+
+    // INSERT 模式
+    private PreparedStatement insertStmt;
+
+    private int pendingRows;
+    private long writtenRows;
+    private boolean committed;
+
+    private PgvectorDocumentWriter(Connection conn, int flushRows) {
+        this.conn = conn;
+        this.flushRows = Math.max(1, flushRows);
+    }
+
+    /**
+     * 打开写入器，接管连接的生命周期（close 时归还）
+     * @param conn 数据库连接
+     * @param useCopy 是否使用 COPY 二进制流
+     * @param flushRows 每累计多少行刷出一次
+     */
+    public static PgvectorDocumentWriter open(Connection conn, boolean useCopy, int flushRows) throws SQLException {
+        return open(conn, useCopy, flushRows, null);
+    }
+
+    /**
+     * 打开关联来源文件的写入器
+     * @param source 来源文件及元数据，为空时不关联来源
+     */
+    public static PgvectorDocumentWriter open(Connection conn, boolean useCopy, int flushRows,
+                                              IngestSource source) throws SQLException {
+        PgvectorDocumentWriter writer = new PgvectorDocumentWriter(conn, flushRows);
+        try {
+            conn.setAutoCommit(false);
+            // COPY 进行中不能执行其他语句，来源需在开始 COPY 前登记
+            if (source != null) {
+                writer.source = source;
+                writer.sourceId = upsertSource(conn, source);
+                writer.storedChunkHashes = loadStoredHashes(conn, writer.sourceId);
+                writer.fileNameBytes = source.getName().getBytes(StandardCharsets.UTF_8);
+                writer.collectionBytes = source.getCollection().getBytes(StandardCharsets.UTF_8);
+                writer.tagsBytes = encodeTextArray(source.getTags());
+            }
+            if (useCopy) {
+                writer.copyIn = conn.unwrap(PGConnection.class).getCopyAPI()
+                        .copyIn(writer.sourceId != null ? SOURCE_COPY_SQL : COPY_SQL);
+                writer.copyBuffer = new ByteArrayOutputStream(64 * 1024);
+                writer.copyOut = new DataOutputStream(writer.copyBuffer);
+                writer.copyOut.write(COPY_SIGNATURE);
+                writer.copyOut.writeInt(0);
+                writer.copyOut.writeInt(0);
+            } else {
+                PgvectorCodec.register(conn);
+                writer.insertStmt = conn.prepareStatement(writer.sourceId != null ? SOURCE_INSERT_SQL : INSERT_SQL);
+            }
+            return writer;
+        } catch (SQLException | IOException e) {
+            try {
+                writer.close();
+            } catch (SQLException closeError) {
+                e.addSuppressed(closeError);
+            }
+            if (e instanceof SQLException) {
+                throw (SQLException) e;
+            }
+            throw new SQLException("初始化 COPY 写入失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 写入一批片段及其向量（两个列表按下标一一对应）
+     * @return 实际写入的片段数（关联来源时跳过该来源已存在的片段）
+     */
+    public int write(List<TextSegment> segments, List<Embedding> embeddings) throws SQLException {
+        int written = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            String text = segments.get(i).text();
+            float[] vector = embeddings.get(i).vector();
+            String chunkHash = sourceId != null ? ContentHasher.sha256(text) : null;
+            if (chunkHash != null && !storedChunkHashes.add(chunkHash)) {
+                skippedRows++;
+                continue;
+            }
+            written++;
+            if (copyIn != null) {
+                appendCopyRow(text, vector, chunkHash);
+            } else {
+                insertStmt.setString(1, text);
+                PgvectorCodec.bind(insertStmt, 2, vector);
+                if (chunkHash != null) {
+                    insertStmt.setInt(3, sourceId);
+                    insertStmt.setString(4, chunkHash);
+                    insertStmt.setString(5, source.getName());
+                    insertStmt.setString(6, source.getCollection());
+                    insertStmt.setArray(7, conn.createArrayOf("text", source.getTags().toArray()));
+                }
+                insertStmt.addBatch();
+            }
+            if (++pendingRows >= flushRows) {
+                flush();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 设置新版本文件的全部片段哈希，提交时删除该来源下不在其中的片段（仅关联来源时有效）
+     */
+    public void retainOnly(Set<String> chunkHashes) {
+        this.retainedChunkHashes = chunkHashes;
+    }
+
+    /**
+     * 提交时删除的旧片段数
+     */
+    public int getDeletedRows() {
+        return deletedIds.size();
+    }
+
+    /**
+     * 提交时删除的旧片段ID（用于从进程内索引中移除）
+     */
+    public List<Long> getDeletedIds() {
+        return deletedIds;
+    }
+
+    /**
+     * 刷出剩余数据并提交事务
+     * @return 本次写入的总行数
+     */
+    public long commit() throws SQLException {
+        flush();
+        if (copyIn != null) {
+            try {
+                copyOut.writeShort(-1); // 文件尾
+            } catch (IOException e) {
+                throw new SQLException("写入 COPY 文件尾失败: " + e.getMessage(), e);
+            }
+            sendCopyBuffer();
+            writtenRows = copyIn.endCopy();
+        }
+        if (sourceId != null && retainedChunkHashes != null) {
+            deleteVanishedChunks();
+            syncMetadata();
+        }
+        conn.commit();
+        committed = true;
+        log.info("向量数据写入完成 - 模式: {}, 行数: {}, 跳过已存在片段: {}, 删除旧片段: {}",
+                copyIn != null ? "COPY" : "INSERT", writtenRows, skippedRows, deletedIds.size());
+        return writtenRows;
+    }
+
+    private static int upsertSource(Connection conn, IngestSource source) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(UPSERT_SOURCE_SQL)) {
+            pstmt.setString(1, source.getName());
+            pstmt.setString(2, source.getFileHash());
+            pstmt.setString(3, source.getCollection());
+            pstmt.setArray(4, conn.createArrayOf("text", source.getTags().toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static Set<String> loadStoredHashes(Connection conn, int sourceId) throws SQLException {
+        Set<String> hashes = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(STORED_HASHES_SQL)) {
+            pstmt.setInt(1, sourceId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    hashes.add(rs.getString(1));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private void deleteVanishedChunks() throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(DELETE_VANISHED_SQL)) {
+            pstmt.setInt(1, sourceId);
+            pstmt.setArray(2, conn.createArrayOf("text", retainedChunkHashes.toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    deletedIds.add(rs.getLong(1));
+                }
+            }
+        }
+    }
+
+    private void syncMetadata() throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(SYNC_METADATA_SQL)) {
+            Array tags = conn.createArrayOf("text", source.getTags().toArray());
+            pstmt.setString(1, source.getName());
+            pstmt.setArray(2, tags);
+            pstmt.setInt(3, sourceId);
+            pstmt.setString(4, source.getName());
+            pstmt.setArray(5, tags);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // text[] 的二进制格式：维数、是否含 NULL、元素类型 OID，每一维的长度和下界，再依次是各元素（长度 + 字节）
+    private static byte[] encodeTextArray(List<String> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(values.isEmpty() ? 0 : 1);
+        out.writeInt(0);
+        out.writeInt(TEXT_OID);
+        if (!values.isEmpty()) {
+            out.writeInt(values.size());
+            out.writeInt(1);
+            for (String value : values) {
+                byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(valueBytes.length);
+                out.write(valueBytes);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void appendCopyRow(String text, float[] vector, String chunkHash) throws SQLException {
+        try {
+            byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+            copyOut.writeShort(chunkHash != null ? 7 : 2); // 字段数
+            copyOut.writeInt(textBytes.length);
+            copyOut.write(textBytes);
+            copyOut.writeInt(4 + 4 * vector.length);
+            copyOut.writeShort(vector.length);
+            copyOut.writeShort(0);
+            for (float v : vector) {
+                copyOut.writeFloat(v);
+            }
+            if (chunkHash != null) {
+                byte[] hashBytes = chunkHash.getBytes(StandardCharsets.UTF_8);
+                copyOut.writeInt(4);
+                copyOut.writeInt(sourceId);
+                copyOut.writeInt(hashBytes.length);
+                copyOut.write(hashBytes);
+                copyOut.writeInt(fileNameBytes.length);
+                copyOut.write(fileNameBytes);
+                copyOut.writeInt(collectionBytes.length);
+                copyOut.write(collectionBytes);
+                copyOut.writeInt(tagsBytes.length);
+                copyOut.write(tagsBytes);
+            }
+        } catch (IOException e) {
+            throw new SQLException("写入 COPY 缓冲区失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void flush() throws SQLException {
+        if (pendingRows == 0) {
+            return;
+        }
+        if (copyIn != null) {
+            sendCopyBuffer();
+            copyIn.flushCopy();
+        } else {
+            insertStmt.executeBatch();
+            writtenRows += pendingRows;
+        }
+        pendingRows = 0;
+    }
+
+    private void sendCopyBuffer() throws SQLException {
+        if (copyBuffer.size() > 0) {
+            copyIn.writeToCopy(copyBuffer.toByteArray(), 0, copyBuffer.size());
+            copyBuffer.reset();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!committed) {
+                if (copyIn != null && copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+                conn.rollback();
+            }
+            if (insertStmt != null) {
+                insertStmt.close();
+            }
+            conn.setAutoCommit(true);
+        } finally {
+            conn.close();
+        }
+    }
+}
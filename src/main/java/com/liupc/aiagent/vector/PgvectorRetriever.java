@@ -1,8 +1,7 @@
 package com.liupc.aiagent.vector;
 
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.model.embedding.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.embedding.EmbeddingModel;
+import com.liupc.aiagent.service.EmbeddingService;
+import com.liupc.aiagent.service.impl.EmbeddingServiceImpl;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -10,35 +9,32 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class PgvectorRetriever {
-    private static final EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+    private static final EmbeddingService embeddingService = EmbeddingServiceImpl.standalone();
 
     // 检索与问题最相似的 topN 文档片段
     public static List<String> retrieveSimilar(String question, int topN) throws SQLException {
         // 1. 生成问题的向量
-        Embedding queryEmbedding = embeddingModel.embed(question).content();
-        List<Float> queryVector = queryEmbedding.vectorAsList();
-        String queryVectorStr = "[" + queryVector.stream()
-                .map(String::valueOf)
-                .collect(Collectors.joining(", ")) + "]";
+        float[] queryVector = embeddingService.embed(question).vector();
 
         // 2. 执行相似性查询（使用 <-> 计算欧氏距离，值越小越相似）
         List<String> results = new ArrayList<>();
-        String sql = "SELECT text, embedding <-> ?::vector AS distance " +  // <-> 是 pgvector 的欧氏距离运算符
+        String sql = "SELECT text, embedding <-> ? AS distance " +  // <-> 是 pgvector 的欧氏距离运算符
                 "FROM rag_documents " +
                 "ORDER BY distance " +
                 "LIMIT ?";
 
-        try (Connection conn = PgvectorUtils.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, queryVectorStr);
-            pstmt.setInt(2, topN);
-            ResultSet rs = pstmt.executeQuery();
+        try (Connection conn = PgvectorUtils.getConnection()) {
+            PgvectorCodec.register(conn);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                PgvectorCodec.bind(pstmt, 1, queryVector);
+                pstmt.setInt(2, topN);
+                ResultSet rs = pstmt.executeQuery();
 
-            while (rs.next()) {
-                results.add(rs.getString("text"));
+                while (rs.next()) {
+                    results.add(rs.getString("text"));
+                }
             }
         } catch (SQLException e) {
             System.err.println("检索文档时发生错误: " + e.getMessage());
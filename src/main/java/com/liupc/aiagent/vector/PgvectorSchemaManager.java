@@ -0,0 +1,806 @@
+package com.liupc.aiagent.vector;
+
+import com.liupc.aiagent.util.ContentHasher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * rag_documents 表结构与 ANN 索引（HNSW / IVFFlat）生命周期管理
+ * 索引的操作符类与配置的距离度量保持一致；检索前可按查询设置 hnsw.ef_search / ivfflat.probes
+ * 按集合过滤的检索可使用该集合的部分索引（WHERE collection = ...），
+ * 没有部分索引时开启迭代索引扫描（pgvector 0.8+），过滤后结果不足会继续扫描，而不是返回不足 topN 的结果
+ * 可选量化索引（halfvec / 二值 bit）：索引建在量化表达式上，检索取 rescore-factor 倍候选后按全精度向量重新排序；
+ * 已有索引与配置的量化方式不一致时，启动后在后台并发重建（迁移期间旧索引继续服务）
+ * 可选按集合 LIST 分区（rag.schema.partitioning=collection）：索引建在分区父表上，每个分区有独立的向量索引，
+ * 集合首次入库时自动创建分区，按集合过滤的检索只扫描该分区，删除集合即删除分区
+ */
+@Component
+@Slf4j
+public class PgvectorSchemaManager {
+
+    public static final String INDEX_NAME = "rag_documents_embedding_idx";
+
+    public static final String TEXT_INDEX_NAME = "rag_documents_text_tsv_idx";
+
+    public static final String SOURCE_CHUNK_INDEX_NAME = "rag_documents_source_chunk_idx";
+
+    // 集合部分索引的名称前缀，后接集合名（小写，- 替换为 _）
+    public static final String COLLECTION_INDEX_PREFIX = "rag_documents_embedding_c_";
+
+    // 向量维度（All-MiniLM-L6-v2）
+    public static final int DIMENSION = 384;
+
+    // 部分索引定义中的集合名
+    private static final Pattern COLLECTION_PREDICATE = Pattern.compile("collection = '([^']+)'");
+
+    // 分区表名前缀，后接集合名（小写，非字母数字替换为 _，截断）和集合名哈希
+    public static final String PARTITION_PREFIX = "rag_documents_p_";
+
+    // 分区创建在同一事务级咨询锁下串行，避免并发首次入库重复创建
+    private static final String PARTITION_LOCK_KEY = "rag_documents_partition";
+
+    private final DataSource dataSource;
+
+    // 索引类型：hnsw / ivfflat / none
+    @Value("${rag.index.type:hnsw}")
+    private String indexType;
+
+    // 距离度量：cosine / l2 / inner_product
+    @Value("${rag.index.metric:cosine}")
+    private String metric;
+
+    // 索引量化：none / halfvec / binary
+    @Value("${rag.index.quantization:none}")
+    private String quantization;
+
+    // 量化索引取候选的倍数（候选数 = topN × 倍数），候选再按全精度距离排序
+    @Value("${rag.search.rescore-factor:4}")
+    private int rescoreFactor;
+
+    // 已有索引与配置的量化方式不一致时是否自动重建
+    @Value("${rag.index.auto-migrate:true}")
+    private boolean autoMigrate;
+
+    // 新建表时的分区方式：none / collection（按集合 LIST 分区）
+    @Value("${rag.schema.partitioning:none}")
+    private String partitioning;
+
+    // rag_documents 实际是否为分区表（首次使用时查询，建表和迁移后重置）
+    private volatile Boolean partitionedTable;
+
+    // 已确认存在的分区对应的集合
+    private final Set<String> knownPartitions = ConcurrentHashMap.newKeySet();
+
+    @Value("${rag.index.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${rag.index.hnsw.ef-construction:64}")
+    private int hnswEfConstruction;
+
+    @Value("${rag.index.ivfflat.lists:100}")
+    private int ivfflatLists;
+
+    // 默认查询参数（可被单次查询覆盖）
+    @Value("${rag.search.hnsw.ef-search:40}")
+    private int defaultEfSearch;
+
+    @Value("${rag.search.ivfflat.probes:10}")
+    private int defaultProbes;
+
+    // 全文检索的分词配置（simple 不做词干和停用词处理，完整保留标识符、类名、错误码）
+    @Value("${rag.search.text-config:simple}")
+    private String textSearchConfig;
+
+    // 过滤检索时的迭代扫描模式：relaxed_order / strict_order / off
+    @Value("${rag.search.iterative-scan:relaxed_order}")
+    private String iterativeScan;
+
+    // 启动时自动创建部分索引的集合（逗号分隔）
+    @Value("${rag.index.partial-collections:}")
+    private String partialCollections;
+
+    // pgvector 版本是否支持迭代扫描（首次过滤检索时检测）
+    private volatile Boolean iterativeScanSupported;
+
+    // 启动后是否自动建表建索引
+    @Value("${rag.schema.auto-init:true}")
+    private boolean autoInit;
+
+    @Autowired
+    public PgvectorSchemaManager(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public VectorMetric metric() {
+        return VectorMetric.valueOf(metric.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public String indexType() {
+        return indexType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public VectorQuantization quantization() {
+        return VectorQuantization.valueOf(quantization.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * 生成近邻子查询：从 rag_documents d 中按全精度距离升序取 limit 个，输出 columns 和 distance
+     * 量化时先按量化表达式在索引上取 limit × rescore-factor 个候选，再用全精度向量重新计算距离排序
+     * @param columns 输出列（以 d. 引用）
+     * @param queryVector 查询向量的 SQL 表达式（量化时会引用两次，不能是参数占位符，应引用外层的列）
+     * @param where 过滤条件（SearchFilter.where("d") 的结果）
+     */
+    public String nearestSql(String columns, String queryVector, String where, int limit) {
+        VectorMetric vectorMetric = metric();
+        String distance = "d.embedding " + vectorMetric.operator() + " " + queryVector + " AS distance";
+        VectorQuantization vectorQuantization = quantization();
+        if (vectorQuantization == VectorQuantization.NONE) {
+            return "SELECT " + columns + ", " + distance + " FROM rag_documents d" + where
+                    + " ORDER BY distance LIMIT " + limit;
+        }
+        return "SELECT " + columns + ", " + distance + " FROM ("
+                + "SELECT d.id, d.text, d.embedding FROM rag_documents d" + where
+                + " ORDER BY " + vectorQuantization.indexExpression("d.embedding", DIMENSION) + " "
+                + vectorQuantization.operator(vectorMetric) + " "
+                + vectorQuantization.indexExpression(queryVector, DIMENSION)
+                + " LIMIT " + rescoreCandidates(limit) + ") d"
+                + " ORDER BY distance LIMIT " + limit;
+    }
+
+    // 量化索引上需要取的候选数
+    private int rescoreCandidates(int limit) {
+        return quantization() == VectorQuantization.NONE ? limit : limit * Math.max(1, rescoreFactor);
+    }
+
+    /**
+     * 全文检索分词配置名（会拼接进 SQL，只允许标识符字符）
+     */
+    public String textSearchConfig() {
+        String config = textSearchConfig.trim();
+        if (!config.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("非法的全文检索配置：" + textSearchConfig);
+        }
+        return config;
+    }
+
+    /**
+     * 应用启动后在后台线程初始化表结构，避免建索引或数据库不可用时阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initOnStartup() {
+        if (!autoInit) {
+            return;
+        }
+        Thread initThread = new Thread(() -> {
+            try {
+                ensureSchema();
+            } catch (SQLException e) {
+                log.warn("初始化向量表结构失败，请检查数据库连接: {}", e.getMessage());
+            }
+        }, "pgvector-schema-init");
+        initThread.setDaemon(true);
+        initThread.start();
+    }
+
+    /**
+     * 创建扩展、表、ANN 索引、全文检索列及其 GIN 索引、来源表及片段哈希列（均为幂等操作）
+     */
+    public void ensureSchema() throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            createDocumentTable(stmt);
+            partitionedTable = null;
+            boolean partitioned = isPartitioned();
+            if (partitioned != "collection".equals(partitioning())) {
+                log.warn("rag_documents {}与配置 rag.schema.partitioning={} 不一致{}", partitioned ? "是分区表，" : "不是分区表，",
+                        partitioning(), partitioned ? "" : "，可调用 /api/vector/index/partitions/migrate 迁移");
+            }
+            String indexSql = buildIndexSql(INDEX_NAME, false, null);
+            if (indexSql != null) {
+                stmt.execute(indexSql);
+            }
+            // 生成列随 text 自动维护，写入路径无需改动（首次添加时会重写整张表）
+            stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS text_tsv tsvector "
+                    + "GENERATED ALWAYS AS (to_tsvector('" + textSearchConfig() + "'::regconfig, text)) STORED");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + TEXT_INDEX_NAME + " ON rag_documents USING gin (text_tsv)");
+            createSourceSchema(stmt, partitioned);
+            if (partitioned) {
+                ensurePartition(IngestSource.DEFAULT_COLLECTION);
+            }
+            // 分区表的每个集合已有独立索引，不需要部分索引
+            for (String collection : partitioned ? new String[0] : partialCollections.split(",")) {
+                if (!collection.isBlank()) {
+                    String collectionIndexSql = buildIndexSql(collectionIndexName(collection.trim()), false,
+                            collection.trim());
+                    if (collectionIndexSql != null) {
+                        stmt.execute(collectionIndexSql);
+                    }
+                }
+            }
+            log.info("向量表结构检查完成 - 索引类型: {}, 度量: {}, 量化: {}", indexType(), metric(), quantization());
+        }
+        migrateIndexes();
+    }
+
+    /**
+     * 量化方式变更后的迁移：逐个重建量化方式与配置不一致的 ANN 索引（主索引和集合部分索引）
+     * 量化索引建在 embedding 的表达式上，已有数据无需改写，重建索引即完成迁移
+     */
+    public void migrateIndexes() throws SQLException {
+        if ("none".equals(indexType())) {
+            return;
+        }
+        VectorQuantization expected = quantization();
+        Map<String, String> definitions = new HashMap<>();
+        try (Connection conn = dataSource.getConnection()) {
+            if (expected != VectorQuantization.NONE && !isVersionAtLeast(conn, 0, 7)) {
+                log.error("量化索引需要 pgvector 0.7.0 及以上版本，保留现有索引");
+                return;
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT indexname, indexdef FROM pg_indexes WHERE tablename = 'rag_documents' "
+                            + "AND (indexname = ? OR indexname LIKE ?)")) {
+                pstmt.setString(1, INDEX_NAME);
+                pstmt.setString(2, COLLECTION_INDEX_PREFIX + "%");
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        definitions.put(rs.getString("indexname"), rs.getString("indexdef"));
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : definitions.entrySet()) {
+            String name = entry.getKey();
+            String definition = entry.getValue();
+            if (expected.matches(definition) || name.endsWith("_new")) {
+                continue;
+            }
+            if (!autoMigrate) {
+                log.warn("索引 {} 的量化方式与配置（{}）不一致，rag.index.auto-migrate 已关闭，请手动重建", name, expected);
+                continue;
+            }
+            String collection = null;
+            if (!INDEX_NAME.equals(name)) {
+                Matcher matcher = COLLECTION_PREDICATE.matcher(definition);
+                if (!matcher.find()) {
+                    log.warn("无法识别集合索引 {} 的集合，跳过迁移", name);
+                    continue;
+                }
+                collection = matcher.group(1);
+            }
+            log.info("索引 {} 的量化方式与配置（{}）不一致，开始重建", name, expected);
+            rebuild(name, collection);
+        }
+    }
+
+    /**
+     * 按当前配置重建 ANN 索引：先并发构建新索引，再删除旧索引并改名，重建期间检索不中断
+     */
+    public void rebuildIndex() throws SQLException {
+        rebuild(INDEX_NAME, null);
+    }
+
+    // collection 不为空时重建该集合的部分索引
+    private void rebuild(String name, String collection) throws SQLException {
+        if (collection == null && isPartitioned()) {
+            rebuildPartitioned(name);
+            return;
+        }
+        String tempName = name + "_new";
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            // CONCURRENTLY 不能在事务中执行，需保持自动提交
+            conn.setAutoCommit(true);
+            stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + tempName);
+            String indexSql = buildIndexSql(tempName, true, collection);
+            long start = System.currentTimeMillis();
+            if (indexSql != null) {
+                stmt.execute(indexSql);
+            }
+            stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+            if (indexSql != null) {
+                stmt.execute("ALTER INDEX " + tempName + " RENAME TO " + name);
+            }
+            log.info("ANN 索引重建完成 - 索引: {}, 类型: {}, 度量: {}, 量化: {}, 耗时: {} ms",
+                    name, indexType(), metric(), quantization(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 分区表不能并发建索引：先在父表上建空的分区索引（ON ONLY），逐个分区并发建索引后挂载，
+     * 全部挂载后父索引生效，再删除旧索引并改名；重建期间检索继续使用旧索引
+     */
+    private void rebuildPartitioned(String name) throws SQLException {
+        String tempName = name + "_new";
+        // 分区上的索引名需唯一，加时间戳避免与上次重建留下的名称冲突
+        String suffix = "_ann_" + Long.toString(System.currentTimeMillis() / 1000, 36);
+        long start = System.currentTimeMillis();
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(true);
+            stmt.execute("DROP INDEX IF EXISTS " + tempName);
+            String parentSql = buildIndexSql(tempName, "ONLY rag_documents", false, null);
+            if (parentSql != null) {
+                stmt.execute(parentSql);
+                for (String partition : listPartitions(conn).keySet()) {
+                    String childName = partition + suffix;
+                    stmt.execute(buildIndexSql(childName, partition, true, null));
+                    stmt.execute("ALTER INDEX " + tempName + " ATTACH PARTITION " + childName);
+                }
+            }
+            stmt.execute("DROP INDEX IF EXISTS " + name);
+            if (parentSql != null) {
+                stmt.execute("ALTER INDEX " + tempName + " RENAME TO " + name);
+            }
+        }
+        log.info("分区 ANN 索引重建完成 - 索引: {}, 类型: {}, 度量: {}, 量化: {}, 耗时: {} ms",
+                name, indexType(), metric(), quantization(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * rag_documents 是否为分区表
+     */
+    public boolean isPartitioned() throws SQLException {
+        Boolean partitioned = partitionedTable;
+        if (partitioned == null) {
+            try (Connection conn = dataSource.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT relkind FROM pg_class WHERE oid = to_regclass('rag_documents')")) {
+                partitioned = rs.next() && "p".equals(rs.getString(1));
+            }
+            partitionedTable = partitioned;
+        }
+        return partitioned;
+    }
+
+    /**
+     * 确保集合的分区存在（分区表时在入库前调用，非分区表忽略）
+     * 分区继承父表上的全部索引（向量、全文、来源片段唯一索引）
+     * @return 分区表名，非分区表返回 null
+     */
+    public String ensurePartition(String collection) throws SQLException {
+        if (!isPartitioned()) {
+            return null;
+        }
+        String name = partitionName(collection);
+        if (knownPartitions.contains(collection)) {
+            return name;
+        }
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            try {
+                stmt.execute("SELECT pg_advisory_xact_lock(hashtext('" + PARTITION_LOCK_KEY + "'))");
+                long start = System.currentTimeMillis();
+                stmt.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF rag_documents FOR VALUES IN ("
+                        + quoteLiteral(collection) + ")");
+                conn.commit();
+                log.info("集合分区已就绪 - 集合: {}, 分区: {}, 耗时: {} ms", collection, name,
+                        System.currentTimeMillis() - start);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        knownPartitions.add(collection);
+        return name;
+    }
+
+    /**
+     * 删除集合的全部片段和来源记录：分区表直接删除该集合的分区（不产生逐行删除和 VACUUM 负担），
+     * 非分区表按集合逐行删除
+     * @return 删除的片段数（分区表为删除前的估算行数）
+     */
+    public long dropCollection(String collection) throws SQLException {
+        boolean partitioned = isPartitioned();
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement();
+                 PreparedStatement deleteSources = conn.prepareStatement("DELETE FROM rag_sources WHERE collection = ?")) {
+                long removed;
+                if (partitioned) {
+                    String name = partitionName(collection);
+                    removed = 0;
+                    try (ResultSet rs = stmt.executeQuery("SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass('"
+                            + name + "')")) {
+                        if (rs.next()) {
+                            removed = Math.max(0, rs.getLong(1));
+                        }
+                    }
+                    // 先删分区，来源记录的级联删除就不会再逐行删除片段
+                    stmt.execute("DROP TABLE IF EXISTS " + name);
+                    deleteSources.setString(1, collection);
+                    deleteSources.executeUpdate();
+                } else {
+                    deleteSources.setString(1, collection);
+                    deleteSources.executeUpdate();
+                    try (PreparedStatement deleteDocuments = conn.prepareStatement(
+                            "DELETE FROM rag_documents WHERE collection = ?")) {
+                        deleteDocuments.setString(1, collection);
+                        removed = deleteDocuments.executeUpdate();
+                    }
+                }
+                conn.commit();
+                knownPartitions.remove(collection);
+                log.info("集合已删除 - 集合: {}, 方式: {}, 片段数: {}", collection, partitioned ? "删除分区" : "逐行删除", removed);
+                return removed;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * 将已有的非分区 rag_documents 迁移为按集合分区的表（单事务：改名旧表 → 建分区表和各集合分区 → 复制数据 → 删除旧表），
+     * 提交后再建索引。迁移期间持有旧表的排他锁，读写都会等待，应在维护窗口执行
+     */
+    public void migrateToPartitioned() throws SQLException {
+        if (isPartitioned()) {
+            log.info("rag_documents 已是分区表，无需迁移");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long copied;
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            try {
+                stmt.execute("LOCK TABLE rag_documents IN ACCESS EXCLUSIVE MODE");
+                // 旧表上的索引名与新表冲突，旧表随后整体删除，索引可以先删
+                List<String> oldIndexes = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT indexname FROM pg_indexes WHERE tablename = 'rag_documents' "
+                        + "AND indexname <> 'rag_documents_pkey'")) {
+                    while (rs.next()) {
+                        oldIndexes.add(rs.getString(1));
+                    }
+                }
+                for (String index : oldIndexes) {
+                    stmt.execute("DROP INDEX " + index);
+                }
+                stmt.execute("ALTER TABLE rag_documents RENAME TO rag_documents_unpartitioned");
+                stmt.execute("ALTER TABLE rag_documents_unpartitioned RENAME CONSTRAINT rag_documents_pkey "
+                        + "TO rag_documents_unpartitioned_pkey");
+                // 新表的 SERIAL 会创建同名序列
+                stmt.execute("ALTER SEQUENCE rag_documents_id_seq RENAME TO rag_documents_unpartitioned_id_seq");
+
+                createPartitionedTable(stmt);
+                stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS text_tsv tsvector "
+                        + "GENERATED ALWAYS AS (to_tsvector('" + textSearchConfig() + "'::regconfig, text)) STORED");
+                createSourceSchema(stmt, true);
+                List<String> collections = new ArrayList<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT collection FROM rag_documents_unpartitioned")) {
+                    while (rs.next()) {
+                        collections.add(rs.getString(1));
+                    }
+                }
+                if (!collections.contains(IngestSource.DEFAULT_COLLECTION)) {
+                    collections.add(IngestSource.DEFAULT_COLLECTION);
+                }
+                for (String collection : collections) {
+                    stmt.execute("CREATE TABLE " + partitionName(collection) + " PARTITION OF rag_documents FOR VALUES IN ("
+                            + quoteLiteral(collection) + ")");
+                }
+                copied = stmt.executeUpdate("INSERT INTO rag_documents "
+                        + "(id, text, embedding, source_id, chunk_hash, file_name, collection, tags, ingested_at) "
+                        + "SELECT id, text, embedding, source_id, chunk_hash, file_name, collection, tags, ingested_at "
+                        + "FROM rag_documents_unpartitioned");
+                stmt.execute("SELECT setval(pg_get_serial_sequence('rag_documents', 'id'), "
+                        + "COALESCE((SELECT max(id) FROM rag_documents), 0) + 1, false)");
+                stmt.execute("DROP TABLE rag_documents_unpartitioned");
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        partitionedTable = null;
+        knownPartitions.clear();
+        log.info("rag_documents 已迁移为分区表 - 片段数: {}, 耗时: {} ms，开始建索引", copied,
+                System.currentTimeMillis() - start);
+        ensureSchema();
+    }
+
+    /**
+     * 为集合创建部分 ANN 索引（只索引该集合的片段），按集合过滤的检索直接在小索引上进行
+     * 分区表时改为确保该集合的分区存在（分区自带独立的向量索引）
+     */
+    public String createCollectionIndex(String collection) throws SQLException {
+        if (isPartitioned()) {
+            return ensurePartition(collection);
+        }
+        String name = collectionIndexName(collection);
+        String indexSql = buildIndexSql(name, true, collection);
+        if (indexSql == null) {
+            throw new IllegalStateException("当前索引类型为 none，无法创建集合索引");
+        }
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(true);
+            long start = System.currentTimeMillis();
+            stmt.execute(indexSql);
+            log.info("集合索引创建完成 - 集合: {}, 索引: {}, 耗时: {} ms",
+                    collection, name, System.currentTimeMillis() - start);
+        }
+        return name;
+    }
+
+    /**
+     * 删除集合的部分索引
+     */
+    public void dropCollectionIndex(String collection) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(true);
+            stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + collectionIndexName(collection));
+        }
+    }
+
+    /**
+     * 查询当前索引定义与大小
+     */
+    public Map<String, Object> describeIndex() throws SQLException {
+        Map<String, Object> result = new HashMap<>();
+        result.put("configuredType", indexType());
+        result.put("metric", metric().name());
+        result.put("quantization", quantization().name());
+        String sql = "SELECT indexdef, pg_size_pretty(pg_relation_size(indexname::regclass)) AS size "
+                + "FROM pg_indexes WHERE tablename = 'rag_documents' AND indexname = ?";
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, INDEX_NAME);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    result.put("definition", rs.getString("indexdef"));
+                    result.put("size", rs.getString("size"));
+                }
+            }
+        }
+        Map<String, String> collectionIndexes = new HashMap<>();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.replace("indexname = ?", "indexname LIKE ?"))) {
+            pstmt.setString(1, COLLECTION_INDEX_PREFIX + "%");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    collectionIndexes.put(rs.getString("indexdef"), rs.getString("size"));
+                }
+            }
+        }
+        result.put("collectionIndexes", collectionIndexes);
+        boolean partitioned = isPartitioned();
+        result.put("partitioned", partitioned);
+        if (partitioned) {
+            try (Connection conn = dataSource.getConnection()) {
+                result.put("partitions", listPartitions(conn));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在当前事务内设置 ANN 查询参数（调用方需已关闭自动提交）
+     * @param efSearch HNSW 候选队列大小，为空时使用默认值
+     * @param probes IVFFlat 探测的聚类数，为空时使用默认值
+     * @param topN 本次查询返回数量（ef_search 不小于 topN，否则结果可能不足）
+     */
+    public void applySearchSettings(Connection conn, Integer efSearch, Integer probes, int topN) throws SQLException {
+        applySearchSettings(conn, efSearch, probes, topN, false);
+    }
+
+    /**
+     * 在当前事务内设置 ANN 查询参数
+     * @param filtered 查询带元数据过滤条件时开启迭代扫描
+     */
+    public void applySearchSettings(Connection conn, Integer efSearch, Integer probes, int topN,
+                                    boolean filtered) throws SQLException {
+        String name;
+        String value;
+        switch (indexType()) {
+            case "hnsw":
+                name = "hnsw.ef_search";
+                // 量化索引要取 topN × rescore-factor 个候选
+                value = String.valueOf(Math.max(efSearch != null ? efSearch : defaultEfSearch,
+                        rescoreCandidates(topN)));
+                break;
+            case "ivfflat":
+                name = "ivfflat.probes";
+                value = String.valueOf(probes != null ? probes : defaultProbes);
+                break;
+            default:
+                return;
+        }
+        setLocal(conn, name, value);
+        String scanMode = iterativeScan.trim().toLowerCase(Locale.ROOT);
+        if (filtered && !"off".equals(scanMode) && isIterativeScanSupported(conn)) {
+            setLocal(conn, indexType() + ".iterative_scan", scanMode);
+        }
+    }
+
+    private static void setLocal(Connection conn, String name, String value) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT set_config(?, ?, true)")) {
+            pstmt.setString(1, name);
+            pstmt.setString(2, value);
+            pstmt.execute();
+        }
+    }
+
+    // 迭代扫描参数在 pgvector 0.8.0 引入，旧版本设置未知参数会使事务失败，因此先检测扩展版本
+    private boolean isIterativeScanSupported(Connection conn) throws SQLException {
+        Boolean supported = iterativeScanSupported;
+        if (supported == null) {
+            supported = isVersionAtLeast(conn, 0, 8);
+            iterativeScanSupported = supported;
+            log.info("pgvector 迭代扫描{}", supported ? "可用" : "不可用（需要 0.8.0 及以上版本），过滤检索可能返回不足 topN 的结果");
+        }
+        return supported;
+    }
+
+    private static boolean isVersionAtLeast(Connection conn, int major, int minor) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT extversion FROM pg_extension WHERE extname = 'vector'")) {
+            if (!rs.next()) {
+                return false;
+            }
+            String[] parts = rs.getString(1).split("\\.");
+            int actualMajor = Integer.parseInt(parts[0]);
+            int actualMinor = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            return actualMajor > major || (actualMajor == major && actualMinor >= minor);
+        }
+    }
+
+    // 分区名 → 分区总大小（含索引）
+    private static Map<String, String> listPartitions(Connection conn) throws SQLException {
+        Map<String, String> partitions = new LinkedHashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT c.relname, pg_size_pretty(pg_total_relation_size(c.oid)) "
+                     + "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                     + "WHERE i.inhparent = 'rag_documents'::regclass ORDER BY c.relname")) {
+            while (rs.next()) {
+                partitions.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * 集合对应的分区表名：可读部分 + 集合名哈希（大小写不同或含特殊字符的集合名不会冲突），总长度不超过 PostgreSQL 标识符上限
+     */
+    public static String partitionName(String collection) {
+        String readable = collection.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "_");
+        if (readable.length() > 20) {
+            readable = readable.substring(0, 20);
+        }
+        return PARTITION_PREFIX + readable + "_" + ContentHasher.sha256(collection).substring(0, 8);
+    }
+
+    private static String quoteLiteral(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private String partitioning() {
+        return partitioning.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // 新建表时按配置决定是否分区（已存在的表不变）
+    private void createDocumentTable(Statement stmt) throws SQLException {
+        if ("collection".equals(partitioning())) {
+            createPartitionedTable(stmt);
+        } else {
+            stmt.execute("CREATE TABLE IF NOT EXISTS rag_documents (" +
+                    "id SERIAL PRIMARY KEY," +
+                    "text TEXT NOT NULL," +
+                    "embedding vector(" + DIMENSION + ") NOT NULL)");
+        }
+    }
+
+    // 分区键 collection 必须包含在主键和唯一索引中
+    private static void createPartitionedTable(Statement stmt) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS rag_documents (" +
+                "id SERIAL," +
+                "text TEXT NOT NULL," +
+                "embedding vector(" + DIMENSION + ") NOT NULL," +
+                "collection TEXT NOT NULL DEFAULT '" + IngestSource.DEFAULT_COLLECTION + "'," +
+                "PRIMARY KEY (id, collection)) PARTITION BY LIST (collection)");
+    }
+
+    private static String collectionIndexName(String collection) {
+        if (!SearchFilter.isLiteralSafe(collection)) {
+            throw new IllegalArgumentException("集合名只能包含字母、数字、下划线和短横线（最长64个字符）：" + collection);
+        }
+        return COLLECTION_INDEX_PREFIX + collection.toLowerCase(Locale.ROOT).replace('-', '_');
+    }
+
+    /**
+     * 来源表及 rag_documents 的来源关联列和元数据列；片段哈希在同一来源内唯一（旧数据 source_id 为空，不受约束）
+     * 来源按（集合, 来源名称）唯一：不同集合中的同名文件是不同的来源
+     * 元数据（文件名、集合、标签、入库时间）冗余在片段上，过滤条件可以在 ANN 查询内直接使用
+     */
+    static void createSourceSchema(Statement stmt) throws SQLException {
+        createSourceSchema(stmt, false);
+    }
+
+    /**
+     * @param partitioned rag_documents 为分区表时，片段唯一索引需包含分区键 collection
+     */
+    static void createSourceSchema(Statement stmt, boolean partitioned) throws SQLException {
+        stmt.execute("CREATE TABLE IF NOT EXISTS rag_sources (" +
+                "id SERIAL PRIMARY KEY," +
+                "source_name TEXT NOT NULL," +
+                "file_hash TEXT NOT NULL," +
+                "updated_at TIMESTAMPTZ NOT NULL DEFAULT now())");
+        stmt.execute("ALTER TABLE rag_sources ADD COLUMN IF NOT EXISTS collection TEXT NOT NULL DEFAULT '"
+                + IngestSource.DEFAULT_COLLECTION + "'");
+        // 早期版本的来源名称全局唯一，改为集合内唯一
+        stmt.execute("ALTER TABLE rag_sources DROP CONSTRAINT IF EXISTS rag_sources_source_name_key");
+        stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS rag_sources_collection_name_idx "
+                + "ON rag_sources (collection, source_name)");
+        stmt.execute("ALTER TABLE rag_sources ADD COLUMN IF NOT EXISTS tags TEXT[] NOT NULL DEFAULT '{}'");
+        stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS source_id INTEGER "
+                + "REFERENCES rag_sources (id) ON DELETE CASCADE");
+        stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS chunk_hash TEXT");
+        stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS " + SOURCE_CHUNK_INDEX_NAME
+                + " ON rag_documents (source_id, chunk_hash" + (partitioned ? ", collection" : "") + ")");
+        // 默认值为常量或 now() 的新列只修改表定义，不重写已有数据
+        stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS file_name TEXT");
+        stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS collection TEXT NOT NULL DEFAULT '"
+                + IngestSource.DEFAULT_COLLECTION + "'");
+        stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS tags TEXT[] NOT NULL DEFAULT '{}'");
+        stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS ingested_at TIMESTAMPTZ NOT NULL DEFAULT now()");
+        stmt.execute("CREATE INDEX IF NOT EXISTS rag_documents_collection_idx ON rag_documents (collection)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS rag_documents_tags_idx ON rag_documents USING gin (tags)");
+    }
+
+    // collection 不为空时创建只包含该集合的部分索引（集合名已校验，可直接写入 SQL）
+    private String buildIndexSql(String name, boolean concurrently, String collection) {
+        return buildIndexSql(name, "rag_documents", concurrently, collection);
+    }
+
+    // table 为 rag_documents、ONLY rag_documents（分区表的父索引）或分区表名
+    private String buildIndexSql(String name, String table, boolean concurrently, String collection) {
+        String column = quantization().indexColumn(metric(), DIMENSION);
+        String prefix = "CREATE INDEX " + (concurrently ? "CONCURRENTLY " : "") + "IF NOT EXISTS " + name
+                + " ON " + table + " USING ";
+        String predicate = collection != null ? " WHERE collection = '" + collection + "'" : "";
+        switch (indexType()) {
+            case "hnsw":
+                return prefix + "hnsw (" + column + ") "
+                        + "WITH (m = " + hnswM + ", ef_construction = " + hnswEfConstruction + ")" + predicate;
+            case "ivfflat":
+                // IVFFlat 依赖已有数据训练聚类中心，建议在数据导入后调用 rebuildIndex
+                return prefix + "ivfflat (" + column + ") "
+                        + "WITH (lists = " + ivfflatLists + ")" + predicate;
+            case "none":
+                return null;
+            default:
+                throw new IllegalArgumentException("不支持的索引类型：" + indexType);
+        }
+    }
+}
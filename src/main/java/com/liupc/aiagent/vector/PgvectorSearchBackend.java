@@ -0,0 +1,223 @@
+package com.liupc.aiagent.vector;
+
+import com.liupc.aiagent.util.RagMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据库检索后端：在 pgvector 中执行 ANN 查询；混合检索时全文与向量候选及融合在同一条 SQL 中完成（一次往返）
+ * 近邻子查询由 PgvectorSchemaManager 按索引的量化方式生成（量化时先取候选再按全精度距离重排）
+ */
+@Component
+@Slf4j
+public class PgvectorSearchBackend implements VectorSearchBackend {
+
+    public static final String NAME = "pgvector";
+
+    // 查询池（可路由到只读副本），与入库写入的连接池分开
+    private final DataSource dataSource;
+
+    private final PgvectorSchemaManager schemaManager;
+
+    private final RagMetrics metrics;
+
+    // 混合检索时每一路（全文 / 向量）取的候选数
+    @Value("${rag.search.hybrid.candidates:20}")
+    private int hybridCandidates;
+
+    // RRF 平滑常数：得分 = Σ 1 / (k + 排名)，k 越大排名靠后的候选权重越接近头部
+    @Value("${rag.search.hybrid.rrf-k:60}")
+    private int rrfK;
+
+    @Autowired
+    public PgvectorSearchBackend(@Qualifier("readDataSource") DataSource dataSource, PgvectorSchemaManager schemaManager, RagMetrics metrics) {
+        this.dataSource = dataSource;
+        this.schemaManager = schemaManager;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public List<String> search(float[] queryVector, int topN, double distanceThreshold, SearchFilter filter,
+                               Integer efSearch, Integer probes) throws SQLException {
+        List<String> results = new ArrayList<>();
+
+        // 内层 ORDER BY 距离 + LIMIT 可走 ANN 索引，距离只计算一次；阈值过滤放在外层，不影响索引使用
+        // 元数据过滤放在内层，由部分索引或迭代扫描保证过滤后仍有 topN 个候选
+        // 查询向量作为单行子查询的列传入近邻子查询（量化索引需要引用两次：量化候选 + 全精度重排）
+        String sql = "SELECT c.text, c.distance FROM (SELECT ?::vector AS query_vector) q "
+                + "CROSS JOIN LATERAL (" + schemaManager.nearestSql("d.text", "q.query_vector", filter.where("d"), topN)
+                + ") c "
+                + "WHERE c.distance < ? "  // 距离小于阈值
+                + "ORDER BY c.distance";
+
+        // 从查询池获取连接（try-with-resources 自动关闭资源）
+        try (Connection conn = dataSource.getConnection()) {
+            // 注册 vector 类型后参数以二进制协议发送
+            PgvectorCodec.register(conn);
+            // ANN 查询参数使用 SET LOCAL 语义，仅对本事务生效
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                schemaManager.applySearchSettings(conn, efSearch, probes, topN, !filter.isEmpty());
+                PgvectorCodec.bind(pstmt, 1, queryVector);
+                int index = filter.bind(pstmt, 2);
+                pstmt.setDouble(index, distanceThreshold);  // 阈值
+                ResultSet rs = pstmt.executeQuery();
+
+                while (rs.next()) {
+                    String docText = rs.getString("text");
+                    results.add(docText);
+                    metrics.recordDistance(NAME, rs.getDouble("distance"));
+                    log.debug("检索到文档: {}", docText.substring(0, Math.min(50, docText.length())) + "..."); // 日志截断长文本
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量检索在一条 SQL 中完成：查询向量以 VALUES 列表逐行传入，每个向量通过 LATERAL 子查询独立走 ANN 索引取 topN
+     */
+    @Override
+    public List<List<String>> searchBatch(List<float[]> queryVectors, int topN, double distanceThreshold,
+                                          SearchFilter filter, Integer efSearch, Integer probes) throws SQLException {
+        List<List<String>> results = new ArrayList<>(queryVectors.size());
+        for (int i = 0; i < queryVectors.size(); i++) {
+            results.add(new ArrayList<>());
+        }
+        if (queryVectors.isEmpty()) {
+            return results;
+        }
+
+        // 每个向量一个参数，与单条检索一样以二进制协议发送（vector[] 数组参数只能以文本字面量传入）；
+        // 问题序号随向量一起传入，用于结果归位
+        StringBuilder values = new StringBuilder();
+        for (int i = 1; i <= queryVectors.size(); i++) {
+            values.append(i > 1 ? ", " : "").append("(?::vector, ").append(i).append(')');
+        }
+        String sql = "SELECT q.ord, c.text, c.distance "
+                + "FROM (VALUES " + values + ") AS q(query_vector, ord) "
+                + "CROSS JOIN LATERAL (" + schemaManager.nearestSql("d.text", "q.query_vector", filter.where("d"), topN)
+                + ") c "
+                + "WHERE c.distance < ? "
+                + "ORDER BY q.ord, c.distance";
+
+        try (Connection conn = dataSource.getConnection()) {
+            PgvectorCodec.register(conn);
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                // SET LOCAL 对本事务内每个 LATERAL 子查询都生效
+                schemaManager.applySearchSettings(conn, efSearch, probes, topN, !filter.isEmpty());
+                for (int i = 0; i < queryVectors.size(); i++) {
+                    PgvectorCodec.bind(pstmt, i + 1, queryVectors.get(i));
+                }
+                int index = filter.bind(pstmt, queryVectors.size() + 1);
+                pstmt.setDouble(index, distanceThreshold);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        results.get((int) rs.getLong("ord") - 1).add(rs.getString("text"));
+                        metrics.recordDistance(NAME, rs.getDouble("distance"));
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<String> hybridSearch(String queryText, float[] queryVector, int topN, double distanceThreshold,
+                                     SearchFilter filter, Integer efSearch, Integer probes) throws SQLException {
+        int candidates = Math.max(topN, hybridCandidates);
+        String vectorHits = "vector_hits AS (SELECT c.id, row_number() OVER (ORDER BY c.distance) AS rank "
+                + "FROM (SELECT ?::vector AS query_vector) q CROSS JOIN LATERAL ("
+                + schemaManager.nearestSql("d.id", "q.query_vector", filter.where("d"), candidates) + ") c "
+                + "WHERE c.distance < ?)";
+        String sql = buildHybridSql(vectorHits, filter);
+
+        try (Connection conn = dataSource.getConnection()) {
+            PgvectorCodec.register(conn);
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                schemaManager.applySearchSettings(conn, efSearch, probes, candidates, !filter.isEmpty());
+                PgvectorCodec.bind(pstmt, 1, queryVector);
+                int index = filter.bind(pstmt, 2);
+                pstmt.setDouble(index, distanceThreshold);
+                List<String> results = executeHybrid(pstmt, index + 1, queryText, filter, candidates, topN);
+                conn.commit();
+                return results;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * 以外部计算好的向量候选（按距离升序的文档ID）与全文检索融合，供进程内 HNSW 后端使用
+     */
+    public List<String> hybridSearchWithVectorHits(String queryText, List<Long> rankedIds, int topN) throws SQLException {
+        int candidates = Math.max(topN, hybridCandidates);
+        String vectorHits = "vector_hits AS (SELECT id, rank FROM unnest(?::bigint[]) WITH ORDINALITY AS v(id, rank))";
+        String sql = buildHybridSql(vectorHits, SearchFilter.NONE);
+
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setArray(1, conn.createArrayOf("bigint", rankedIds.toArray()));
+            return executeHybrid(pstmt, 2, queryText, SearchFilter.NONE, candidates, topN);
+        }
+    }
+
+    // 全文候选：问题分词后各词以 OR 连接（问题中的词不必全部出现），按 ts_rank_cd 排名；
+    // 两路候选按 RRF 融合后回表取文本
+    private String buildHybridSql(String vectorHitsCte, SearchFilter filter) {
+        String config = "'" + schemaManager.textSearchConfig() + "'::regconfig";
+        String textFilter = filter.conditions("d");
+        return "WITH " + vectorHitsCte + ", "
+                + "text_query AS (SELECT to_tsquery(" + config + ", "
+                + "replace(plainto_tsquery(" + config + ", ?)::text, ' & ', ' | ')) AS query), "
+                + "text_hits AS (SELECT d.id, row_number() OVER (ORDER BY ts_rank_cd(d.text_tsv, q.query) DESC) AS rank "
+                + "FROM rag_documents d, text_query q WHERE d.text_tsv @@ q.query "
+                + (textFilter.isEmpty() ? "" : "AND " + textFilter + " ")
+                + "ORDER BY rank LIMIT ?), "
+                + "fused AS (SELECT id, sum(1.0 / (? + rank)) AS score FROM ("
+                + "SELECT id, rank FROM vector_hits UNION ALL SELECT id, rank FROM text_hits) hits GROUP BY id) "
+                + "SELECT d.text FROM fused f JOIN rag_documents d ON d.id = f.id "
+                + "ORDER BY f.score DESC, d.id LIMIT ?";
+    }
+
+    private List<String> executeHybrid(PreparedStatement pstmt, int firstIndex, String queryText, SearchFilter filter,
+                                       int candidates, int topN) throws SQLException {
+        pstmt.setString(firstIndex, queryText);
+        int index = filter.bind(pstmt, firstIndex + 1);
+        pstmt.setInt(index, candidates);
+        pstmt.setInt(index + 1, rrfK);
+        pstmt.setInt(index + 2, topN);
+        List<String> results = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                results.add(rs.getString("text"));
+            }
+        }
+        return results;
+    }
+}
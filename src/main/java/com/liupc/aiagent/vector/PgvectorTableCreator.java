@@ -17,6 +17,19 @@ public class PgvectorTableCreator {
                     "text TEXT NOT NULL," +
                     "embedding vector(384) NOT NULL)";  // vector(维度)
             stmt.execute(sql);
+
+            // HNSW 索引（余弦距离），检索 ORDER BY embedding <=> ? LIMIT n 时避免全表扫描
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + PgvectorSchemaManager.INDEX_NAME +
+                    " ON rag_documents USING hnsw (embedding " + VectorMetric.COSINE.operatorClass() + ")");
+
+            // 全文检索列（由 text 自动生成）及 GIN 索引，用于混合检索中的关键词召回
+            stmt.execute("ALTER TABLE rag_documents ADD COLUMN IF NOT EXISTS text_tsv tsvector " +
+                    "GENERATED ALWAYS AS (to_tsvector('simple'::regconfig, text)) STORED");
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + PgvectorSchemaManager.TEXT_INDEX_NAME +
+                    " ON rag_documents USING gin (text_tsv)");
+
+            // 来源表及片段哈希列，用于去重和增量重新入库
+            PgvectorSchemaManager.createSourceSchema(stmt);
             System.out.println("表创建成功");
         } catch (SQLException e) {
             System.err.println("创建表时发生错误: " + e.getMessage());
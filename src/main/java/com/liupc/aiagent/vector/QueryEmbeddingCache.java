@@ -0,0 +1,178 @@
+package com.liupc.aiagent.vector;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.liupc.aiagent.service.EmbeddingService;
+import com.liupc.aiagent.util.RagMetrics;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * 问题向量缓存：问题 → 向量，命中时跳过嵌入模型推理
+ * 键经过归一化（全角转半角、小写、合并空白），按条数和存活时间淘汰
+ * 使用异步缓存：推理不在缓存内部的锁中执行，等待结果的虚拟线程不会占住载体线程
+ */
+@Component
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingService embeddingService;
+
+    private final RagMetrics metrics;
+
+    private final boolean enabled;
+
+    private final AsyncCache<String, float[]> cache;
+
+    @Autowired
+    public QueryEmbeddingCache(EmbeddingService embeddingService, RagMetrics metrics,
+                               @Value("${rag.query-cache.enabled:true}") boolean enabled,
+                               @Value("${rag.query-cache.max-size:10000}") long maxSize,
+                               @Value("${rag.query-cache.ttl-minutes:60}") long ttlMinutes) {
+        this.embeddingService = embeddingService;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        // 命中率、淘汰数等缓存统计以 cache_* 指标暴露
+        this.cache = CaffeineCacheMetrics.monitor(metrics.registry(), Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .recordStats()
+                // 未命中时的推理和缓存维护在虚拟线程上执行
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .<String, float[]>buildAsync(), "query-embedding");
+    }
+
+    /**
+     * 获取问题向量，未命中时调用嵌入模型生成并缓存（同一键并发未命中只推理一次）
+     * 返回的数组为缓存共享实例，调用方不得修改
+     */
+    public float[] embed(String question) {
+        long start = System.nanoTime();
+        if (!enabled) {
+            float[] vector = embeddingService.embed(question).vector();
+            metrics.recordQueryEmbedding("model", System.nanoTime() - start);
+            return vector;
+        }
+        String key = normalize(question);
+        AtomicBoolean computed = new AtomicBoolean();
+        CompletableFuture<float[]> vector = cache.get(key, (k, executor) -> {
+            computed.set(true);
+            return CompletableFuture.supplyAsync(() -> embeddingService.embed(k).vector(), executor);
+        });
+        try {
+            float[] result = vector.join();
+            // 等待其他请求正在进行的推理也记为 cache，只有本次触发推理时记为 model
+            metrics.recordQueryEmbedding(computed.get() ? "model" : "cache", System.nanoTime() - start);
+            return result;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 批量获取问题向量：命中的直接取缓存，未命中的问题合并为一次 embedAll 批量推理后写入缓存
+     * @return 与 questions 顺序一致的向量（缓存共享实例，调用方不得修改）
+     */
+    public List<float[]> embedAll(List<String> questions) {
+        long start = System.nanoTime();
+        if (!enabled) {
+            List<float[]> vectors = new ArrayList<>(questions.size());
+            for (Embedding embedding : embeddingService.embedAll(toSegments(questions))) {
+                vectors.add(embedding.vector());
+            }
+            metrics.recordQueryEmbedding("batch", System.nanoTime() - start);
+            return vectors;
+        }
+        List<String> keys = new ArrayList<>(questions.size());
+        for (String question : questions) {
+            keys.add(normalize(question));
+        }
+        // 重复的问题和其他请求正在推理的问题不会重复推理
+        CompletableFuture<Map<String, float[]>> vectors = cache.getAll(keys, (missing, executor) -> {
+            List<String> missingKeys = new ArrayList<>(missing);
+            return CompletableFuture.supplyAsync(() -> {
+                List<Embedding> embeddings = embeddingService.embedAll(toSegments(missingKeys));
+                Map<String, float[]> loaded = new HashMap<>();
+                for (int i = 0; i < missingKeys.size(); i++) {
+                    loaded.put(missingKeys.get(i), embeddings.get(i).vector());
+                }
+                return loaded;
+            }, executor);
+        });
+        try {
+            Map<String, float[]> byKey = vectors.join();
+            List<float[]> result = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                result.add(byKey.get(key));
+            }
+            metrics.recordQueryEmbedding("batch", System.nanoTime() - start);
+            return result;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<TextSegment> toSegments(List<String> texts) {
+        List<TextSegment> segments = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            segments.add(TextSegment.from(text));
+        }
+        return segments;
+    }
+
+    /**
+     * 归一化问题文本：NFKC（全角字母数字、标点转半角）、小写、首尾去空白、连续空白合并为一个空格
+     */
+    public static String normalize(String question) {
+        String text = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return WHITESPACE.matcher(text.trim()).replaceAll(" ");
+    }
+
+    /**
+     * 缓存命中统计
+     */
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.synchronous().stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("size", cache.synchronous().estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        return result;
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+        log.info("问题向量缓存已清空");
+    }
+}
@@ -0,0 +1,125 @@
+package com.liupc.aiagent.vector;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 文档来源记录（rag_sources）：每个集合中的每个来源文件一行，保存文件哈希、所属集合和标签；
+ * rag_documents 通过 source_id + chunk_hash 关联到来源，重新入库时据此只处理变化的片段
+ */
+@Component
+public class RagSourceStore {
+
+    private final DataSource dataSource;
+
+    @Autowired
+    public RagSourceStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * 查询来源的当前版本
+     * @param collection 所属集合
+     * @param sourceName 来源名称（上传时的文件名）
+     * @return 来源记录，未在该集合中入库过返回 null
+     */
+    public RagSource find(String collection, String sourceName) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            Integer sourceId = null;
+            String fileHash = null;
+            List<String> tags = null;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT id, file_hash, tags FROM rag_sources WHERE collection = ? AND source_name = ?")) {
+                pstmt.setString(1, collection);
+                pstmt.setString(2, sourceName);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        sourceId = rs.getInt("id");
+                        fileHash = rs.getString("file_hash");
+                        tags = Arrays.asList((String[]) rs.getArray("tags").getArray());
+                    }
+                }
+            }
+            if (sourceId == null) {
+                return null;
+            }
+
+            Set<String> chunkHashes = new HashSet<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT chunk_hash FROM rag_documents WHERE source_id = ?")) {
+                pstmt.setInt(1, sourceId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        chunkHashes.add(rs.getString(1));
+                    }
+                }
+            }
+            return new RagSource(sourceId, sourceName, fileHash, collection, tags, chunkHashes);
+        }
+    }
+
+    /**
+     * 来源记录及其已入库片段的哈希
+     */
+    public static class RagSource {
+        private final int id;
+        private final String name;
+        private final String fileHash;
+        private final String collection;
+        private final List<String> tags;
+        private final Set<String> chunkHashes;
+
+        private RagSource(int id, String name, String fileHash, String collection, List<String> tags,
+                          Set<String> chunkHashes) {
+            this.id = id;
+            this.name = name;
+            this.fileHash = fileHash;
+            this.collection = collection;
+            this.tags = tags;
+            this.chunkHashes = chunkHashes;
+        }
+
+        /**
+         * 文件内容和元数据都与本次入库相同
+         */
+        public boolean sameAs(IngestSource source) {
+            return fileHash.equals(source.getFileHash())
+                    && collection.equals(source.getCollection())
+                    && tags.equals(source.getTags());
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getFileHash() {
+            return fileHash;
+        }
+
+        public String getCollection() {
+            return collection;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        public Set<String> getChunkHashes() {
+            return chunkHashes;
+        }
+    }
+}
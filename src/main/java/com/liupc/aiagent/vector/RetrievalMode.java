@@ -0,0 +1,16 @@
+package com.liupc.aiagent.vector;
+
+import java.util.Locale;
+
+/**
+ * 检索模式
+ */
+public enum RetrievalMode {
+
+    VECTOR,  // 纯向量相似度检索
+    HYBRID;  // 全文检索 + 向量检索，按倒数排名融合（RRF）
+
+    public static RetrievalMode from(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
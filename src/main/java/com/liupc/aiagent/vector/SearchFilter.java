@@ -0,0 +1,130 @@
+package com.liupc.aiagent.vector;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 检索过滤条件（集合、标签、文件名、入库时间），条件作用在 rag_documents 的元数据列上，
+ * 在 ANN 查询内部过滤，而不是取全局 topK 后再过滤
+ * 集合名只含安全字符时以字面量写入 SQL，使规划器能匹配该集合的部分索引（参数化时通用计划无法匹配）
+ */
+public final class SearchFilter {
+
+    public static final SearchFilter NONE = new SearchFilter(null, List.of(), null, null);
+
+    // 可以直接写入 SQL 的集合名（也是建部分索引的要求）
+    private static final Pattern LITERAL_SAFE = Pattern.compile("[A-Za-z0-9_\\-]{1,64}");
+
+    private final String collection;
+    private final List<String> tags;
+    private final String fileName;
+    private final Instant ingestedAfter;
+
+    private SearchFilter(String collection, List<String> tags, String fileName, Instant ingestedAfter) {
+        this.collection = collection;
+        this.tags = tags;
+        this.fileName = fileName;
+        this.ingestedAfter = ingestedAfter;
+    }
+
+    /**
+     * 创建过滤条件，空值或空白表示不限制
+     * @param tags 需同时包含的标签
+     */
+    public static SearchFilter of(String collection, List<String> tags, String fileName, Instant ingestedAfter) {
+        List<String> tagList = new ArrayList<>();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (tag != null && !tag.isBlank()) {
+                    tagList.add(tag.trim());
+                }
+            }
+        }
+        SearchFilter filter = new SearchFilter(blankToNull(collection), List.copyOf(tagList), blankToNull(fileName),
+                ingestedAfter);
+        return filter.isEmpty() ? NONE : filter;
+    }
+
+    public static boolean isLiteralSafe(String collection) {
+        return collection != null && LITERAL_SAFE.matcher(collection).matches();
+    }
+
+    public boolean isEmpty() {
+        return collection == null && tags.isEmpty() && fileName == null && ingestedAfter == null;
+    }
+
+    /**
+     * 生成过滤条件（以 AND 连接，不含 WHERE），无条件时返回空串
+     * @param alias 表别名，为空时直接使用列名
+     */
+    public String conditions(String alias) {
+        String prefix = alias == null ? "" : alias + ".";
+        List<String> conditions = new ArrayList<>();
+        if (collection != null) {
+            conditions.add(prefix + "collection = " + (isLiteralSafe(collection) ? "'" + collection + "'" : "?"));
+        }
+        if (!tags.isEmpty()) {
+            conditions.add(prefix + "tags @> ?");
+        }
+        if (fileName != null) {
+            conditions.add(prefix + "file_name = ?");
+        }
+        if (ingestedAfter != null) {
+            conditions.add(prefix + "ingested_at >= ?");
+        }
+        return String.join(" AND ", conditions);
+    }
+
+    /**
+     * 生成 WHERE 子句（含前导空格），无条件时返回空串
+     */
+    public String where(String alias) {
+        String conditions = conditions(alias);
+        return conditions.isEmpty() ? "" : " WHERE " + conditions;
+    }
+
+    /**
+     * 按 conditions 中的顺序绑定参数
+     * @param index 第一个参数的下标
+     * @return 下一个可用的参数下标
+     */
+    public int bind(PreparedStatement pstmt, int index) throws SQLException {
+        if (collection != null && !isLiteralSafe(collection)) {
+            pstmt.setString(index++, collection);
+        }
+        if (!tags.isEmpty()) {
+            pstmt.setArray(index++, pstmt.getConnection().createArrayOf("text", tags.toArray()));
+        }
+        if (fileName != null) {
+            pstmt.setString(index++, fileName);
+        }
+        if (ingestedAfter != null) {
+            pstmt.setTimestamp(index++, Timestamp.from(ingestedAfter));
+        }
+        return index;
+    }
+
+    /**
+     * 用于区分缓存范围的键（不同过滤条件下的检索结果不能互相复用）
+     */
+    public String cacheKey() {
+        if (isEmpty()) {
+            return "";
+        }
+        return "collection=" + collection + ";tags=" + tags + ";file=" + fileName + ";after=" + ingestedAfter;
+    }
+
+    @Override
+    public String toString() {
+        return isEmpty() ? "无" : cacheKey();
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
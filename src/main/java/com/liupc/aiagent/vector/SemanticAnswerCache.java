@@ -0,0 +1,208 @@
+package com.liupc.aiagent.vector;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义答案缓存：保存问题向量、最终回答和参考文档，
+ * 新问题与已缓存问题的余弦相似度达到阈值时直接返回缓存的回答，跳过检索和大模型调用
+ * 文档入库后整体失效（按代次判断，失效前开始、失效后完成的请求不会写入旧结果）
+ * 带过滤条件的检索按范围（过滤条件）隔离，不同范围的回答不会互相命中
+ */
+@Component
+@Slf4j
+public class SemanticAnswerCache {
+
+    private final boolean enabled;
+
+    // 命中所需的最小余弦相似度
+    private final double similarityThreshold;
+
+    // 键为范围 + 归一化后的问题文本，值的淘汰策略由 Caffeine 负责
+    private final Cache<String, CachedAnswer> cache;
+
+    // 每次文档入库递增，写入缓存时代次不一致则丢弃
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    @Autowired
+    public SemanticAnswerCache(@Value("${rag.answer-cache.enabled:true}") boolean enabled,
+                               @Value("${rag.answer-cache.similarity-threshold:0.95}") double similarityThreshold,
+                               @Value("${rag.answer-cache.max-size:1000}") long maxSize,
+                               @Value("${rag.answer-cache.ttl-minutes:30}") long ttlMinutes) {
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMinutes(ttlMinutes))
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 当前代次，调用方在检索前获取并在写入时传回
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 查找语义相近的已缓存回答：先按归一化文本精确匹配，再遍历同一范围内的条目比较向量相似度
+     * @param scope 缓存范围（过滤条件的键，无过滤时为空串）
+     * @return 命中的缓存条目，未命中返回 null
+     */
+    public CachedAnswer lookup(String scope, String question, float[] queryVector) {
+        if (!enabled) {
+            return null;
+        }
+        CachedAnswer best = cache.getIfPresent(key(scope, question));
+        double bestSimilarity = best != null ? 1.0 : similarityThreshold;
+        if (best == null) {
+            float[] normalized = unitVector(queryVector);
+            for (CachedAnswer candidate : cache.asMap().values()) {
+                if (!candidate.scope.equals(scope)) {
+                    continue;
+                }
+                double similarity = dot(normalized, candidate.vector);
+                if (similarity >= bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+
+        if (best == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        log.info("语义缓存命中 - 问题: {}, 缓存问题: {}, 相似度: {}", question, best.question, bestSimilarity);
+        return best.withSimilarity(bestSimilarity);
+    }
+
+    /**
+     * 写入回答
+     * @param scope 缓存范围（过滤条件的键，无过滤时为空串）
+     * @param startGeneration 开始检索时的代次，期间有文档入库则不写入
+     */
+    public void put(String scope, String question, float[] queryVector, String answer, List<String> sources,
+                    long startGeneration) {
+        if (!enabled || startGeneration != generation.get()) {
+            return;
+        }
+        String key = key(scope, question);
+        cache.put(key, new CachedAnswer(scope, question, unitVector(queryVector), answer, List.copyOf(sources), 1.0));
+        // 写入与失效并发时以失效为准
+        if (startGeneration != generation.get()) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 文档变更后使所有缓存回答失效
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        log.info("文档已更新，语义答案缓存已清空");
+    }
+
+    public Map<String, Object> stats() {
+        long hits = hitCount.get();
+        long misses = missCount.get();
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("size", cache.estimatedSize());
+        result.put("similarityThreshold", similarityThreshold);
+        result.put("hitCount", hits);
+        result.put("missCount", misses);
+        result.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        result.put("generation", generation.get());
+        return result;
+    }
+
+    private static String key(String scope, String question) {
+        String normalized = QueryEmbeddingCache.normalize(question);
+        return scope.isEmpty() ? normalized : scope + "\n" + normalized;
+    }
+
+    private static float[] unitVector(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 缓存的回答（向量已归一化为单位长度）
+     */
+    public static class CachedAnswer {
+        private final String scope;
+        private final String question;
+        private final float[] vector;
+        private final String answer;
+        private final List<String> sources;
+        private final double similarity;
+
+        private CachedAnswer(String scope, String question, float[] vector, String answer, List<String> sources,
+                             double similarity) {
+            this.scope = scope;
+            this.question = question;
+            this.vector = vector;
+            this.answer = answer;
+            this.sources = sources;
+            this.similarity = similarity;
+        }
+
+        private CachedAnswer withSimilarity(double similarity) {
+            return new CachedAnswer(scope, question, vector, answer, sources, similarity);
+        }
+
+        public String getQuestion() {
+            return question;
+        }
+
+        public String getAnswer() {
+            return answer;
+        }
+
+        public List<String> getSources() {
+            return sources;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.liupc.aiagent.vector;
+
+/**
+ * 向量距离度量：检索运算符与建索引时的操作符类必须一致，索引才会被使用
+ */
+public enum VectorMetric {
+
+    COSINE("<=>", "vector_cosine_ops"),   // 余弦距离
+    L2("<->", "vector_l2_ops"),           // 欧氏距离
+    INNER_PRODUCT("<#>", "vector_ip_ops"); // 负内积
+
+    private final String operator;
+
+    private final String operatorClass;
+
+    VectorMetric(String operator, String operatorClass) {
+        this.operator = operator;
+        this.operatorClass = operatorClass;
+    }
+
+    public String operator() {
+        return operator;
+    }
+
+    public String operatorClass() {
+        return operatorClass;
+    }
+}
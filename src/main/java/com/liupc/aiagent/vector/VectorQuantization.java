@@ -0,0 +1,67 @@
+package com.liupc.aiagent.vector;
+
+/**
+ * ANN 索引的向量量化方式：embedding 列始终保存全精度向量，量化只作用在索引表达式上，
+ * 检索先在量化索引上取候选，再按全精度向量重新计算距离排序（需要 pgvector 0.7.0 及以上版本）
+ */
+public enum VectorQuantization {
+
+    // 直接索引 vector（float32）
+    NONE,
+    // 半精度 halfvec 表达式索引，索引大小约为一半，距离度量不变
+    HALFVEC,
+    // 二值量化 bit 表达式索引（每维 1 位，按汉明距离检索），索引大小约为 1/32
+    BINARY;
+
+    /**
+     * 建索引的列表达式与操作符类
+     */
+    public String indexColumn(VectorMetric metric, int dimension) {
+        switch (this) {
+            case HALFVEC:
+                return "(" + indexExpression("embedding", dimension) + ") "
+                        + metric.operatorClass().replace("vector_", "halfvec_");
+            case BINARY:
+                return "(" + indexExpression("embedding", dimension) + ") bit_hamming_ops";
+            default:
+                return "embedding " + metric.operatorClass();
+        }
+    }
+
+    /**
+     * 量化后的列表达式（与建索引的表达式一致，索引才会被使用）
+     */
+    public String indexExpression(String column, int dimension) {
+        switch (this) {
+            case HALFVEC:
+                return column + "::halfvec(" + dimension + ")";
+            case BINARY:
+                return "binary_quantize(" + column + ")::bit(" + dimension + ")";
+            default:
+                return column;
+        }
+    }
+
+    /**
+     * 量化索引上的距离运算符
+     */
+    public String operator(VectorMetric metric) {
+        return this == BINARY ? "<~>" : metric.operator();
+    }
+
+    /**
+     * 判断已有索引定义是否为本量化方式建立
+     */
+    public boolean matches(String indexDefinition) {
+        boolean halfvec = indexDefinition.contains("halfvec");
+        boolean binary = indexDefinition.contains("binary_quantize");
+        switch (this) {
+            case HALFVEC:
+                return halfvec;
+            case BINARY:
+                return binary;
+            default:
+                return !halfvec && !binary;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.liupc.aiagent.vector;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 向量检索后端（pgvector 数据库检索 / 进程内 HNSW 检索），由 rag.retriever.backend 选择
+ */
+public interface VectorSearchBackend {
+
+    /**
+     * 后端名称（与 rag.retriever.backend 配置值对应）
+     */
+    String name();
+
+    /**
+     * 检索与查询向量最相似的文档
+     * @param queryVector 问题向量
+     * @param topN 最多返回的文档数量
+     * @param distanceThreshold 距离阈值，只返回距离小于该值的文档
+     * @param filter 元数据过滤条件（在 ANN 查询内过滤）
+     * @param efSearch HNSW 候选队列大小，为空时使用默认值
+     * @param probes IVFFlat 探测的聚类数，为空时使用默认值（不支持的后端忽略）
+     * @return 按距离升序排列的文档内容
+     */
+    List<String> search(float[] queryVector, int topN, double distanceThreshold, SearchFilter filter,
+                        Integer efSearch, Integer probes) throws SQLException;
+
+    /**
+     * 批量检索：为多个查询向量分别检索相似文档，默认逐个调用 search，后端可覆盖为一次往返完成
+     * @param queryVectors 问题向量列表
+     * @return 与 queryVectors 顺序一致的检索结果，每项按距离升序排列
+     */
+    default List<List<String>> searchBatch(List<float[]> queryVectors, int topN, double distanceThreshold,
+                                           SearchFilter filter, Integer efSearch, Integer probes) throws SQLException {
+        List<List<String>> results = new ArrayList<>(queryVectors.size());
+        for (float[] queryVector : queryVectors) {
+            results.add(search(queryVector, topN, distanceThreshold, filter, efSearch, probes));
+        }
+        return results;
+    }
+
+    /**
+     * 混合检索：全文检索与向量检索各取候选，按倒数排名融合（RRF）后返回
+     * @param queryText 问题原文（用于全文检索）
+     * @param queryVector 问题向量
+     * @param distanceThreshold 向量候选的距离阈值（全文候选不受限制）
+     * @return 按融合得分降序排列的文档内容
+     */
+    List<String> hybridSearch(String queryText, float[] queryVector, int topN, double distanceThreshold,
+                              SearchFilter filter, Integer efSearch, Integer probes) throws SQLException;
+
+    /**
+     * rag_documents 有新数据提交后回调
+     */
+    default void documentsChanged() {
+    }
+
+    /**
+     * rag_documents 中的文档被删除后回调（先于同一次提交的 documentsChanged）
+     * @param documentIds 已删除的文档ID
+     */
+    default void documentsDeleted(Collection<Long> documentIds) {
+    }
+
+    /**
+     * rag_documents 被整体删除或替换后回调（删除集合、迁移为分区表），无法逐个列出受影响的文档，后端需重新加载
+     */
+    default void documentsReloaded() {
+    }
+}
@@ -0,0 +1,143 @@
+package com.liupc.aiagent.service.impl;
+
+import com.liupc.aiagent.service.LargeModelService;
+import com.liupc.aiagent.util.CircuitBreaker;
+import com.liupc.aiagent.util.RagMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HedgedModelInvokerTest {
+
+    private final LargeModelService qwen = mock(LargeModelService.class);
+
+    private final LargeModelService ollama = mock(LargeModelService.class);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private HedgedModelInvoker invoker;
+
+    @BeforeEach
+    void setUp() {
+        // 熔断：窗口 4 次、至少 2 次、失败率 50%、熔断 60 秒
+        invoker = new HedgedModelInvoker(qwen, ollama, 4, 2, 0.5, 60, 50, new RagMetrics(registry));
+        ReflectionTestUtils.setField(invoker, "hedgeEnabled", true);
+        ReflectionTestUtils.setField(invoker, "hedgePercentile", 0.95);
+        // 对冲延迟留出余量，避免首次调用的类加载耗时触发对冲
+        ReflectionTestUtils.setField(invoker, "initialDelayMillis", 2000L);
+        ReflectionTestUtils.setField(invoker, "minDelayMillis", 10L);
+        ReflectionTestUtils.setField(invoker, "maxDelayMillis", 1000L);
+        ReflectionTestUtils.setField(invoker, "minSamples", 20);
+    }
+
+    @AfterEach
+    void tearDown() {
+        invoker.shutdown();
+    }
+
+    private static Map<String, Object> success(String response) {
+        return Map.of("success", true, "response", response);
+    }
+
+    private long modelCalls(String provider, String outcome) {
+        Timer timer = registry.find("llm.request").tags("provider", provider, "outcome", outcome).timer();
+        return timer != null ? timer.count() : 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> breakerState(String provider) {
+        return (Map<String, Object>) invoker.describe().get(provider);
+    }
+
+    @Test
+    void slowPrimaryIsHedgedAndLoserCancelled() throws InterruptedException {
+        ReflectionTestUtils.setField(invoker, "initialDelayMillis", 50L);
+        CountDownLatch primaryInterrupted = new CountDownLatch(1);
+        when(qwen.handleMessage(anyString())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                return success("primary");
+            } catch (InterruptedException e) {
+                primaryInterrupted.countDown();
+                throw new IllegalStateException("请求已取消", e);
+            }
+        });
+        when(ollama.handleMessage(anyString())).thenReturn(success("backup"));
+
+        Map<String, Object> result = invoker.call("问题");
+
+        assertThat(result).containsEntry("success", true).containsEntry("response", "backup")
+                .containsEntry("provider", "ollama").containsEntry("hedged", true);
+        // 落败的主模型请求被中断，且不计入熔断统计
+        assertThat(primaryInterrupted.await(5, TimeUnit.SECONDS)).isTrue();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (modelCalls("qwen", "cancelled") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(modelCalls("qwen", "cancelled")).isEqualTo(1);
+        assertThat(modelCalls("qwen", "failure")).isZero();
+        assertThat(breakerState("qwen")).containsEntry("state", "CLOSED").containsEntry("calls", 0);
+        assertThat(breakerState("ollama")).containsEntry("calls", 1).containsEntry("failures", 0);
+    }
+
+    @Test
+    void fastPrimaryIsNotHedged() {
+        when(qwen.handleMessage(anyString())).thenReturn(success("primary"));
+
+        Map<String, Object> result = invoker.call("问题");
+
+        assertThat(result).containsEntry("provider", "qwen").containsEntry("hedged", false);
+        verify(ollama, never()).handleMessage(anyString());
+    }
+
+    @Test
+    void failedPrimarySwitchesToBackupAndOpensBreaker() {
+        when(qwen.handleMessage(anyString())).thenReturn(Map.of("success", false, "error", "boom"));
+        when(ollama.handleMessage(anyString())).thenReturn(success("backup"));
+
+        // 失败切换不是对冲
+        assertThat(invoker.call("问题")).containsEntry("provider", "ollama").containsEntry("hedged", false);
+        assertThat(invoker.call("问题")).containsEntry("provider", "ollama").containsEntry("hedged", false);
+        assertThat(breakerState("qwen")).containsEntry("state", "OPEN");
+
+        // 主模型熔断期间直接使用备用模型
+        assertThat(invoker.call("问题")).containsEntry("provider", "ollama").containsEntry("hedged", false);
+        verify(qwen, times(2)).handleMessage(anyString());
+    }
+
+    @Test
+    void hedgeTimeoutWithoutAvailableBackupIsNotReportedAsHedged() {
+        // 备用模型已熔断：主模型超过对冲延迟时没有可对冲的模型
+        List<?> providers = (List<?>) ReflectionTestUtils.getField(invoker, "providers");
+        CircuitBreaker backupBreaker = (CircuitBreaker) ReflectionTestUtils.getField(providers.get(1), "breaker");
+        backupBreaker.onFailure();
+        backupBreaker.onFailure();
+        assertThat(breakerState("ollama")).containsEntry("state", "OPEN");
+
+        ReflectionTestUtils.setField(invoker, "initialDelayMillis", 50L);
+        when(qwen.handleMessage(anyString())).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return success("primary");
+        });
+
+        assertThat(invoker.call("问题")).containsEntry("provider", "qwen").containsEntry("hedged", false);
+        verify(ollama, never()).handleMessage(anyString());
+    }
+}
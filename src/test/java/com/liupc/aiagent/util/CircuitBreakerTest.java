@@ -0,0 +1,115 @@
+package com.liupc.aiagent.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+    // 窗口 4 次、至少 2 次调用、失败率 50% 熔断
+    private static CircuitBreaker breaker() {
+        return new CircuitBreaker("test", 4, 2, 0.5, OPEN_DURATION);
+    }
+
+    private static void call(CircuitBreaker breaker, boolean success) {
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        if (success) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+    }
+
+    private static CircuitBreaker opened() {
+        CircuitBreaker breaker = breaker();
+        call(breaker, false);
+        call(breaker, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        return breaker;
+    }
+
+    private static void waitOpenDuration() throws InterruptedException {
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThresholdAfterMinimumCalls() {
+        CircuitBreaker breaker = breaker();
+        call(breaker, false);
+        // 调用数未达到 minimumCalls，不计算失败率
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        call(breaker, true);
+        // 成功的调用不触发熔断判断
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        call(breaker, false);
+        // 2 / 3 超过 50%
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void slidingWindowForgetsOldFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 4, 4, 0.5, OPEN_DURATION);
+        call(breaker, false);
+        call(breaker, true);
+        call(breaker, true);
+        call(breaker, true);
+        call(breaker, true);
+        // 第一次失败已移出窗口
+        assertThat(breaker.snapshot()).containsEntry("calls", 4).containsEntry("failures", 0);
+        call(breaker, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        call(breaker, false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void halfOpenAllowsSingleTrialAndClosesOnSuccess() throws InterruptedException {
+        CircuitBreaker breaker = opened();
+        waitOpenDuration();
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        // 试探调用进行中，其余调用被拒绝
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.snapshot()).containsEntry("calls", 0);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void failedTrialReopens() throws InterruptedException {
+        CircuitBreaker breaker = opened();
+        waitOpenDuration();
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        // 重新计时
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void ignoredTrialReturnsPermitWithoutChangingState() throws InterruptedException {
+        CircuitBreaker breaker = opened();
+        waitOpenDuration();
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        breaker.onIgnored();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    void ignoredCallsAreNotCounted() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 10; i++) {
+            assertThat(breaker.tryAcquirePermission()).isTrue();
+            breaker.onIgnored();
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.snapshot()).containsEntry("calls", 0);
+    }
+}
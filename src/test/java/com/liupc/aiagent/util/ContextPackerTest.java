@@ -0,0 +1,138 @@
+package com.liupc.aiagent.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContextPackerTest {
+
+    private static final String CJK = "线程池核心参数包括最大数空闲存活时间任务队列拒绝策略虚拟阻塞网络数据库密集平台检索向量索引分层图";
+
+    private static final String[] WORDS = {
+            "retriever", "embedding", "pgvector", "layer", "graph", "overlap", "boundary", "latency",
+            "throughput", "replica", "cache", "batch", "token", "budget", "segment", "query"
+    };
+
+    private static ContextPacker packer(int maxTokens) {
+        return new ContextPacker(new RagMetrics(new SimpleMeterRegistry()), true, maxTokens, 0.7, 0.8);
+    }
+
+    // 中英文混排的随机片段，片段之间相似度低且没有长重叠
+    private static String mixed(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (random.nextBoolean()) {
+                for (int c = 2 + random.nextInt(4); c > 0; c--) {
+                    text.append(CJK.charAt(random.nextInt(CJK.length())));
+                }
+            } else {
+                text.append(' ').append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+        }
+        return text.toString().trim();
+    }
+
+    private static int tokens(List<String> documents) {
+        int total = 0;
+        for (String document : documents) {
+            total += ContextPacker.estimateTokens(document);
+        }
+        return total;
+    }
+
+    @Test
+    void estimateTokensCountsCjkPerCharacterAndOtherPerFour() {
+        assertThat(ContextPacker.estimateTokens("线程池")).isEqualTo(3);
+        assertThat(ContextPacker.estimateTokens("abcd")).isEqualTo(1);
+        assertThat(ContextPacker.estimateTokens("abcde")).isEqualTo(2);
+        // 空白不计入
+        assertThat(ContextPacker.estimateTokens("线程 pool 池")).isEqualTo(4);
+    }
+
+    @Test
+    void budgetRespectedForMixedCjkAndAscii() {
+        Random random = new Random(11);
+        List<String> documents = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            documents.add(mixed(random, 4 + random.nextInt(8)));
+        }
+        assertThat(tokens(documents)).isGreaterThan(300);
+        // 每个片段都能完整装入最小的预算，避免截断后的片段混入结果
+        assertThat(documents).allSatisfy(document ->
+                assertThat(ContextPacker.estimateTokens(document)).isLessThanOrEqualTo(60));
+
+        for (int maxTokens : new int[]{60, 120, 300}) {
+            List<String> packed = packer(maxTokens).pack(documents);
+            assertThat(packed).as("maxTokens=%d", maxTokens).isNotEmpty();
+            assertThat(tokens(packed)).as("maxTokens=%d", maxTokens).isLessThanOrEqualTo(maxTokens);
+            // 输出按相关性（检索排名）排列
+            List<Integer> ranks = new ArrayList<>();
+            for (String document : packed) {
+                ranks.add(documents.indexOf(document));
+            }
+            assertThat(ranks).doesNotContain(-1).isSorted();
+        }
+    }
+
+    @Test
+    void overlappingNeighbourChunksAreMergedOnce() {
+        String overlapA = "the retriever embeds the question first. ";
+        String overlapB = "HNSW descends greedily from the top layer. ";
+        String first = "Chunk one explains the pipeline end to end. " + overlapA;
+        String second = overlapA + "Then it queries pgvector for nearest chunks. " + overlapB;
+        String third = overlapB + "Lower layers refine the candidate list.";
+        String unrelated = "线程池的核心参数包括核心线程数、最大线程数、空闲存活时间和任务队列。";
+
+        // 检索顺序与原文顺序不同，相邻关系只能从文本重叠判断
+        List<String> packed = packer(1000).pack(List.of(second, unrelated, third, first));
+
+        String joined = (first + second.substring(overlapA.length()) + third.substring(overlapB.length())).trim();
+        assertThat(packed).containsExactly(joined, unrelated);
+        assertThat(packed.get(0).split(overlapA.trim(), -1)).hasSize(2);
+        assertThat(packed.get(0).split(overlapB.trim(), -1)).hasSize(2);
+    }
+
+    @Test
+    void containedChunkIsMergedIntoItsContainer() {
+        String whole = "Chunk overlap keeps context that would otherwise be cut at a boundary between chunks.";
+        String part = "context that would otherwise be cut";
+        assertThat(packer(1000).pack(List.of(part, whole))).containsExactly(whole);
+    }
+
+    @Test
+    void nearDuplicatesAreDroppedByMmr() {
+        String original = "当任务队列已满且线程数达到上限时，线程池会触发拒绝策略，默认策略直接抛出异常。";
+        String nearDuplicate = "当任务队列已满且线程数达到上限时，线程池会触发拒绝策略，默认策略会抛出异常。";
+        String distinct = "HNSW builds a layered proximity graph; queries descend greedily from the top layer.";
+
+        List<String> packed = packer(1000).pack(List.of(original, nearDuplicate, distinct));
+        assertThat(packed).containsExactly(original, distinct);
+    }
+
+    @Test
+    void singleOverBudgetChunkIsTruncatedInsteadOfDropped() {
+        Random random = new Random(5);
+        StringBuilder text = new StringBuilder();
+        while (ContextPacker.estimateTokens(text.toString()) < 400) {
+            text.append(CJK.charAt(random.nextInt(CJK.length())));
+        }
+        String document = text.toString();
+
+        List<String> packed = packer(100).pack(List.of(document));
+        assertThat(packed).hasSize(1);
+        assertThat(document).startsWith(packed.get(0));
+        assertThat(ContextPacker.estimateTokens(packed.get(0))).isEqualTo(100);
+    }
+
+    @Test
+    void disabledPackerReturnsDocumentsUnchanged() {
+        ContextPacker disabled = new ContextPacker(new RagMetrics(new SimpleMeterRegistry()), false, 10, 0.7, 0.8);
+        List<String> documents = List.of("线程池的核心参数包括核心线程数、最大线程数、空闲存活时间和任务队列。", "duplicate", "duplicate");
+        assertThat(disabled.pack(documents)).isSameAs(documents);
+    }
+}
@@ -0,0 +1,94 @@
+package com.liupc.aiagent.util;
+
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextSplitterTest {
+
+    private static final String[] SENTENCES = {
+            "线程池的核心参数包括核心线程数、最大线程数、空闲存活时间和任务队列。",
+            "当任务队列已满且线程数达到上限时，会触发拒绝策略。",
+            "The retriever embeds the question and returns the nearest chunks from pgvector.",
+            "HNSW builds a layered proximity graph; queries descend greedily from the top layer.",
+            "虚拟线程适合阻塞在网络和数据库上的任务，CPU 密集任务仍应使用平台线程。",
+            "Chunk overlap keeps context that would otherwise be cut at a boundary."
+    };
+
+    // 多个段落，每段若干句子，长度足以跨越多个缓冲窗口
+    private static String document(long seed, int paragraphs) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int p = 0; p < paragraphs; p++) {
+            int sentences = 2 + random.nextInt(8);
+            for (int s = 0; s < sentences; s++) {
+                text.append(SENTENCES[random.nextInt(SENTENCES.length)]).append(' ');
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    private static List<String> streamed(String text, int chunkSize, int chunkOverlap, int pieceSize) {
+        TextSplitter.StreamingSplitter splitter = new TextSplitter.StreamingSplitter(chunkSize, chunkOverlap);
+        List<String> segments = new ArrayList<>();
+        for (int from = 0; from < text.length(); from += pieceSize) {
+            splitter.append(text.substring(from, Math.min(from + pieceSize, text.length())))
+                    .forEach(segment -> segments.add(segment.text()));
+        }
+        splitter.finish().forEach(segment -> segments.add(segment.text()));
+        return segments;
+    }
+
+    private static List<String> oneShot(String text, int chunkSize, int chunkOverlap) {
+        List<String> segments = new ArrayList<>();
+        for (TextSegment segment : TextSplitter.splitText(text, chunkSize, chunkOverlap)) {
+            segments.add(segment.text());
+        }
+        return segments;
+    }
+
+    @Test
+    void streamingMatchesOneShotAcrossAppendBoundaries() {
+        String text = document(42, 120);
+        List<String> expected = oneShot(text, 500, 100);
+        assertThat(expected.size()).isGreaterThan(20);
+        // 块大小小于、接近和大于缓冲窗口（chunkSize × 8）
+        for (int pieceSize : new int[]{37, 499, 1000, 4001, 9000}) {
+            assertThat(streamed(text, 500, 100, pieceSize)).as("pieceSize=%d", pieceSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void streamingMatchesOneShotWithoutParagraphBreaks() {
+        // 没有段落分隔时递归分割退化为按句子 / 按字符切分
+        String text = document(7, 60).replace("\n\n", "");
+        List<String> expected = oneShot(text, 300, 50);
+        for (int pieceSize : new int[]{64, 2400, 5000}) {
+            assertThat(streamed(text, 300, 50, pieceSize)).as("pieceSize=%d", pieceSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void streamingMatchesOneShotAroundOversizedParagraph() {
+        // 普通段落之间夹着一个超过缓冲窗口的段落
+        String text = document(3, 20) + document(5, 60).replace("\n\n", "") + "\n\n" + document(9, 20);
+        List<String> expected = oneShot(text, 500, 100);
+        for (int pieceSize : new int[]{53, 1200, 4500}) {
+            assertThat(streamed(text, 500, 100, pieceSize)).as("pieceSize=%d", pieceSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void shortInputIsEmittedOnFinish() {
+        TextSplitter.StreamingSplitter splitter = new TextSplitter.StreamingSplitter(500, 100);
+        assertThat(splitter.append(SENTENCES[0])).isEmpty();
+        assertThat(splitter.finish()).extracting(TextSegment::text).containsExactly(SENTENCES[0]);
+        assertThat(splitter.finish()).isEmpty();
+    }
+}
@@ -0,0 +1,64 @@
+package com.liupc.aiagent.vector;
+
+import com.liupc.aiagent.util.RagMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CrossEncoderRerankerTest {
+
+    private static final List<String> DOCUMENTS = List.of("a", "b", "c", "d", "e");
+
+    @Test
+    void selectOrdersScoredByScoreThenUnscoredByRetrieval() {
+        float[] scores = {0.1f, 0.9f, 0.5f, 0, 0};
+        assertThat(CrossEncoderReranker.select(DOCUMENTS, scores, 5, 3)).containsExactly("b", "c", "a");
+    }
+
+    @Test
+    void selectFillsPartialScoringInRetrievalOrder() {
+        // 预算内只打分了前 3 个，其余按检索顺序补足
+        float[] scores = {0.1f, 0.9f, 0.5f, 0, 0};
+        assertThat(CrossEncoderReranker.select(DOCUMENTS, scores, 3, 4)).containsExactly("b", "c", "a", "d");
+        assertThat(CrossEncoderReranker.select(DOCUMENTS, scores, 0, 2)).containsExactly("a", "b");
+    }
+
+    @Test
+    void selectWithTopNLargerThanCandidatesReturnsAll() {
+        float[] scores = {-1f, 2f, 0, 0, 0};
+        assertThat(CrossEncoderReranker.select(DOCUMENTS, scores, 2, 10)).containsExactly("b", "a", "c", "d", "e");
+    }
+
+    @Test
+    void toScoresTakesRelevantColumnOfBinaryClassifier() {
+        // [batch, 2]：最后一列为相关类
+        float[][] logits = {{0.8f, -1.5f}, {-2f, 3f}};
+        assertThat(CrossEncoderReranker.toScores(logits, 2)).containsExactly(-1.5f, 3f);
+    }
+
+    @Test
+    void toScoresAcceptsSingleLogitShapes() {
+        float[][] column = {{0.3f}, {-0.7f}, {1.2f}};
+        assertThat(CrossEncoderReranker.toScores(column, 3)).containsExactly(0.3f, -0.7f, 1.2f);
+        assertThat(CrossEncoderReranker.toScores(new float[]{0.3f, -0.7f}, 2)).containsExactly(0.3f, -0.7f);
+    }
+
+    @Test
+    void toScoresRejectsUnsupportedOutput() {
+        assertThatThrownBy(() -> CrossEncoderReranker.toScores(new long[]{1, 2}, 2))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void disabledRerankerKeepsRetrievalOrder() {
+        CrossEncoderReranker reranker = new CrossEncoderReranker(new RagMetrics(new SimpleMeterRegistry()),
+                false, "", "", 20, 8, 256, 300, 2);
+        assertThat(reranker.candidateCount(5)).isEqualTo(5);
+        assertThat(reranker.rerank("q", DOCUMENTS, 3, System.nanoTime())).containsExactly("a", "b", "c");
+        assertThat(reranker.rerank("q", DOCUMENTS, 10, System.nanoTime())).isEqualTo(DOCUMENTS);
+    }
+}
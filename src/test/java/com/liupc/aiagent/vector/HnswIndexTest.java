@@ -0,0 +1,214 @@
+package com.liupc.aiagent.vector;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    private static float[][] randomVectors(long seed, int count) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][DIMENSION];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    // 暴力计算的距离，语义与 pgvector 运算符一致
+    private static double exactDistance(VectorMetric metric, float[] a, float[] b) {
+        double dot = 0, normA = 0, normB = 0, squared = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+            squared += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        switch (metric) {
+            case L2:
+                return Math.sqrt(squared);
+            case INNER_PRODUCT:
+                return -dot;
+            default:
+                return 1 - dot / Math.sqrt(normA * normB);
+        }
+    }
+
+    private static List<Long> bruteForce(VectorMetric metric, float[][] vectors, float[] query, int k) {
+        return IntStream.range(0, vectors.length).boxed()
+                .sorted(Comparator.comparingDouble(i -> exactDistance(metric, vectors[i], query)))
+                .limit(k)
+                .map(Integer::longValue)
+                .toList();
+    }
+
+    private static HnswIndex build(VectorMetric metric, float[][] vectors) {
+        HnswIndex index = new HnswIndex(DIMENSION, metric, 16, 64);
+        for (int i = 0; i < vectors.length; i++) {
+            index.add(i, vectors[i]);
+        }
+        return index;
+    }
+
+    @Test
+    void recallAgainstBruteForce() {
+        float[][] vectors = randomVectors(1, 3000);
+        float[][] queries = randomVectors(2, 50);
+        for (VectorMetric metric : VectorMetric.values()) {
+            HnswIndex index = build(metric, vectors);
+            int found = 0;
+            for (float[] query : queries) {
+                Set<Long> expected = new HashSet<>(bruteForce(metric, vectors, query, 10));
+                for (HnswIndex.Hit hit : index.search(query, 10, 100)) {
+                    if (expected.contains(hit.getId())) {
+                        found++;
+                    }
+                }
+            }
+            assertThat(found / (double) (queries.length * 10)).as("recall@10 %s", metric).isGreaterThan(0.9);
+        }
+    }
+
+    @Test
+    void hitsAreSortedWithExactDistances() {
+        float[][] vectors = randomVectors(3, 500);
+        float[] query = randomVectors(4, 1)[0];
+        for (VectorMetric metric : VectorMetric.values()) {
+            List<HnswIndex.Hit> hits = build(metric, vectors).search(query, 20, 80);
+            assertThat(hits).hasSize(20);
+            assertThat(hits).isSortedAccordingTo(Comparator.comparingDouble(HnswIndex.Hit::getDistance));
+            for (HnswIndex.Hit hit : hits) {
+                assertThat(hit.getDistance()).as("%s id=%d", metric, hit.getId())
+                        .isCloseTo(exactDistance(metric, vectors[(int) hit.getId()], query), within(1e-4));
+            }
+        }
+    }
+
+    @Test
+    void distanceSemanticsMatchPgvector() {
+        float[] a = new float[DIMENSION];
+        float[] b = new float[DIMENSION];
+        a[0] = 3;
+        a[1] = 4;
+        b[0] = 2;
+
+        HnswIndex cosine = new HnswIndex(DIMENSION, VectorMetric.COSINE, 16, 64);
+        cosine.add(7, b);
+        // cos = 6 / (5 * 2) = 0.6，向量长度不影响余弦距离
+        assertThat(cosine.search(a, 1, 10).get(0).getDistance()).isCloseTo(0.4, within(1e-6));
+
+        HnswIndex l2 = new HnswIndex(DIMENSION, VectorMetric.L2, 16, 64);
+        l2.add(7, b);
+        // sqrt(1 + 16)
+        assertThat(l2.search(a, 1, 10).get(0).getDistance()).isCloseTo(Math.sqrt(17), within(1e-6));
+
+        HnswIndex innerProduct = new HnswIndex(DIMENSION, VectorMetric.INNER_PRODUCT, 16, 64);
+        innerProduct.add(7, b);
+        assertThat(innerProduct.search(a, 1, 10).get(0).getDistance()).isCloseTo(-6, within(1e-6));
+    }
+
+    @Test
+    void deletedVectorsAreSkippedButKStillReturned() {
+        float[][] vectors = randomVectors(6, 2000);
+        float[] query = randomVectors(7, 1)[0];
+        HnswIndex index = build(VectorMetric.COSINE, vectors);
+
+        // 删除原本最近的 30 个，外加一个不在索引中的 id
+        List<Long> nearest = bruteForce(VectorMetric.COSINE, vectors, query, 30);
+        List<Long> toDelete = new ArrayList<>(nearest);
+        toDelete.add(99_999L);
+        assertThat(index.delete(toDelete)).isEqualTo(30);
+        assertThat(index.delete(nearest)).isZero();
+        assertThat(index.size()).isEqualTo(vectors.length - 30);
+        assertThat(index.deletedCount()).isEqualTo(30);
+
+        List<HnswIndex.Hit> hits = index.search(query, 10, 100);
+        assertThat(hits).hasSize(10);
+        assertThat(hits).extracting(HnswIndex.Hit::getId).doesNotContainAnyElementsOf(nearest);
+        // 剩余向量中的真实近邻仍能找到
+        Set<Long> expected = new HashSet<>(bruteForce(VectorMetric.COSINE, vectors, query, 40).subList(30, 40));
+        assertThat(hits).filteredOn(hit -> expected.contains(hit.getId())).hasSizeGreaterThanOrEqualTo(8);
+    }
+
+    @Test
+    void emptyIndexAndDimensionMismatch() {
+        HnswIndex index = new HnswIndex(DIMENSION, VectorMetric.COSINE, 16, 64);
+        assertThat(index.search(new float[DIMENSION], 5, 10)).isEmpty();
+        assertThatThrownBy(() -> index.add(1, new float[DIMENSION + 1])).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void concurrentAddAndSearch() throws Exception {
+        float[][] vectors = randomVectors(5, 4000);
+        HnswIndex index = new HnswIndex(DIMENSION, VectorMetric.L2, 16, 64);
+        for (int i = 0; i < 200; i++) {
+            index.add(i, vectors[i]);
+        }
+
+        int writers = 4;
+        int readers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers + readers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int w = 0; w < writers; w++) {
+                int first = 200 + w;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = first; i < vectors.length; i += writers) {
+                        index.add(i, vectors[i]);
+                    }
+                    return null;
+                }));
+            }
+            for (int r = 0; r < readers; r++) {
+                float[][] queries = randomVectors(100 + r, 200);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (float[] query : queries) {
+                        List<HnswIndex.Hit> hits = index.search(query, 10, 40);
+                        assertThat(hits).hasSize(10);
+                        assertThat(hits).isSortedAccordingTo(Comparator.comparingDouble(HnswIndex.Hit::getDistance));
+                        assertThat(hits).allSatisfy(hit -> assertThat(hit.getId()).isBetween(0L, (long) vectors.length - 1));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(index.size()).isEqualTo(vectors.length);
+        // 并发插入后图仍然连通：每个向量都能以自身为查询找到
+        int selfHits = 0;
+        for (int i = 0; i < vectors.length; i++) {
+            if (index.search(vectors[i], 1, 40).get(0).getId() == i) {
+                selfHits++;
+            }
+        }
+        assertThat(selfHits / (double) vectors.length).isGreaterThan(0.99);
+    }
+}